@@ -135,6 +135,11 @@ android {
         viewBinding = true
         buildConfig = true
     }
+
+    // lets jvm tests make the likes of SpannableString, which then do nothing
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 fun versionBanner(): String {
@@ -119,6 +119,7 @@ public class PreferencesActivity extends AppCompatActivity implements Preference
         private Preference sslGroup = null;
         private Preference sshGroup = null;
         private Preference wsPath = null;
+        private Preference nioTransport = null;
 
         // don't check permissions if preference is null, instead use resumePreference
         @Override public void onDisplayPreferenceDialog(Preference preference) {
@@ -163,6 +164,7 @@ public class PreferencesActivity extends AppCompatActivity implements Preference
                 sslGroup = findPreference(PREF_SSL_GROUP);
                 sshGroup = findPreference(PREF_SSH_GROUP);
                 wsPath = findPreference(PREF_WS_PATH);
+                nioTransport = findPreference(PREF_NIO_TRANSPORT);
                 showHideStuff(getPreferenceScreen().getSharedPreferences().getString(PREF_CONNECTION_TYPE, PREF_CONNECTION_TYPE_D));
                 listenTo = new String[] {PREF_CONNECTION_TYPE, PREF_HOST, PREF_PORT};
             } else if (PREF_SSH_GROUP.equals(key)) {
@@ -282,6 +284,7 @@ public class PreferencesActivity extends AppCompatActivity implements Preference
             sslGroup.setVisible(Utils.isAnyOf(type, PREF_TYPE_SSL, PREF_TYPE_WEBSOCKET_SSL));
             sshGroup.setVisible(PREF_TYPE_SSH.equals(type));
             wsPath.setVisible(Utils.isAnyOf(type, PREF_TYPE_WEBSOCKET, PREF_TYPE_WEBSOCKET_SSL));
+            nioTransport.setVisible(!Utils.isAnyOf(type, PREF_TYPE_SSH, PREF_TYPE_WEBSOCKET, PREF_TYPE_WEBSOCKET_SSL));
         }
 
         private void switchSshAuthenticationMethodPreferences(@Nullable String method) {
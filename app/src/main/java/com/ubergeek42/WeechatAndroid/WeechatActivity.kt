@@ -60,6 +60,7 @@ import com.ubergeek42.WeechatAndroid.notifications.shouldRequestNotificationPerm
 import com.ubergeek42.WeechatAndroid.notifications.showNotificationPermissionRationaleDialog
 import com.ubergeek42.WeechatAndroid.notifications.statistics
 import com.ubergeek42.WeechatAndroid.relay.BufferList
+import com.ubergeek42.WeechatAndroid.relay.LineCache
 import com.ubergeek42.WeechatAndroid.service.Events.ExceptionEvent
 import com.ubergeek42.WeechatAndroid.service.Events.StateChangedEvent
 import com.ubergeek42.WeechatAndroid.service.P
@@ -286,6 +287,7 @@ class WeechatActivity : AppCompatActivity(), CutePageChangeListener,
         Network.get().unregister(this)
         CachePersist.save()
         UploadDatabase.save()
+        LineCache.save()
         statistics.save()
     }
 
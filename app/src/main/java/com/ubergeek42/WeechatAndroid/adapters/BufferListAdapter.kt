@@ -112,19 +112,38 @@ class BufferListAdapter(
     private val updateLock = Any()
     private var updateStep = 0
 
-    @AnyThread @Synchronized fun onBuffersChanged(): Int {
+    // the visual buffers of the last update by pointer, and whether the buffers matched the
+    // filter. these are reused for the buffers that haven't changed since
+    private var visualBuffers = HashMap<Long, VisualBuffer>()
+    private var filterMatches = HashMap<Long, Boolean>()
+
+    // changedPointers are the buffers that have changed since the last call, or null if the list
+    // itself or any of the buffers may have changed
+    @AnyThread @Synchronized fun onBuffersChanged(changedPointers: Set<Long>? = null): Int {
         val thisUpdateStep = synchronized (updateLock) { ++updateStep }
 
         val newBuffers = ArrayList<VisualBuffer>()
+        val newVisualBuffers = HashMap<Long, VisualBuffer>()
+        val newFilterMatches = HashMap<Long, Boolean>()
 
         // this method must not call any synchronized methods of Buffer as this could result in a
         // deadlock (worker thread e: Buffer.addLine() (locks BufferA) -> this.onBuffersChanged()
         // (waiting for main to release this) vs. main thread: onBuffersChanged() (locks this) ->
-        // iteration on Buffers: (waiting for e to release BufferA). todo: resolve this gracefully
+        // iteration on Buffers: (waiting for e to release BufferA). buffers no longer call this
+        // directly, see BufferListChanges, but this is still called from different threads
         for (buffer in BufferList.buffers) {
             if (buffer.type == BufferSpec.Type.HardHidden) continue
-            if (!buffer.fullName.lowercase().contains(filterLowerCase)
-                    && !buffer.fullName.uppercase().contains(filterUpperCase)) continue
+            val pointer = buffer.pointer
+            val changed = changedPointers == null || pointer in changedPointers
+
+            if (filterLowerCase.isNotEmpty()) {
+                val matches = (if (changed) null else filterMatches[pointer])
+                        ?: (buffer.fullName.lowercase().contains(filterLowerCase)
+                                || buffer.fullName.uppercase().contains(filterUpperCase))
+                newFilterMatches[pointer] = matches
+                if (!matches) continue
+            }
+
             if (filterLowerCase.isEmpty()) {
                 if (P.hideHiddenBuffers && buffer.hidden
                         && buffer.highlights == 0
@@ -132,9 +151,16 @@ class BufferListAdapter(
                 if (P.filterBuffers && buffer.type == BufferSpec.Type.Other
                         && buffer.highlights == 0 && buffer.unreads == 0) continue
             }
-            newBuffers.add(VisualBuffer.fromBuffer(buffer))
+
+            val visualBuffer = (if (changed) null else visualBuffers[pointer])
+                    ?: VisualBuffer.fromBuffer(buffer)
+            newVisualBuffers[pointer] = visualBuffer
+            newBuffers.add(visualBuffer)
         }
 
+        visualBuffers = newVisualBuffers
+        filterMatches = newFilterMatches
+
         if (P.sortBuffers) {
             Collections.sort(newBuffers, sortByHotAndMessageCountComparator)
         } else {
@@ -160,6 +186,7 @@ class BufferListAdapter(
 
         filterLowerCase = s.lowercase()
         filterUpperCase = s.uppercase()
+        filterMatches.clear()
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -199,7 +226,8 @@ class BufferListAdapter(
         override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
             val old = oldBuffers[oldItemPosition]
             val new = newBuffers[newItemPosition]
-            return old.printable == new.printable
+            return old === new
+                    || old.printable == new.printable
                     && old.isOpen == new.isOpen
                     && old.highlights == new.highlights
                     && old.unreads == new.unreads
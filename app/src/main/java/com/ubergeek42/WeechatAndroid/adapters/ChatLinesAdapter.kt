@@ -34,6 +34,7 @@ import com.ubergeek42.WeechatAndroid.relay.BufferEye
 import com.ubergeek42.WeechatAndroid.relay.Line
 import com.ubergeek42.WeechatAndroid.relay.LineSpec
 import com.ubergeek42.WeechatAndroid.relay.Lines
+import com.ubergeek42.WeechatAndroid.relay.LinesSnapshot
 import com.ubergeek42.WeechatAndroid.relay.MarkerLine
 import com.ubergeek42.WeechatAndroid.relay.SquiggleLine
 import com.ubergeek42.WeechatAndroid.relay.HeaderLine
@@ -63,7 +64,7 @@ class ChatLinesAdapter @MainThread constructor(
 
     private val inflater = LayoutInflater.from(uiLines.context)
 
-    private var lines = ArrayList<Line>()
+    private var lines: List<Line> = emptyList()
 
     init { setHasStableIds(true) }
 
@@ -208,7 +209,7 @@ class ChatLinesAdapter @MainThread constructor(
 
     @MainThread override fun getItemCount() = lines.size
 
-    @MainThread override fun getItemId(position: Int) = lines[position].pointer
+    @MainThread override fun getItemId(position: Int) = lines.getPointer(position)
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -221,10 +222,14 @@ class ChatLinesAdapter @MainThread constructor(
     @AnyThread @Synchronized private fun onLinesChanged(animation: Animation) = ulet(buffer) { buffer ->
         val thisUpdateStep = synchronized (updateLock) { ++updateStep }
 
-        val newLines = buffer.getLinesCopy()
+        val newLines = buffer.getLinesSnapshot()
         val newStyle = buffer.style     // todo synchronization?
 
-        val diffResult = DiffUtil.calculateDiff(DiffCallback(lines, newLines, style == newStyle), false)
+        // usually, a line was added at the bottom, and maybe one was removed from the top.
+        // in this case, don't run a diff over all lines
+        val delta = if (style == newStyle) newLines.getDeltaFrom(lines) else null
+        val diffResult = if (delta != null) null else
+                DiffUtil.calculateDiff(DiffCallback(lines, newLines, style == newStyle), false)
 
         Weechat.runOnMainThreadASAP {
             synchronized (updateLock) {
@@ -233,7 +238,12 @@ class ChatLinesAdapter @MainThread constructor(
                 style = newStyle
             }
 
-            diffResult.dispatchUpdatesTo(this@ChatLinesAdapter)
+            if (diffResult != null) {
+                diffResult.dispatchUpdatesTo(this@ChatLinesAdapter)
+            } else if (delta != null) {
+                if (delta.removed > 0) notifyItemRangeRemoved(1, delta.removed)
+                if (delta.added > 0) notifyItemRangeInserted(itemCount - delta.added, delta.added)
+            }
 
             uiLines.setAnimation(animation)
 
@@ -243,7 +253,7 @@ class ChatLinesAdapter @MainThread constructor(
                 uiLines.flashScrollbar()
             }
 
-            search?.onLinesChanged(newLines)
+            search?.onLinesChanged(newLines, delta)
         }
     }
 
@@ -277,7 +287,7 @@ class ChatLinesAdapter @MainThread constructor(
     }
 
     @MainThread @Synchronized fun loadLinesSilently() = ulet(buffer) { buffer ->
-        val newLines = buffer.getLinesCopy()
+        val newLines = buffer.getLinesSnapshot()
         lines = newLines
     }
 
@@ -305,8 +315,8 @@ class ChatLinesAdapter @MainThread constructor(
     }
 
     @MainThread fun findPositionByPointer(pointer: Long): Int {
-        lines.forEachIndexed { index, line ->
-            if (line.pointer == pointer) return index
+        for (index in lines.indices) {
+            if (lines.getPointer(index) == pointer) return index
         }
         return -1
     }
@@ -328,7 +338,7 @@ class ChatLinesAdapter @MainThread constructor(
         override fun getNewListSize() = newLines.size
 
         override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
-            return oldLines[oldItemPosition].pointer == newLines[newItemPosition].pointer
+            return oldLines.getPointer(oldItemPosition) == newLines.getPointer(newItemPosition)
         }
 
         override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
@@ -341,6 +351,11 @@ class ChatLinesAdapter @MainThread constructor(
 }
 
 
+// pointers of a snapshot can be read without making line objects at all, see LineStore
+private fun List<Line>.getPointer(index: Int) =
+        if (this is LinesSnapshot) getPointer(index) else this[index].pointer
+
+
 private const val HEADER_TYPE = -1
 private const val LINE_TYPE = 0
 private const val MARKER_TYPE = 1
@@ -80,7 +80,7 @@ private class Copy(
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
     private fun buildBody(select: Select): Body? {
-        val lines = (BufferList.findByPointer(bufferPointer) ?: return null).getLinesCopy()
+        val lines = (BufferList.findByPointer(bufferPointer) ?: return null).getLinesSnapshot()
         val lineTextGetter = select.textGetter
 
         val text = StringBuilder()
@@ -0,0 +1,105 @@
+package com.ubergeek42.WeechatAndroid.dialogs
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.graphics.Typeface
+import android.os.Bundle
+import android.text.SpannableString
+import android.text.style.StyleSpan
+import androidx.annotation.MainThread
+import com.ubergeek42.WeechatAndroid.R
+import com.ubergeek42.WeechatAndroid.WeechatActivity
+import com.ubergeek42.WeechatAndroid.relay.Buffer
+import com.ubergeek42.WeechatAndroid.search.GlobalSearch
+import com.ubergeek42.WeechatAndroid.search.Search
+import com.ubergeek42.WeechatAndroid.search.SearchConfig
+import java.util.regex.PatternSyntaxException
+
+
+private const val TEXT = "text"
+private const val CASE_SENSITIVE = "case-sensitive"
+private const val REGEX = "regex"
+private const val SOURCE = "source"
+
+
+// shows the results of GlobalSearch as they come; clicking on a result opens its buffer
+class GlobalSearchDialog : ListDialog() {
+    override var adapter: GlobalSearchAdapter? = null
+    private var search: GlobalSearch? = null
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+
+        val arguments = requireArguments()
+        val text = arguments.getString(TEXT)!!
+        val config = SearchConfig(
+                caseSensitive = arguments.getBoolean(CASE_SENSITIVE),
+                regex = arguments.getBoolean(REGEX),
+                SearchConfig.Source.valueOf(arguments.getString(SOURCE)!!))
+
+        val matcher = try {
+            Search.Matcher.fromString(text, config)
+        } catch (e: PatternSyntaxException) {
+            dismiss()
+            return
+        }
+
+        title = if (text.isEmpty()) getString(R.string.dialog__global_search__title_highlights)
+                else getString(R.string.dialog__global_search__title, text)
+
+        adapter = GlobalSearchAdapter(requireContext()) {
+            (activity as? WeechatActivity)?.openBuffer(it.buffer.pointer)
+            dismiss()
+        }
+
+        search = GlobalSearch { results, done ->
+            adapter?.update(results)
+            if (done && results.isEmpty()) title = getString(R.string.dialog__global_search__no_results)
+        }.also { it.search(matcher) }
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        search?.close()
+    }
+
+    companion object {
+        @JvmStatic fun show(activity: WeechatActivity, text: String, config: SearchConfig) {
+            GlobalSearchDialog().apply {
+                arguments = Bundle().also {
+                    it.putString(TEXT, text)
+                    it.putBoolean(CASE_SENSITIVE, config.caseSensitive)
+                    it.putBoolean(REGEX, config.regex)
+                    it.putString(SOURCE, config.source.name)
+                }
+            }.show(activity.supportFragmentManager, "global-search")
+        }
+    }
+}
+
+
+class GlobalSearchAdapter(
+    context: Context,
+    override var onClickListener: OnClickListener<Item>,
+) : ListDialog.Adapter<GlobalSearchAdapter.Item>(context, R.layout.dialog_copy_line, R.id.text) {
+    override var items: List<Item> = emptyList()
+
+    // the results change as the buffers are searched, and are few enough to be simply redrawn
+    @SuppressLint("NotifyDataSetChanged")
+    @MainThread fun update(results: List<GlobalSearch.Result>) {
+        items = results.flatMap { result ->
+            listOf(Item(result.buffer, result.buffer.shortName.toBoldSpannable())) +
+                    result.lines.map { Item(result.buffer, it.timestampedIrcLikeString) }
+        }
+        notifyDataSetChanged()
+    }
+
+    class Item(val buffer: Buffer, override val text: CharSequence) : ListDialog.Item
+}
+
+
+private fun CharSequence.toBoldSpannable(): CharSequence {
+    return SpannableString(this).also {
+        it.setSpan(StyleSpan(Typeface.BOLD), 0, length, 0)
+    }
+}
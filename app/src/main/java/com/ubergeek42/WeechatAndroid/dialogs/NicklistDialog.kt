@@ -12,7 +12,7 @@ import com.ubergeek42.WeechatAndroid.relay.Buffer
 import com.ubergeek42.WeechatAndroid.relay.BufferList
 import com.ubergeek42.WeechatAndroid.relay.BufferNicklistEye
 import com.ubergeek42.WeechatAndroid.relay.Nick
-import com.ubergeek42.WeechatAndroid.service.Events
+import com.ubergeek42.WeechatAndroid.service.CommandChannel
 
 
 private const val BUFFER_POINTER = "buffer-pointer"
@@ -34,7 +34,7 @@ class NicklistDialog : ListDialog(),
             this.buffer = buffer
             this.title = buffer.shortName
             this.adapter = NicklistAdapter(requireContext()) {
-                Events.SendMessageEvent.fireInput(buffer, "/query -noswitch ${it.name}")
+                CommandChannel.sendInput(buffer, "/query -noswitch ${it.name}")
                 dismiss()
             }
         }
@@ -38,6 +38,7 @@ import com.ubergeek42.WeechatAndroid.WeechatActivity
 import com.ubergeek42.WeechatAndroid.adapters.ChatLinesAdapter
 import com.ubergeek42.WeechatAndroid.copypaste.Paste
 import com.ubergeek42.WeechatAndroid.databinding.ChatviewMainBinding
+import com.ubergeek42.WeechatAndroid.dialogs.GlobalSearchDialog
 import com.ubergeek42.WeechatAndroid.relay.Buffer
 import com.ubergeek42.WeechatAndroid.relay.BufferEye
 import com.ubergeek42.WeechatAndroid.relay.BufferList
@@ -45,7 +46,7 @@ import com.ubergeek42.WeechatAndroid.relay.Line
 import com.ubergeek42.WeechatAndroid.relay.Lines
 import com.ubergeek42.WeechatAndroid.search.Search
 import com.ubergeek42.WeechatAndroid.search.SearchConfig
-import com.ubergeek42.WeechatAndroid.service.Events.SendMessageEvent
+import com.ubergeek42.WeechatAndroid.service.CommandChannel
 import com.ubergeek42.WeechatAndroid.service.Events.StateChangedEvent
 import com.ubergeek42.WeechatAndroid.service.P
 import com.ubergeek42.WeechatAndroid.service.RelayService
@@ -364,6 +365,7 @@ class BufferFragment : Fragment(), BufferEye {
     // todo make sure that this behaves fine on slow connections
     @MainThread @Cat private fun attachToBuffer() = ulet(buffer) { buffer ->
         buffer.addBufferEye(this)
+        if (isSearchEnabled) buffer.addSearchKey(searchKey)
         if (buffer.linesAreReady()) linesAdapter?.buffer = buffer
         linesAdapter?.loadLinesWithoutAnimation()
         attachedToBuffer = true
@@ -375,6 +377,7 @@ class BufferFragment : Fragment(), BufferEye {
         attachedToBuffer = false
         onVisibilityStateChanged(ChangedState.BufferAttachment)
         buffer?.removeBufferEye(this)
+        buffer?.removeSearchKey(searchKey)
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -555,7 +558,7 @@ class BufferFragment : Fragment(), BufferEye {
         } else {
             assertThat(buffer).isEqualTo(linesAdapter?.buffer)
             if (connectedToRelayAndSynced) {
-                SendMessageEvent.fireInput(buffer, input.text.toString())
+                CommandChannel.sendInput(buffer, input.text.toString())
                 P.history.reset(input)
                 input.setText("")   // this will reset tab completion
             } else {
@@ -825,6 +828,8 @@ class BufferFragment : Fragment(), BufferEye {
         if (enable) {
             ui.searchInput.requestFocus()
             ui.chatLines.addItemDecoration(searchMatchDecoration)
+            buffer?.addSearchKey(searchKey)
+            linesAdapter?.loadLinesWithoutAnimation()   // get the lines with the index
             triggerNewSearch()
             if (newSearch) {
                 ui.searchInput.showSoftwareKeyboard()
@@ -836,6 +841,7 @@ class BufferFragment : Fragment(), BufferEye {
             matches = emptyMatches
             focusedMatch = 0
             ui.chatLines.removeItemDecoration(searchMatchDecoration)
+            buffer?.removeSearchKey(searchKey)
             linesAdapter?.search = null
         }
     }
@@ -857,6 +863,8 @@ class BufferFragment : Fragment(), BufferEye {
 
     private val isSearchEnabled get() = matches !== emptyMatches
 
+    private val searchKey get() = if (container is WeechatActivity) "main-activity" else "bubble-activity"
+
     private var searchListener = Search.Listener { matches: List<Long> ->
         this.matches = matches
         enableDisableSearchButtons()
@@ -894,6 +902,10 @@ class BufferFragment : Fragment(), BufferEye {
         popupMenu.inflate(R.menu.menu_search)
         MenuCompat.setGroupDividerEnabled(popupMenu.menu, true)
         popupMenu.setOnMenuItemClickListener { item: MenuItem ->
+            if (item.itemId == R.id.menu_search_all_buffers) {
+                showGlobalSearch()
+                return@setOnMenuItemClickListener true
+            }
             searchConfig = when (item.itemId) {
                 R.id.menu_search_source_prefix -> searchConfig.copy(source = SearchConfig.Source.Prefix)
                 R.id.menu_search_source_message -> searchConfig.copy(source = SearchConfig.Source.Message)
@@ -919,6 +931,11 @@ class BufferFragment : Fragment(), BufferEye {
         menu.findItem(sourceId).isChecked = true
         menu.findItem(R.id.menu_search_regex).isChecked = searchConfig.regex
         menu.findItem(R.id.menu_search_case_sensitive).isChecked = searchConfig.caseSensitive
+        menu.findItem(R.id.menu_search_all_buffers).isVisible = container is WeechatActivity
+    }
+
+    private fun showGlobalSearch() = ulet(ui, container as? WeechatActivity) { ui, activity ->
+        GlobalSearchDialog.show(activity, ui.searchInput.text.toString(), searchConfig)
     }
 
     private var searchButtonClickListener = View.OnClickListener { view: View ->
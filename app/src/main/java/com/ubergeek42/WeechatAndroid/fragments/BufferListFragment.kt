@@ -105,7 +105,7 @@ class BufferListFragment : Fragment(), BufferListEye {
     @AnyThread private fun attachToBufferList() {
         BufferList.bufferListEye = this
         applyFilter()
-        onBuffersChanged()
+        onBuffersChanged(null)
     }
 
     @MainThread private fun detachFromBufferList() {
@@ -120,10 +120,9 @@ class BufferListFragment : Fragment(), BufferListEye {
 
     // if hot count has changed and > 0, scroll to top. note that if the scroll operation is not
     // posted, it cat try to scroll to the view that was at position 0 before the diff update
-    // todo don't update on every change?
     // todo move hotlist updates to the activity
-    @AnyThread @Cat override fun onBuffersChanged() {
-        adapter.onBuffersChanged()
+    @AnyThread @Cat override fun onBuffersChanged(changedPointers: Set<Long>?) {
+        adapter.onBuffersChanged(changedPointers)
 
         val hotCount = BufferList.totalHotMessageCount
         main {
@@ -4,6 +4,7 @@ package com.ubergeek42.WeechatAndroid.notifications
 
 import android.graphics.Typeface
 import android.net.Uri
+import android.os.SystemClock
 import android.text.SpannableString
 import android.text.style.StyleSpan
 import com.ubergeek42.WeechatAndroid.media.ContentUriFetcher
@@ -15,6 +16,7 @@ import com.ubergeek42.WeechatAndroid.relay.Line
 import com.ubergeek42.WeechatAndroid.relay.LineSpec
 import com.ubergeek42.cats.Kitty
 import com.ubergeek42.cats.Root
+import kotlin.math.ceil
 
 
 @Root private val kitty = Kitty.make("Hotlist") as Kitty
@@ -160,14 +162,111 @@ private fun HotlistBuffer.pushUpdate(
 ) {
     hotlistBuffers = (hotlistBuffers + (this.pointer to this))
         .filter { it.value.hotCount > 0 }
-        .also {
-            when {
-                newMessage -> showHotNotification(it.values, this)
-                newMessageAsync -> showHotAsyncNotification(it.values, this)
-                this.hotCount > 0 -> updateHotNotification(this, it.values)
-                else -> filterNotifications(it.values)
+
+    HotlistUpdates.add(pointer, when {
+        newMessage -> HotUpdate.NewMessage
+        newMessageAsync -> HotUpdate.NewMessageAsync
+        this.hotCount > 0 -> HotUpdate.Update
+        else -> HotUpdate.Filter
+    })
+}
+
+
+////////////////////////////////////////////////////////////////////////////////////////////////////
+/////////////////////////////////////////////////////////////////////////////////////////// batching
+////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+// the hotlist changes on every hot line, but notifications aren't pushed every time. instead, the
+// updates are gathered for a short while and merged by buffer, and then all changed buffers are
+// pushed together, along with a single summary. so when a bouncer plays back hundreds of private
+// messages, we push a handful of notifications instead of hundreds.
+// android drops notifications of apps that post more than 5 per second, so notifications are
+// posted at a lower rate; the buffers that don't fit are pushed on the next go.
+// everything here happens on the notification thread
+private object HotlistUpdates {
+    private const val WINDOW = 250L             // ms
+    private const val RATE = 4.0                // notifications per second
+
+    private val pending = LinkedHashMap<Long, HotUpdate>()
+    private val pendingDeferred = HashSet<Long>()   // pending buffers that were already deferred
+    private var flushScheduled = false
+
+    private var tokens = RATE
+    private var tokensUpdatedAt = SystemClock.uptimeMillis()
+
+    private var received = 0L       // updates that were requested
+    private var merged = 0L         // updates that were merged into a pending update
+    private var dropped = 0L        // pending updates of buffers that were no longer hot
+    private var deferred = 0L       // updates pushed later due to the rate limit, each counted once
+    private var posted = 0L         // notifications posted, including the summaries
+
+    fun add(pointer: Long, update: HotUpdate) {
+        received++
+        val pendingUpdate = pending[pointer]
+        if (pendingUpdate != null) merged++
+        if (pendingUpdate == null || update > pendingUpdate) pending[pointer] = update
+        scheduleFlush(WINDOW)
+    }
+
+    private fun scheduleFlush(delay: Long) {
+        if (flushScheduled) return
+        flushScheduled = true
+        notificationHandler.postDelayed(flush, delay)
+    }
+
+    // pushes the updates in the order of precedence. each pushed buffer takes one notification,
+    // and the summary takes another one
+    private val flush = Runnable {
+        flushScheduled = false
+        if (pending.isEmpty()) return@Runnable
+
+        refillTokens()
+        if (tokens < 1) {
+            countDeferred()
+            scheduleFlush(getTimeUntilTokens(1.0))
+            return@Runnable
+        }
+
+        var bufferNotificationsLeft = tokens.toInt() - 1
+        val updates = LinkedHashMap<Long, HotUpdate>()
+        pending.entries.sortedByDescending { it.value }.forEach { (pointer, pendingUpdate) ->
+            val update = if (pointer in hotlistBuffers) pendingUpdate else HotUpdate.Filter
+            if (update != pendingUpdate) dropped++
+            if (update == HotUpdate.Filter) {
+                updates[pointer] = update
+            } else if (bufferNotificationsLeft > 0) {
+                updates[pointer] = update
+                bufferNotificationsLeft--
             }
         }
+
+        updates.keys.forEach { pending.remove(it); pendingDeferred.remove(it) }
+        countDeferred()
+
+        val count = pushHotNotifications(hotlistBuffers, updates)
+        tokens -= count
+        posted += count
+
+        if (pending.isNotEmpty()) scheduleFlush(getTimeUntilTokens(2.0).coerceAtLeast(WINDOW))
+    }
+
+    private fun countDeferred() {
+        pending.keys.forEach { if (pendingDeferred.add(it)) deferred++ }
+    }
+
+    private fun refillTokens() {
+        val now = SystemClock.uptimeMillis()
+        tokens = (tokens + (now - tokensUpdatedAt) * RATE / 1000).coerceAtMost(RATE)
+        tokensUpdatedAt = now
+    }
+
+    private fun getTimeUntilTokens(count: Double): Long {
+        return ceil((count - tokens).coerceAtLeast(0.0) * 1000 / RATE).toLong()
+    }
+
+    override fun toString() = "updates received: $received, merged: $merged, dropped: $dropped, " +
+                              "deferred: $deferred; notifications posted: $posted"
 }
 
 
@@ -196,6 +295,12 @@ object Hotlist {
             }
         }
     }
+
+    fun logUpdateStatistics() {
+        notificationHandler.post {
+            kitty.info("hotlist %s", HotlistUpdates)
+        }
+    }
 }
 
 
@@ -40,7 +40,7 @@ import com.ubergeek42.WeechatAndroid.dialogs.createScrollableDialog
 import com.ubergeek42.WeechatAndroid.relay.BufferList
 import com.ubergeek42.WeechatAndroid.relay.as0x
 import com.ubergeek42.WeechatAndroid.relay.from0xOrNull
-import com.ubergeek42.WeechatAndroid.service.Events
+import com.ubergeek42.WeechatAndroid.service.CommandChannel
 import com.ubergeek42.WeechatAndroid.service.P
 import com.ubergeek42.WeechatAndroid.service.RelayService
 import com.ubergeek42.WeechatAndroid.upload.applicationContext
@@ -247,17 +247,6 @@ private fun pushBufferNotification(hotBuffer: HotlistBuffer, makeNoise: Boolean,
 }
 
 
-private fun pushSummaryAndBufferNotifications(hotlistBuffers: Collection<HotlistBuffer>,
-                                              hotBuffer: HotlistBuffer, makeNoise: Boolean) {
-    if (!CAN_MAKE_BUNDLED_NOTIFICATIONS) {
-        pushSummaryNotification(hotlistBuffers, makeNoise)
-    } else {
-        pushSummaryNotification(hotlistBuffers, false)
-        pushBufferNotification(hotBuffer, makeNoise, addReplyAction = true)
-    }
-}
-
-
 //////////////////////////////////////////////////////////////////////////////////// user dismissals
 
 
@@ -297,31 +286,69 @@ private fun ifNotificationStillDisplayed(hotBuffer: HotlistBuffer, action: () ->
 ////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
-@Cat fun filterNotifications(hotlistBuffers: Collection<HotlistBuffer>) {
-    if (!P.notificationEnable) return
-    cancelOrSuppressUnwantedNotifications(hotlistBuffers)
-    if (summaryNotificationDisplayed) pushSummaryNotification(hotlistBuffers, false)
-}
-
-
-@Cat fun updateHotNotification(hotBuffer: HotlistBuffer, hotlistBuffers: Collection<HotlistBuffer>) {
-    if (!P.notificationEnable) return
-    ifNotificationStillDisplayed(hotBuffer) {
-        cancelOrSuppressUnwantedNotifications(hotlistBuffers)
-        pushSummaryAndBufferNotifications(hotlistBuffers, hotBuffer, makeNoise = false)
+// kinds of updates of hot notifications, in the order of precedence. when a buffer changes several
+// times before its notification is pushed, the update that takes precedence is made
+enum class HotUpdate {
+    Filter,             // the buffer is no longer hot; remove its notification
+    Update,             // update the notification if it's still displayed
+    NewMessageAsync,    // show the notification without making noise
+    NewMessage,         // show the notification and make noise
+}
+
+
+// pushes the summary notification at most once, along with the notifications of the given buffers.
+// buffers that aren't in the hotlist are always filtered out. returns the number of notifications
+// that were posted
+@Cat fun pushHotNotifications(hotlistBuffers: Map<Long, HotlistBuffer>,
+                              updates: Map<Long, HotUpdate>): Int {
+    if (!P.notificationEnable) return 0
+
+    var filter = false
+    var cancel = false
+    var pushSummary = false
+    var makeNoise = false
+    val hotBuffersToPush = mutableListOf<HotlistBuffer>()
+    val hotBuffersToPushWithNoise = mutableSetOf<Long>()
+
+    updates.forEach { (pointer, update) ->
+        val hotBuffer = hotlistBuffers[pointer]
+        when {
+            hotBuffer == null || update == HotUpdate.Filter -> {
+                filter = true
+                cancel = true
+            }
+            update == HotUpdate.Update -> ifNotificationStillDisplayed(hotBuffer) {
+                cancel = true
+                pushSummary = true
+                hotBuffersToPush.add(hotBuffer)
+            }
+            else -> {
+                pushSummary = true
+                hotBuffersToPush.add(hotBuffer)
+                if (update == HotUpdate.NewMessage) {
+                    makeNoise = true
+                    hotBuffersToPushWithNoise.add(pointer)
+                }
+            }
+        }
     }
-}
 
+    val hotBuffers = hotlistBuffers.values
+    if (cancel) cancelOrSuppressUnwantedNotifications(hotBuffers)
+    if (filter && summaryNotificationDisplayed) pushSummary = true
+    if (!pushSummary) return 0
 
-@Cat fun showHotNotification(hotlistBuffers: Collection<HotlistBuffer>, hotBuffer: HotlistBuffer) {
-    if (!P.notificationEnable) return
-    pushSummaryAndBufferNotifications(hotlistBuffers, hotBuffer, makeNoise = true)
-}
-
+    if (!CAN_MAKE_BUNDLED_NOTIFICATIONS) {
+        pushSummaryNotification(hotBuffers, makeNoise)
+        return 1
+    }
 
-@Cat fun showHotAsyncNotification(hotlistBuffers: Collection<HotlistBuffer>, hotBuffer: HotlistBuffer) {
-    if (!P.notificationEnable) return
-    pushSummaryAndBufferNotifications(hotlistBuffers, hotBuffer, makeNoise = false)
+    pushSummaryNotification(hotBuffers, false)
+    hotBuffersToPush.forEach { hotBuffer ->
+        pushBufferNotification(hotBuffer, makeNoise = hotBuffer.pointer in hotBuffersToPushWithNoise,
+                               addReplyAction = true)
+    }
+    return 1 + hotBuffersToPush.size
 }
 
 
@@ -697,7 +724,7 @@ class InlineReplyReceiver : BroadcastReceiver() {
                         pointer, input, buffer)
             Toaster.ErrorToast.show("Error while receiving remote input")
         } else {
-            Events.SendMessageEvent.fireInput(buffer, input.toString())
+            CommandChannel.sendInput(buffer, input.toString())
             buffer.flagResetHotMessagesOnNewOwnLine = true
         }
     }
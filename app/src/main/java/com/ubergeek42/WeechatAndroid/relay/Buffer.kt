@@ -10,7 +10,7 @@ import androidx.annotation.MainThread
 import androidx.annotation.WorkerThread
 import com.ubergeek42.WeechatAndroid.notifications.Hotlist
 import com.ubergeek42.WeechatAndroid.notifications.shortcuts
-import com.ubergeek42.WeechatAndroid.service.Events
+import com.ubergeek42.WeechatAndroid.service.CommandChannel
 import com.ubergeek42.WeechatAndroid.service.P
 import com.ubergeek42.WeechatAndroid.utils.Assert
 import com.ubergeek42.WeechatAndroid.utils.updatable
@@ -112,9 +112,16 @@ class Buffer @WorkerThread constructor(
     ////////////////////////////////////////////////////////////////////////////////////////// LINES
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
-    // get a copy of lines, filtered or not according to global settings
+    // get an immutable snapshot of lines, filtered or not according to global settings
     // contains read marker and header
-    @AnyThread @Synchronized fun getLinesCopy() = lines.getCopy()
+    @AnyThread @Synchronized fun getLinesSnapshot() = lines.getSnapshot()
+
+    // all the lines, if these are complete, for LineCache
+    @AnyThread @Synchronized fun getLinesToCache() =
+            if (lines.status.ready()) lines.getUnfilteredSnapshot() else null
+
+    // the lines that the buffer has while fetching lines, see BufferList.requestMissingLinesForBuffer
+    @WorkerThread @Synchronized fun getLinesToMatch() = lines.getUnfilteredSnapshot()
 
     @AnyThread fun linesAreReady() = lines.status.ready()
 
@@ -132,14 +139,13 @@ class Buffer @WorkerThread constructor(
         if (openKeys.add(key) == Keys.Change.BecameNotEmpty) {
             BufferList.syncBuffer(this, syncHotlistOnOpen)
             lines.ensureSpannables()
-            BufferList.notifyBuffersChanged()
+            BufferList.notifyBufferChanged(this)
         }
     }
 
     @Synchronized fun removeOpenKey(key: String) {
         if (openKeys.remove(key) == Keys.Change.BecameEmpty) {
             BufferList.desyncBuffer(this)
-            lines.invalidateSpannables()
             if (P.optimizeTraffic) {
                 // request lines & nicks on the next sync
                 // the previous comment here was stupid
@@ -147,7 +153,7 @@ class Buffer @WorkerThread constructor(
                 nicks.status = Nicks.Status.Init
                 hotlistUpdatesWhileSyncing = 0
             }
-            BufferList.notifyBuffersChanged()
+            BufferList.notifyBufferChanged(this)
         }
     }
 
@@ -161,7 +167,10 @@ class Buffer @WorkerThread constructor(
     //     nick completion
     @MainThread @Cat @Synchronized fun addBufferEye(bufferEye: BufferEye) {
         bufferEyes = bufferEyes + bufferEye
-        if (lines.status == Lines.Status.Init) requestMoreLines()
+        if (lines.status == Lines.Status.Init) {
+            if (lines.isEmpty) LineCache.load(this)
+            requestMoreLines()
+        }
         if (nicks.status == Nicks.Status.Init) BufferList.requestNicklistForBuffer(pointer)
     }
 
@@ -173,11 +182,18 @@ class Buffer @WorkerThread constructor(
         requestMoreLines(lines.maxUnfilteredSize + P.lineIncrement)
     }
 
+    // if the buffer has lines from before, such as after reconnecting, the lines that the relay
+    // has are first matched against these, and only the lines that are missing are fetched
     @MainThread @Synchronized fun requestMoreLines(newSize: Int) {
         if (lines.maxUnfilteredSize >= newSize) return
         if (lines.status == Lines.Status.EverythingFetched) return
+        val hasOldLines = lines.status == Lines.Status.Init && !lines.isEmpty
         lines.onMoreLinesRequested(newSize)
-        BufferList.requestLinesForBuffer(pointer, lines.maxUnfilteredSize)
+        if (hasOldLines) {
+            BufferList.requestMissingLinesForBuffer(pointer, lines.maxUnfilteredSize)
+        } else {
+            BufferList.requestLinesForBuffer(pointer, lines.maxUnfilteredSize)
+        }
     }
 
     private val watchedKeys = Keys<String>()
@@ -195,9 +211,20 @@ class Buffer @WorkerThread constructor(
 
     @Synchronized fun isWatchedByKey(key: String) = watchedKeys.contains(key)
 
+    private val searchKeys = Keys<String>()
+
+    // lines are indexed for the search while the buffer is being searched, see SearchIndex
+    @MainThread @Synchronized fun addSearchKey(key: String) {
+        if (searchKeys.add(key) == Keys.Change.BecameNotEmpty) lines.enableSearchIndex(true)
+    }
+
+    @MainThread @Synchronized fun removeSearchKey(key: String) {
+        if (searchKeys.remove(key) == Keys.Change.BecameEmpty) lines.enableSearchIndex(false)
+    }
+
     @MainThread @Synchronized fun moveReadMarkerToEnd() {
         lines.moveReadMarkerToEnd()
-        if (P.hotlistSync) Events.SendMessageEvent.fire(
+        if (P.hotlistSync) CommandChannel.send(
                 "input ${pointer.as0x} /buffer set hotlist -1\n" +
                 "input ${pointer.as0x} /input set_unread_current_buffer")
     }
@@ -210,17 +237,12 @@ class Buffer @WorkerThread constructor(
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
     @WorkerThread @Synchronized fun replaceLines(newLines: Collection<Line>) {
-        if (isOpen) {
-            newLines.forEach { it.ensureSpannable() }
-        }
-
-        synchronized(this) {
-            lines.replaceLines(newLines)
-        }
-   }
+        lines.replaceLines(newLines)
+        if (isOpen) lines.ensureSpannables()
+    }
 
     @WorkerThread fun addLineBottom(line: Line) {
-        if (isOpen) line.ensureSpannable()
+        if (isOpen) RenderScheduler.render(null, listOf(line))
 
         val notifyHighlight = line.notifyLevel == LineSpec.NotifyLevel.Highlight
         val notifyPm = line.notifyLevel == LineSpec.NotifyLevel.Private
@@ -242,11 +264,11 @@ class Buffer @WorkerThread constructor(
                 if (notifyHighlight) {
                     highlights++
                     Hotlist.reportNewHotLine(this, line)
-                    BufferList.notifyBuffersChanged()
+                    BufferList.notifyBufferChanged(this)
                 } else if (notifyPmOrMessage) {
                     unreads++
                     if (notifyPm) Hotlist.reportNewHotLine(this, line)
-                    BufferList.notifyBuffersChanged()
+                    BufferList.notifyBufferChanged(this)
                 }
             }
 
@@ -348,16 +370,10 @@ class Buffer @WorkerThread constructor(
         bufferEyes.forEach { it.onLineAdded() }
     }
 
-    var style = 0
+    val style get() = SpannableCache.style
 
     @MainThread fun onGlobalPreferencesChanged(numberChanged: Boolean) {
-        synchronized(this) {
-            if (!numberChanged) {
-                lines.invalidateSpannables()
-                style++
-            }
-            lines.ensureSpannables()
-        }
+        synchronized(this) { lines.ensureSpannables() }
         bufferEyes.forEach { it.onGlobalPreferencesChanged(numberChanged) }
     }
 
@@ -366,6 +382,15 @@ class Buffer @WorkerThread constructor(
         bufferEyes.forEach { it.onLinesListed() }
     }
 
+    // the lines are shown as if listed, but the status stays Fetching until the relay lists them
+    @WorkerThread fun onCachedLinesLoaded(cachedLines: List<Line>) {
+        synchronized(this) {
+            if (!lines.addCachedLines(cachedLines)) return
+            if (isOpen) lines.ensureSpannables()
+        }
+        bufferEyes.forEach { it.onLinesListed() }
+    }
+
     @WorkerThread fun onBufferClosed() {
         synchronized(this) {
             unreads = 0
@@ -386,7 +411,7 @@ class Buffer @WorkerThread constructor(
         highlights = 0
         unreads = 0
         Hotlist.adjustHotListForBuffer(this, true)
-        BufferList.notifyBuffersChanged()
+        BufferList.notifyBufferChanged(this)
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -7,18 +7,20 @@ import androidx.annotation.AnyThread
 import androidx.annotation.MainThread
 import androidx.annotation.WorkerThread
 import com.ubergeek42.WeechatAndroid.notifications.Hotlist
-import com.ubergeek42.WeechatAndroid.service.Events.SendMessageEvent
+import com.ubergeek42.WeechatAndroid.service.CommandChannel
 import com.ubergeek42.WeechatAndroid.service.P
 import com.ubergeek42.cats.Kitty
 import com.ubergeek42.cats.Root
+import com.ubergeek42.weechat.relay.MessageRouter
+import com.ubergeek42.weechat.relay.RelayMessage
 import com.ubergeek42.weechat.relay.protocol.Hdata
-import com.ubergeek42.weechat.relay.protocol.RelayObject
-import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.CopyOnWriteArrayList
 
 
 const val LINE_MISSING = -1L
 
+// extra lines to request along with the missing lines, see LineListingHandler
+private const val MISSING_LINES_SLACK = 16
+
 
 object BufferList {
     @Root private val kitty = Kitty.make()
@@ -26,9 +28,9 @@ object BufferList {
     ////////////////////////////////////////////////////////////////////////////////////// lifecycle
 
     @JvmStatic @WorkerThread fun onServiceAuthenticated() {
-        defaultMessageHandlers.forEach { (id, handler) -> addMessageHandler(id, handler) }
+        defaultMessageHandlers.forEach { (id, handler) -> router.add(id, handler) }
 
-        SendMessageEvent.fire(listOf(
+        CommandChannel.send(listOf(
                 BufferSpec.listBuffersRequest,
                 LastLinesSpec.request,          // see Lines.shouldAddSquiggleOnNewLastLine
                 LastReadLineSpec.request,
@@ -38,79 +40,90 @@ object BufferList {
     }
 
     @JvmStatic @AnyThread fun onServiceStopped() {
-        handlers.clear()
+        kitty.info("messages received: %s; one-off handlers left unanswered: %s",
+                router.counts, router.unansweredOneOffCount)
+        router.clear()
     }
 
     //////////////////////////////////////////////////////////////////////////////////////// buffers
 
-    @JvmField @Volatile var buffers = CopyOnWriteArrayList<Buffer>()
+    // the list and its indexes are replaced together on every change, so that any thread can read
+    // them without locking. changes are only made on the worker thread, one at a time
+    @Volatile private var snapshot = BufferListSnapshot(emptyList())
+
+    @JvmStatic val buffers: List<Buffer> @AnyThread get() = snapshot.buffers
+
+    @WorkerThread private fun setBuffers(buffers: List<Buffer>) {
+        snapshot = BufferListSnapshot(buffers)
+    }
 
     @JvmStatic @AnyThread fun findByPointer(pointer: Long): Buffer? {
-        return buffers.firstOrNull { it.pointer == pointer }.also {
+        return snapshot.findByPointer(pointer).also {
             it ?: kitty.warn("did not find buffer pointer: ${pointer.as0x}")
         }
     }
 
     @JvmStatic @AnyThread fun findByFullName(fullName: String): Buffer? {
-        return buffers.firstOrNull { it.fullName == fullName }.also {
+        return snapshot.findByFullName(fullName).also {
             it ?: kitty.warn("did not find buffer pointer: $fullName")
         }
     }
 
     @JvmStatic @AnyThread private fun findByPointerNoWarn(pointer: Long): Buffer? {
-        return buffers.firstOrNull { it.pointer == pointer }
+        return snapshot.findByPointer(pointer)
     }
 
     val totalHotMessageCount get() = buffers.sumOf { it.hotCount }
 
     /////////////////////////////////////////////////////////////////////////////////////// handlers
 
-    private val handlers = ConcurrentHashMap<String, HdataHandler>()
-    private var handlerIdCounter = 0
-
-    @AnyThread private fun addMessageHandler(id: String, handler: HdataHandler) {
-        handlers[id] = handler
-    }
-
-    @AnyThread private fun removeMessageHandler(id: String) {
-        handlers.remove(id)
-    }
+    // handlers are found by the codes of message ids, see MessageRouter
+    private val router = MessageRouter<HdataHandler>()
 
     @AnyThread fun addOneOffMessageHandler(handler: HdataHandler): String {
-        val id = handlerIdCounter++.toString()
-        addMessageHandler(id) { obj, _ ->
-            removeMessageHandler(id)
-            handler.handleMessage(obj, id)
-        }
-        return id
+        return router.addOneOff(handler)
     }
 
-    @JvmStatic @WorkerThread fun handleMessage(obj: RelayObject?, id: String) {
-        if (obj is Hdata) {
-            handlers[id]?.handleMessage(obj, id) ?: kitty.warn("no handler for message id: %s", id)
+    @JvmStatic @WorkerThread fun handleMessage(message: RelayMessage) {
+        val objects = message.objects ?: return
+        if (objects.none { it is Hdata }) return
+        val handler = router.find(message)
+        if (handler == null) {
+            kitty.warn("no handler for message id: %s", message.id)
+            return
         }
+        objects.forEach { if (it is Hdata) handler.handleMessage(it, message.id) }
     }
 
     //////////////////////////////////////////////////////////////////////////////////////////// eye
 
     @Volatile var bufferListEye: BufferListEye? = null
 
+    // the changes are merged and delivered to the eye once per frame, see BufferListChanges
     @AnyThread fun notifyBuffersChanged() {
-        bufferListEye?.onBuffersChanged()
+        BufferListChanges.onBuffersChanged()
+    }
+
+    @AnyThread fun notifyBufferChanged(buffer: Buffer) {
+        BufferListChanges.onBufferChanged(buffer.pointer)
     }
 
     // process all open buffers and, if specified, notify them of the change
     // todo make sense of this
     @JvmStatic @MainThread fun onGlobalPreferencesChanged(numberChanged: Boolean) {
+        if (!numberChanged) {
+            kitty.info("invalidating %s", SpannableCache)
+            SpannableCache.invalidate()
+        }
         buffers.filter { it.isOpen }.forEach { it.onGlobalPreferencesChanged(numberChanged) }
     }
 
     /////////////////////////////////////////////////////////////////////////////////////////// misc
 
     @JvmStatic @AnyThread fun sortOpenBuffersByBuffers(pointers: ArrayList<Long>?) {
-        val bufferToNumber = LongSparseArray<Int>()
-        buffers.forEach { bufferToNumber.put(it.pointer, it.number) }
-        pointers?.sortWith { l, r -> bufferToNumber[l, -1] - bufferToNumber[r, -1] }
+        val snapshot = snapshot
+        fun numberOf(pointer: Long) = snapshot.findByPointer(pointer)?.number ?: -1
+        pointers?.sortWith { l, r -> numberOf(l) - numberOf(r) }
     }
 
     @JvmStatic @MainThread fun hasData() = buffers.size > 0
@@ -124,7 +137,7 @@ object BufferList {
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
     @JvmStatic @AnyThread fun syncHotlist() {
-        SendMessageEvent.fire(LastReadLineSpec.request + "\n" + HotlistSpec.request)
+        CommandChannel.send(LastReadLineSpec.request + "\n" + HotlistSpec.request)
     }
 
     // if optimizing traffic, sync hotlist to make sure the number of unread messages is correct
@@ -133,22 +146,28 @@ object BufferList {
     // todo simplify
     @AnyThread fun syncBuffer(buffer: Buffer, syncHotlist: Boolean) {
         if (!P.optimizeTraffic) return
-        SendMessageEvent.fire("sync ${buffer.pointer.as0x}")
+        CommandChannel.send("sync ${buffer.pointer.as0x}")
         if (syncHotlist) syncHotlist()
     }
 
     @AnyThread fun desyncBuffer(buffer: Buffer) {
         if (!P.optimizeTraffic) return
-        SendMessageEvent.fire("desync ${buffer.pointer.as0x}")
+        CommandChannel.send("desync ${buffer.pointer.as0x}")
+    }
+
+    @AnyThread fun requestLinesForBuffer(pointer: Long, numberOfLines: Int) {
+        val id = addOneOffMessageHandler(LineListingHandler(pointer, numberOfLines))
+        CommandChannel.send(LineSpec.makeLastLinesRequest(id, pointer, numberOfLines))
     }
 
-    @MainThread fun requestLinesForBuffer(pointer: Long, numberOfLines: Int) {
-        val id = addOneOffMessageHandler(LineListingHandler(pointer))
-        SendMessageEvent.fire(LineSpec.makeLastLinesRequest(id, pointer, numberOfLines))
+    // requests the pointers of the last lines, see LinePointerListingHandler
+    @AnyThread fun requestMissingLinesForBuffer(pointer: Long, numberOfLines: Int) {
+        val id = addOneOffMessageHandler(LinePointerListingHandler(pointer, numberOfLines))
+        CommandChannel.send(LineSpec.makeLastLinePointersRequest(id, pointer, numberOfLines))
     }
 
     @MainThread fun requestNicklistForBuffer(pointer: Long) {
-        SendMessageEvent.fire(NickSpec.makeNicklistRequest(pointer))
+        CommandChannel.send(NickSpec.makeNicklistRequest(pointer))
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -178,7 +197,7 @@ object BufferList {
         ////////////////////////////////////////////////////////////////////////////////////////////
 
         add("listbuffers") { obj, _ ->
-            val buffers = CopyOnWriteArrayList<Buffer>()
+            val buffers = ArrayList<Buffer>(obj.count)
 
             obj.forEach { entry ->
                 val buffer = BufferSpec(entry).toBuffer(openWhileRunning = false)
@@ -189,18 +208,22 @@ object BufferList {
                 }
             }
 
-            this.buffers = buffers
+            setBuffers(buffers)
 
             notifyBuffersChanged()
             Hotlist.makeSureHotlistDoesNotContainInvalidBuffers()
         }
 
         add("_buffer_opened") { obj, _ ->
+            val newBuffers = ArrayList(buffers)
+
             obj.forEach { entry ->
                 val buffer = BufferSpec(entry).toBuffer(openWhileRunning = true)
-                buffers.add(buffer)
+                newBuffers.add(buffer)
             }
 
+            setBuffers(newBuffers)
+
             notifyBuffersChanged()  // todo this wasn't present before -- why?
         }
 
@@ -210,10 +233,10 @@ object BufferList {
 
                 if (buffer.number != number) {
                     buffer.update { this.number = number }
+                    notifyBufferChanged(buffer)
                 }
             }
 
-            notifyBuffersChanged()
             Hotlist.makeSureHotlistDoesNotContainInvalidBuffers()   // todo needed?
         }
 
@@ -223,6 +246,8 @@ object BufferList {
                 buffer.update { fullName = spec.fullName; shortName = spec.shortName }
             }
 
+            setBuffers(buffers)     // full names have changed
+
             notifyBuffersChanged()
         }
 
@@ -230,9 +255,8 @@ object BufferList {
         add("_buffer_title_changed") { obj, _ ->
             obj.forEachExistingBuffer { spec, buffer ->
                 buffer.update { title = spec.title }
+                notifyBufferChanged(buffer)
             }
-
-            notifyBuffersChanged()
         }
 
 
@@ -240,14 +264,13 @@ object BufferList {
                 obj, _ ->
             obj.forEachExistingBuffer { spec, buffer ->
                 buffer.update { type = spec.type }
+                notifyBufferChanged(buffer)
             }
-
-            notifyBuffersChanged()
         }
 
 
         add("_buffer_moved", "_buffer_merged") { _, _ ->
-            SendMessageEvent.fire(BufferSpec.renumberRequest)
+            CommandChannel.send(BufferSpec.renumberRequest)
         }
 
 
@@ -256,18 +279,21 @@ object BufferList {
 
             obj.forEachExistingBuffer { _, buffer ->
                 buffer.update { this.hidden = hidden  }
+                notifyBufferChanged(buffer)
             }
-
-            notifyBuffersChanged()
         }
 
 
         add("_buffer_closing") { obj, _ ->
+            val closedBuffers = mutableSetOf<Buffer>()
+
             obj.forEachExistingBuffer { _, buffer ->
-                buffers.remove(buffer)
+                closedBuffers.add(buffer)
                 buffer.onBufferClosed()
             }
 
+            setBuffers(buffers.filter { it !in closedBuffers })
+
             notifyBuffersChanged()
         }
 
@@ -338,8 +364,7 @@ object BufferList {
         add("nicklist", "_nicklist") { obj, _ ->
             val updates = mutableMapOf<Long, MutableList<Nick>>()
 
-            obj.forEach { entry ->
-                val spec = NickSpec(entry)
+            obj.forEachRow(::NickSpec) { spec ->
                 val nicks = updates.getOrPut(spec.bufferPointer) { mutableListOf() }
 
                 if (spec.visible && !spec.group) {
@@ -355,9 +380,11 @@ object BufferList {
 
         add("_nicklist_diff") { obj, _ ->
             var buffer: Buffer? = null
+            val cursor = obj.cursor()
+            val spec = NickSpec(cursor)
+            val diffSpec = NickDiffSpec(cursor)
 
-            obj.forEach { entry ->
-                val spec = NickSpec(entry)
+            while (cursor.next()) {
                 val bufferPointer = spec.bufferPointer
 
                 if (buffer?.pointer != bufferPointer) {
@@ -365,7 +392,7 @@ object BufferList {
                 }
 
                 buffer?.run {
-                    when (NickDiffSpec(entry).command) {
+                    when (diffSpec.command) {
                         ADD -> addNick(spec.toNick())
                         UPDATE -> updateNick(spec.toNick())
                         REMOVE -> removeNick(spec.pointer)
@@ -379,8 +406,7 @@ object BufferList {
         ////////////////////////////////////////////////////////////////////////////////////////////
 
         add("_buffer_line_added") { obj, _ ->
-            obj.forEach { entry ->
-                val spec = LineSpec(entry)
+            obj.forEachRow(::LineSpec) { spec ->
                 findByPointer(spec.bufferPointer)?.let { buffer ->
                     buffer.addLineBottom(spec.toLine())
                     buffer.onLineAdded()
@@ -391,20 +417,137 @@ object BufferList {
         return handlers
     }
 
-    private class LineListingHandler(private val bufferPointer: Long) : HdataHandler {
+    // if there are known lines, the new lines are expected to continue these starting with the line
+    // firstNewPointer. the new lines are requested with some extra lines on top, as the lines that
+    // arrive before the request is processed push the first new line up. if the first new line is
+    // not there anyway, all lines are requested again
+    private class LineListingHandler(
+        private val bufferPointer: Long,
+        private val numberOfLines: Int,
+        private val knownLines: List<Line> = emptyList(),
+        private val firstNewPointer: Long = 0,
+    ) : HdataHandler {
         override fun handleMessage(obj: Hdata, id: String) {
             findByPointer(bufferPointer)?.let { buffer ->
                 val newLines = ArrayList<Line>(obj.count)
 
-                obj.forEachReversed { entry ->
-                    newLines.add(LineSpec(entry).toLine())
+                // lines come in the reverse order
+                obj.forEachRow(::LineSpec) { spec ->
+                    newLines.add(spec.toLine())
+                }
+                newLines.reverse()
+
+                val lines = if (knownLines.isEmpty()) newLines else {
+                    val index = newLines.indexOfFirst { it.pointer == firstNewPointer }
+                    if (index < 0) {
+                        kitty.info("%s: missing lines have moved, requesting all lines", buffer)
+                        requestLinesForBuffer(bufferPointer, numberOfLines)
+                        return
+                    }
+                    (knownLines + newLines.subList(index, newLines.size)).takeLast(numberOfLines)
                 }
 
-                buffer.replaceLines(newLines)
+                buffer.replaceLines(lines)
                 buffer.onLinesListed()
             }
         }
     }
+
+    // matches the pointers, the dates and the visibility of the last lines against the lines that
+    // the buffer has. a line that differs in any of these is missing. the lines that are missing are
+    // usually the newest ones, so the data is requested for all lines starting with the oldest
+    // missing one, but the rest of the lines are reused as they are
+    private class LinePointerListingHandler(
+        private val bufferPointer: Long,
+        private val numberOfLines: Int,
+    ) : HdataHandler {
+        override fun handleMessage(obj: Hdata, id: String) {
+            findByPointer(bufferPointer)?.let { buffer ->
+                val oldLines = buffer.getLinesToMatch()
+                val oldIndexes = HashMap<Long, Int>(oldLines.size * 2)
+                for (i in oldLines.indices) {
+                    if (!oldLines.isSquiggle(i)) oldIndexes[oldLines.getPointer(i)] = i
+                }
+
+                val pointers = LongArray(obj.count)
+                val lines = arrayOfNulls<Line>(obj.count)
+
+                // lines come in the reverse order
+                var index = obj.count
+                obj.forEachRow(::LineSpec) { spec ->
+                    index--
+                    pointers[index] = spec.pointer
+                    lines[index] = oldIndexes[spec.pointer]?.let { oldLines[it] }?.takeIf {
+                        it.timestamp == spec.timestamp && it.isVisible == spec.visible
+                    }
+                }
+
+                val firstMissing = lines.indexOfFirst { it == null }
+                val missing = if (firstMissing < 0) 0 else lines.size - firstMissing
+                kitty.trace("%s: %s lines, %s missing", buffer, lines.size, missing)
+
+                if (missing == 0) {
+                    buffer.replaceLines(lines.filterNotNull())
+                    buffer.onLinesListed()
+                } else {
+                    val knownLines = lines.take(firstMissing).filterNotNull()
+                    val handler = LineListingHandler(bufferPointer, numberOfLines,
+                            knownLines, pointers[firstMissing])
+                    val id = addOneOffMessageHandler(handler)
+                    CommandChannel.send(LineSpec.makeLastLinesRequest(id, bufferPointer,
+                            missing + MISSING_LINES_SLACK))
+                }
+            }
+        }
+    }
+}
+
+
+// an immutable list of buffers along with the indexes to look them up by pointer and by full name.
+// pointers are kept in an open addressing hash table of longs, which avoids boxing on lookup.
+// if there are several buffers with the same pointer or full name, the first one is found
+private class BufferListSnapshot(val buffers: List<Buffer>) {
+    private val pointers: LongArray
+    private val values: Array<Buffer?>
+    private val shift: Int
+    private val fullNames = HashMap<String, Buffer>(buffers.size * 2)
+
+    init {
+        // at most half full. 0 is not a valid pointer, so it marks empty slots
+        val capacity = Integer.highestOneBit(maxOf(buffers.size, 4) * 2 - 1) shl 1
+        pointers = LongArray(capacity)
+        values = arrayOfNulls(capacity)
+        shift = 64 - Integer.numberOfTrailingZeros(capacity)
+
+        buffers.forEach { buffer ->
+            var slot = slotOf(buffer.pointer)
+            while (pointers[slot] != 0L && pointers[slot] != buffer.pointer) {
+                slot = (slot + 1) and (capacity - 1)
+            }
+            if (pointers[slot] == 0L) {
+                pointers[slot] = buffer.pointer
+                values[slot] = buffer
+            }
+            fullNames.putIfAbsent(buffer.fullName, buffer)
+        }
+    }
+
+    // pointers are aligned addresses, so their low bits are mostly the same.
+    // multiplying spreads them to the high bits, which are used as the slot
+    private fun slotOf(pointer: Long) = ((pointer * -0x61c8864680b583ebL) ushr shift).toInt()
+
+    fun findByPointer(pointer: Long): Buffer? {
+        if (pointer == 0L) return null
+        var slot = slotOf(pointer)
+        while (true) {
+            val candidate = pointers[slot]
+            if (candidate == pointer) return values[slot]
+            if (candidate == 0L) return null
+            slot = (slot + 1) and (pointers.size - 1)
+        }
+    }
+
+    fun findByFullName(fullName: String) = fullNames[fullName]
 }
 
 
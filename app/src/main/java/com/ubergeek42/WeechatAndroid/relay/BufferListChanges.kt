@@ -0,0 +1,65 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+
+package com.ubergeek42.WeechatAndroid.relay
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.view.Choreographer
+import androidx.annotation.AnyThread
+import com.ubergeek42.cats.Kitty
+import com.ubergeek42.cats.Root
+
+
+// merges the changes to the buffer list that come in quick succession, e.g. during a netsplit or
+// a bouncer playback, and hands them to the buffer list eye at most once per frame, along with the
+// pointers of the buffers that have changed. the eye is called on a thread of its own, with no
+// locks held. changes made while there's no eye are dropped; the eye rebuilds everything when
+// it's attached
+object BufferListChanges {
+    @Root private val kitty: Kitty = Kitty.make()
+
+    private val handler = Handler(HandlerThread("buffer-list").apply { start() }.looper)
+
+    // guarded by this. null means that the list itself or any of the buffers may have changed
+    private var changedPointers: HashSet<Long>? = HashSet()
+    private var notificationCount = 0
+    private var scheduled = false
+
+    @AnyThread fun onBufferChanged(pointer: Long) = add(pointer)
+
+    @AnyThread fun onBuffersChanged() = add(null)
+
+    @AnyThread @Synchronized private fun add(pointer: Long?) {
+        if (BufferList.bufferListEye == null) return
+
+        if (pointer == null) changedPointers = null else changedPointers?.add(pointer)
+        notificationCount++
+
+        if (!scheduled) {
+            scheduled = true
+            handler.post(scheduleDelivery)
+        }
+    }
+
+    // choreographer is per thread, and calls back on the thread it was obtained on
+    private val scheduleDelivery = Runnable {
+        Choreographer.getInstance().postFrameCallback(deliver)
+    }
+
+    private val deliver = Choreographer.FrameCallback {
+        val changedPointers: Set<Long>?
+        val notificationCount: Int
+        synchronized (this) {
+            changedPointers = this.changedPointers
+            notificationCount = this.notificationCount
+            this.changedPointers = HashSet()
+            this.notificationCount = 0
+            scheduled = false
+        }
+
+        kitty.trace("delivering changes of %s buffers merged from %s notifications",
+                changedPointers?.size ?: "all", notificationCount)
+        BufferList.bufferListEye?.onBuffersChanged(changedPointers)
+    }
+}
@@ -3,5 +3,7 @@
 package com.ubergeek42.WeechatAndroid.relay
 
 interface BufferListEye {
-    fun onBuffersChanged()
-}
\ No newline at end of file
+    // changedPointers are the buffers that have changed, or null if the list itself or any of the
+    // buffers may have changed. see BufferListChanges
+    fun onBuffersChanged(changedPointers: Set<Long>?)
+}
@@ -25,35 +25,48 @@ open class Line constructor(
     @JvmField val pointer: Long,
     @JvmField val type: LineSpec.Type,
     @JvmField val timestamp: Long,
-    private val rawPrefix: String,
-    private val rawMessage: String,
+    internal val rawPrefix: String,
+    internal val rawMessage: String,
     @JvmField val nick: String?,
     @JvmField val isVisible: Boolean,
     @JvmField val isHighlighted: Boolean,
     @JvmField val displayAs: LineSpec.DisplayAs,
     @JvmField val notifyLevel: LineSpec.NotifyLevel
 ) {
-    @AnyThread fun ensureSpannable() {
-        if (_spannable != null) return
+    // lines are rendered once and stored in SpannableCache. note that the preferences might be
+    // changing while the line is being rendered; using the style from before rendering makes sure
+    // that such a line is rendered again, if needed
+    @AnyThread fun ensureSpannable() { ensureRendered() }
+
+    private fun ensureRendered(): SpannableCache.Rendered {
+        SpannableCache.get(this)?.let { return it }
+        val style = SpannableCache.style
 
         val encloseNick = P.encloseNick && displayAs == LineSpec.DisplayAs.Say
-        val color = Color(timestampString, rawPrefix, rawMessage, encloseNick, isHighlighted, P.maxWidth, P.align)
+        // the parser belongs to this thread and is reused; its results are only valid until it's
+        // used again, so take everything needed right away
+        val color = Color.get()
+        color.parseLine(timestampString, rawPrefix, rawMessage, encloseNick, isHighlighted, P.maxWidth, P.align)
         val spannable: Spannable = SpannableString(color.lineString)
+        val prefixString = color.prefixString
+        val messageString = color.messageString
+        val urlCandidates = color.urlCandidates
 
         if (type == LineSpec.Type.Other && P.dimDownNonHumanLines) {
             spannable.setSpan(ForegroundColorSpan(ColorScheme.get().chat_inactive_buffer[0] or
                     -0x1000000), 0, spannable.length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
         } else {
-            for (span in color.finalSpanList) {
-                val droidSpan = when (span.type) {
-                    Color.Span.FGCOLOR -> ForegroundColorSpan(span.color or -0x1000000)
-                    Color.Span.BGCOLOR -> BackgroundColorSpan(span.color or -0x1000000)
+            for (i in 0 until color.spanCount) {
+                val droidSpan = when (color.getSpanType(i)) {
+                    Color.Span.FGCOLOR -> ForegroundColorSpan(color.getSpanColor(i) or -0x1000000)
+                    Color.Span.BGCOLOR -> BackgroundColorSpan(color.getSpanColor(i) or -0x1000000)
                     Color.Span.ITALIC -> StyleSpan(Typeface.ITALIC)
                     Color.Span.BOLD -> StyleSpan(Typeface.BOLD)
                     Color.Span.UNDERLINE -> UnderlineSpan()
                     else -> continue
                 }
-                spannable.setSpan(droidSpan, span.start, span.end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+                spannable.setSpan(droidSpan, color.getSpanStart(i), color.getSpanEnd(i),
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
             }
         }
         if (P.align != Color.ALIGN_NONE) {
@@ -61,26 +74,15 @@ open class Line constructor(
             spannable.setSpan(marginSpan, 0, spannable.length, Spanned.SPAN_INCLUSIVE_INCLUSIVE)
         }
 
-        linkify(spannable, color.messageString)
+        linkify(spannable, messageString, urlCandidates)
 
         if (SHOULD_EMOJIFY) emojify(spannable)
 
-        _prefixString = color.prefixString
-        _messageString = color.messageString
-        _spannable = spannable
-    }
-
-    @AnyThread fun invalidateSpannable() {
-        _spannable = null
-        _messageString = null
-        _prefixString = null
+        return SpannableCache.Rendered(this, spannable, prefixString, messageString, style)
+                .also { rendered -> SpannableCache.put(this, rendered) }
     }
 
-    @Volatile private var _spannable: Spannable? = null
-    open val spannable get(): Spannable {
-        ensureSpannable()
-        return _spannable!!
-    }
+    open val spannable get(): Spannable = ensureRendered().spannable
 
     private val timestampString get() = P.dateFormat?.let { dateFormat ->
         StringBuilder().also { builder -> dateFormat.printTo(builder, this.timestamp) }
@@ -89,11 +91,11 @@ open class Line constructor(
     // can't simply do ensureSpannable() here as this can be called for a highlights when there's no
     // activity (after OOM kill). this would parse the spannable using incorrect colors, and this
     // spannable wouldn't get reset by P if the buffer's not open.
-    private var _prefixString: String? = null
-    open val prefixString get() = _prefixString ?: Color().parseColors(rawPrefix).toString()
+    open val prefixString get() = SpannableCache.peek(this)?.prefixString
+            ?: Color.stripEverything(rawPrefix)
 
-    private var _messageString: String? = null
-    open val messageString get() = _messageString ?: Color().parseColors(rawMessage).toString()
+    open val messageString get() = SpannableCache.peek(this)?.messageString
+            ?: Color.stripEverything(rawMessage)
 
     // caching this method (for the purpose of speeding up search)
     // yields about 5ms for searches of 4096 lines, despite what the flame chart shows
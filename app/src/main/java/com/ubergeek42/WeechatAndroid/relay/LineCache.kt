@@ -0,0 +1,137 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+package com.ubergeek42.WeechatAndroid.relay
+
+import android.os.Handler
+import android.os.HandlerThread
+import androidx.annotation.MainThread
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Database
+import androidx.room.Entity
+import androidx.room.Insert
+import androidx.room.Query
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.room.Transaction
+import com.ubergeek42.WeechatAndroid.service.P
+import com.ubergeek42.WeechatAndroid.upload.applicationContext
+import com.ubergeek42.cats.Kitty
+import com.ubergeek42.cats.Root
+
+
+@Root private val kitty: Kitty = Kitty.make()
+
+private const val DATABASE_NAME = "line-cache"
+private const val KEEP_FOR = 7L * 24 * 60 * 60 * 1000     // a week
+
+
+@Entity(tableName = "lines", primaryKeys = ["buffer", "position"])
+data class CachedLine(
+    @ColumnInfo(name = "buffer")        val buffer: String,
+    @ColumnInfo(name = "position")      val position: Int,
+    @ColumnInfo(name = "pointer")       val pointer: Long,
+    @ColumnInfo(name = "type")          val type: Int,
+    @ColumnInfo(name = "timestamp")     val timestamp: Long,
+    @ColumnInfo(name = "prefix")        val prefix: String,
+    @ColumnInfo(name = "message")       val message: String,
+    @ColumnInfo(name = "nick")          val nick: String?,
+    @ColumnInfo(name = "visible")       val isVisible: Boolean,
+    @ColumnInfo(name = "highlighted")   val isHighlighted: Boolean,
+    @ColumnInfo(name = "display_as")    val displayAs: Int,
+    @ColumnInfo(name = "notify_level")  val notifyLevel: Int,
+    @ColumnInfo(name = "saved_at")      val savedAt: Long,
+) {
+    constructor(buffer: String, position: Int, line: Line, savedAt: Long) : this(
+            buffer, position, line.pointer, line.type.ordinal, line.timestamp,
+            line.rawPrefix, line.rawMessage, line.nick, line.isVisible, line.isHighlighted,
+            line.displayAs.ordinal, line.notifyLevel.ordinal, savedAt)
+
+    fun toLine() = Line(pointer, LineSpec.Type.values()[type], timestamp, prefix, message, nick,
+            isVisible, isHighlighted, LineSpec.DisplayAs.values()[displayAs],
+            LineSpec.NotifyLevel.values()[notifyLevel])
+}
+
+
+// the last lines of the buffers, saved on disk, so that after the process is killed, a buffer can
+// show its lines right away, without waiting for the relay. the lines are replaced with the ones
+// from the relay as soon as these arrive. the lines of a buffer are only saved if they have
+// changed since the last time, and the lines that haven't been saved for a while are deleted
+object LineCache {
+    @Dao
+    abstract class CachedLines {
+        @Query("SELECT * FROM lines WHERE buffer = :buffer ORDER BY position")
+        abstract fun get(buffer: String): List<CachedLine>
+
+        @Query("DELETE FROM lines WHERE buffer = :buffer")
+        abstract fun delete(buffer: String)
+
+        @Insert
+        abstract fun insertAll(lines: Collection<CachedLine>)
+
+        @Transaction
+        open fun replace(buffer: String, lines: Collection<CachedLine>) {
+            delete(buffer)
+            insertAll(lines)
+        }
+
+        @Query("DELETE FROM lines WHERE saved_at < :timestamp")
+        abstract fun deleteSavedBefore(timestamp: Long): Int
+    }
+
+    @Database(entities = [CachedLine::class], version = 1)
+    abstract class CachedLinesDatabase : RoomDatabase() {
+        abstract fun cachedLinesDao(): CachedLines
+    }
+
+    // the database is only touched on this thread, which also keeps the writes in order
+    private val handler = Handler(HandlerThread("line-cache").apply { start() }.looper)
+
+    private val database by lazy {
+        Room.databaseBuilder(applicationContext,
+                CachedLinesDatabase::class.java,
+                applicationContext.cacheDir.toString() + "/" + DATABASE_NAME).build().also {
+            val deleted = it.cachedLinesDao().deleteSavedBefore(System.currentTimeMillis() - KEEP_FOR)
+            kitty.trace("using database at %s; deleted %s old lines",
+                    it.openHelper.writableDatabase.path, deleted)
+        }
+    }
+
+    private val dao get() = database.cachedLinesDao()
+
+    // buffers are told apart by the relay they come from, as well as by their full names
+    private fun keyOf(buffer: Buffer) = "${P.host}/${buffer.fullName}"
+
+    // the lines as they were when last saved, by buffer key
+    private val savedVersions = HashMap<String, LinesView.Version>()
+
+    @MainThread fun save() {
+        val now = System.currentTimeMillis()
+        val count = P.lineIncrement
+
+        for (buffer in BufferList.buffers) {
+            val lines = buffer.getLinesToCache() ?: continue
+            val key = keyOf(buffer)
+            if (savedVersions.put(key, lines.version) == lines.version) continue
+
+            handler.post {
+                val first = (lines.size - count).coerceAtLeast(0)
+                val cachedLines = (first until lines.size)
+                        .filter { !lines.isSquiggle(it) }
+                        .map { CachedLine(key, it - first, lines[it], now) }
+                dao.replace(key, cachedLines)
+                kitty.trace("saved %s lines of %s", cachedLines.size, key)
+            }
+        }
+    }
+
+    // if there are lines saved for the buffer, gives them to it, see Buffer.onCachedLinesLoaded
+    @MainThread fun load(buffer: Buffer) {
+        val key = keyOf(buffer)
+        handler.post {
+            val cachedLines = dao.get(key)
+            kitty.trace("loaded %s lines of %s", cachedLines.size, key)
+            if (cachedLines.isNotEmpty()) buffer.onCachedLinesLoaded(cachedLines.map { it.toLine() })
+        }
+    }
+}
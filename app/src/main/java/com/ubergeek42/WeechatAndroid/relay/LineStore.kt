@@ -0,0 +1,257 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+package com.ubergeek42.WeechatAndroid.relay
+
+
+private const val CHUNK_BITS = 8
+private const val CHUNK_SIZE = 1 shl CHUNK_BITS
+private const val CHUNK_MASK = CHUNK_SIZE - 1
+
+private const val MAX_INTERNED_STRINGS = 1024
+
+
+// flags of a line, packed into an int
+private const val VISIBLE = 1
+private const val HIGHLIGHTED = 1 shl 1
+private const val SQUIGGLE = 1 shl 2
+private const val TYPE_SHIFT = 3
+private const val DISPLAY_AS_SHIFT = 5
+private const val NOTIFY_LEVEL_SHIFT = 7
+private const val TWO_BITS = 0b11
+private const val THREE_BITS = 0b111
+
+private val types = LineSpec.Type.values()
+private val displayAses = LineSpec.DisplayAs.values()
+private val notifyLevels = LineSpec.NotifyLevel.values()
+
+
+// lines in columns: pointers, timestamps, packed flags and strings are stored in parallel arrays,
+// in chunks of 256 lines. Line objects are made from these when needed; their spannables are kept
+// separately, see SpannableCache. a position in a chunk is
+// written only once, so snapshots can share the chunks with the store and stay immutable. making
+// a snapshot only copies the references to the chunks, so it's cheap even for thousands of lines.
+//
+// lines are addressed by positions, which are counted from the creation of the store, and not from
+// its first line. lines can be added at the end and removed from the start. clear() starts anew
+class LineStore {
+    private var chunks = ArrayList<Chunk>()
+    private var generation = Any()              // tells apart the stores before and after clear()
+    private var base = 0                        // position of the first line of the first chunk
+
+    var start = 0                               // position of the first line
+        private set
+    var end = 0                                 // position after the last line
+        private set
+
+    val size get() = end - start
+
+    // prefixes and nicks repeat a lot
+    private val interned = HashMap<String, String>()
+
+    private fun intern(string: String?): String? {
+        if (string == null) return null
+        if (interned.size >= MAX_INTERNED_STRINGS) interned.clear()
+        return interned.getOrPut(string) { string }
+    }
+
+    fun addLast(line: Line): Int {
+        val offset = end - base
+        if (offset shr CHUNK_BITS == chunks.size) chunks.add(Chunk())
+        chunks[offset shr CHUNK_BITS].set(offset and CHUNK_MASK, line, ::intern)
+        return end++
+    }
+
+    // the line is not cleared from the chunk, as snapshots may still be using it
+    fun removeFirst() {
+        if (start == end) throw NoSuchElementException()
+        start++
+        if (start - base == CHUNK_SIZE) {
+            chunks.removeAt(0)
+            base += CHUNK_SIZE
+        }
+    }
+
+    fun clear() {
+        chunks = ArrayList()
+        generation = Any()
+        base = 0
+        start = 0
+        end = 0
+    }
+
+    private fun chunkOf(position: Int): Chunk {
+        if (position < start || position >= end) throw IndexOutOfBoundsException(
+                "position: $position, start: $start, end: $end")
+        return chunks[(position - base) shr CHUNK_BITS]
+    }
+
+    fun getPointer(position: Int) = chunkOf(position).pointers[(position - base) and CHUNK_MASK]
+    fun getTimestamp(position: Int) = chunkOf(position).timestamps[(position - base) and CHUNK_MASK]
+    fun isVisible(position: Int) = chunkOf(position).flags[(position - base) and CHUNK_MASK] and VISIBLE != 0
+    fun isSquiggle(position: Int) = chunkOf(position).flags[(position - base) and CHUNK_MASK] and SQUIGGLE != 0
+
+    fun get(position: Int) = chunkOf(position).makeLine((position - base) and CHUNK_MASK)
+
+    fun snapshot() = Snapshot(chunks.toTypedArray(), generation, base, start, end)
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    class Snapshot internal constructor(
+        private val chunks: Array<Chunk>,
+        generation: Any,
+        private val base: Int,
+        start: Int,
+        end: Int,
+    ) : LinesView(generation, start, end) {
+        private fun chunkOf(position: Int): Chunk {
+            if (position < start || position >= end) throw IndexOutOfBoundsException(
+                    "position: $position, start: $start, end: $end")
+            return chunks[(position - base) shr CHUNK_BITS]
+        }
+
+        fun getPointerAt(position: Int) = chunkOf(position).pointers[(position - base) and CHUNK_MASK]
+        fun isVisibleAt(position: Int) = chunkOf(position).flags[(position - base) and CHUNK_MASK] and VISIBLE != 0
+        fun isSquiggleAt(position: Int) = chunkOf(position).flags[(position - base) and CHUNK_MASK] and SQUIGGLE != 0
+        fun getAt(position: Int) = chunkOf(position).makeLine((position - base) and CHUNK_MASK)
+
+        override fun get(index: Int) = getAt(start + index)
+        override fun getPointer(index: Int) = getPointerAt(start + index)
+        override fun isSquiggle(index: Int) = isSquiggleAt(start + index)
+        override fun getPosition(index: Int) = start + index
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    class Chunk internal constructor() {
+        internal val pointers = LongArray(CHUNK_SIZE)
+        internal val timestamps = LongArray(CHUNK_SIZE)
+        internal val flags = IntArray(CHUNK_SIZE)
+        private val prefixes = arrayOfNulls<String>(CHUNK_SIZE)
+        private val messages = arrayOfNulls<String>(CHUNK_SIZE)
+        private val nicks = arrayOfNulls<String>(CHUNK_SIZE)
+
+        internal fun set(offset: Int, line: Line, intern: (String?) -> String?) {
+            pointers[offset] = line.pointer
+            if (line is SquiggleLine) {
+                flags[offset] = SQUIGGLE
+                return
+            }
+            timestamps[offset] = line.timestamp
+            flags[offset] = (if (line.isVisible) VISIBLE else 0) or
+                    (if (line.isHighlighted) HIGHLIGHTED else 0) or
+                    (line.type.ordinal shl TYPE_SHIFT) or
+                    (line.displayAs.ordinal shl DISPLAY_AS_SHIFT) or
+                    (line.notifyLevel.ordinal shl NOTIFY_LEVEL_SHIFT)
+            prefixes[offset] = intern(line.rawPrefix)
+            messages[offset] = line.rawMessage
+            nicks[offset] = intern(line.nick)
+        }
+
+        internal fun makeLine(offset: Int): Line {
+            val flags = flags[offset]
+            if (flags and SQUIGGLE != 0) return SquiggleLine(pointers[offset])
+            return Line(pointers[offset],
+                    types[(flags shr TYPE_SHIFT) and TWO_BITS],
+                    timestamps[offset],
+                    prefixes[offset]!!,
+                    messages[offset]!!,
+                    nicks[offset],
+                    isVisible = flags and VISIBLE != 0,
+                    isHighlighted = flags and HIGHLIGHTED != 0,
+                    displayAses[(flags shr DISPLAY_AS_SHIFT) and TWO_BITS],
+                    notifyLevels[(flags shr NOTIFY_LEVEL_SHIFT) and THREE_BITS])
+        }
+    }
+}
+
+
+// the positions of the lines of a store that pass the filter, in chunks of 256 ints.
+// just as the store, it can be added to at the end and removed from at the start
+class PositionList {
+    private var chunks = ArrayList<IntArray>()
+    private var generation = Any()
+    private var base = 0        // index of the first position of the first chunk
+    private var start = 0       // index of the first position
+    private var end = 0         // index after the last position
+
+    val size get() = end - start
+
+    operator fun get(index: Int): Int {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        val offset = start + index - base
+        return chunks[offset shr CHUNK_BITS][offset and CHUNK_MASK]
+    }
+
+    fun last() = get(size - 1)
+
+    fun addLast(position: Int) {
+        val offset = end - base
+        if (offset shr CHUNK_BITS == chunks.size) chunks.add(IntArray(CHUNK_SIZE))
+        chunks[offset shr CHUNK_BITS][offset and CHUNK_MASK] = position
+        end++
+    }
+
+    fun removeFirst() {
+        if (start == end) throw NoSuchElementException()
+        start++
+        if (start - base == CHUNK_SIZE) {
+            chunks.removeAt(0)
+            base += CHUNK_SIZE
+        }
+    }
+
+    fun clear() {
+        chunks = ArrayList()
+        generation = Any()
+        base = 0
+        start = 0
+        end = 0
+    }
+
+    fun snapshot(store: LineStore.Snapshot) =
+            Snapshot(chunks.toTypedArray(), generation, base, start, end, store)
+
+    class Snapshot internal constructor(
+        private val chunks: Array<IntArray>,
+        generation: Any,
+        private val base: Int,
+        start: Int,
+        end: Int,
+        private val store: LineStore.Snapshot,
+    ) : LinesView(generation, start, end) {
+        private fun positionOf(index: Int): Int {
+            if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+            val offset = start + index - base
+            return chunks[offset shr CHUNK_BITS][offset and CHUNK_MASK]
+        }
+
+        override fun get(index: Int) = store.getAt(positionOf(index))
+        override fun getPointer(index: Int) = store.getPointerAt(positionOf(index))
+        override fun isSquiggle(index: Int) = store.isSquiggleAt(positionOf(index))
+        override fun getPosition(index: Int) = positionOf(index)
+    }
+}
+
+
+// an immutable list of lines, as they were at some moment. start and end are counted from the
+// creation of the list, so two views of the same list can tell how many lines were removed from
+// the start and added to the end in between. get() makes a new Line object each time
+abstract class LinesView(
+    private val generation: Any,
+    internal val start: Int,
+    internal val end: Int,
+) : AbstractList<Line>() {
+    override val size get() = end - start
+
+    abstract fun getPointer(index: Int): Long
+    abstract fun isSquiggle(index: Int): Boolean
+    abstract fun getPosition(index: Int): Int           // position of the line in LineStore
+
+    // true if both views were made of the same list, with no clear() in between
+    fun isOfSameListAs(other: LinesView) = generation === other.generation
+
+    // equal for the views of the same list that end at the same line
+    val version get() = Version(generation, end)
+
+    data class Version internal constructor(private val generation: Any, private val end: Int)
+}
@@ -5,12 +5,15 @@ package com.ubergeek42.WeechatAndroid.relay
 import android.text.SpannableString
 import com.ubergeek42.WeechatAndroid.service.P
 import com.ubergeek42.WeechatAndroid.utils.Linkify
-import com.ubergeek42.WeechatAndroid.utils.Utils
 import com.ubergeek42.WeechatAndroid.utils.invalidatableLazy
 import com.ubergeek42.weechat.Color
-import java.util.*
 import kotlin.properties.Delegates.observable
 
+
+// how many lines at the bottom get their spannables made in advance, see SpannableCache
+const val PRE_RENDERED_LINES = 512
+
+
 // this class is supposed to be synchronized by Buffer
 class Lines {
     enum class Status {
@@ -35,8 +38,9 @@ class Lines {
             }
         }
 
-    private val filtered = ArrayDeque<Line>()
-    private val unfiltered = ArrayDeque<Line>()
+    private val unfiltered = LineStore()
+    private val filtered = PositionList()       // positions of the visible lines in unfiltered
+    private val searchIndex = SearchIndex()
 
     private var skipUnfiltered = -1
     private var skipFiltered = -1
@@ -46,6 +50,8 @@ class Lines {
     var maxUnfilteredSize = P.lineIncrement
         private set
 
+    val isEmpty get() = unfiltered.size == 0
+
     // after reconnecting, in *full sync mode*, we are receiving and adding new lines to buffers.
     // there can be inconsistencies; if some lines were added while we were offline,
     // we can't display them, but can display what's on top and what's on bottom.
@@ -61,25 +67,25 @@ class Lines {
     // also note that some lines might have changed visibility due to e.g. smart_filter;
     // but keeping them hidden would not create an inconsistency due to their nature
     fun updateLastLineInfo(lastPointerServer: Long?, lastVisiblePointerServer: Long?) {
-        val lastPointer = unfiltered.lastOrNull()?.pointer
-        val lastVisiblePointer = filtered.lastOrNull()?.pointer
+        val lastPointer = if (unfiltered.size > 0) unfiltered.getPointer(unfiltered.end - 1) else null
+        val lastVisiblePointer = if (filtered.size > 0) unfiltered.getPointer(filtered.last()) else null
 
         if (lastPointerServer != lastPointer) shouldAddSquiggleOnNewLine = true
         if (shouldAddSquiggleOnNewLine && lastVisiblePointerServer != lastVisiblePointer)
                     shouldAddSquiggleOnNewVisibleLine = true
     }
 
-    // it might look like there's a room for optimization here,
-    // but these uses very optimized array operations underneath and
-    // getting this work faster is probably just not feasible or worth the effort
-    fun getCopy(): ArrayList<Line> {
-        return ArrayList(if (P.filterLines) filtered else unfiltered).apply {
-            add(0, headerLine)
-            val skip = if (P.filterLines) skipFiltered else skipUnfiltered
-            val marker = if (skip >= 0 && size > 0) size - skip else -1
-            if (marker > 0) add(marker, MarkerLine)
-            while (isNotEmpty() && last() is SquiggleLine) removeLast()
-        }
+    // the lines are not copied, see LineStore
+    fun getSnapshot(): LinesSnapshot {
+        val unfilteredSnapshot = unfiltered.snapshot()
+        val lines = if (P.filterLines) filtered.snapshot(unfilteredSnapshot) else unfilteredSnapshot
+        val skip = if (P.filterLines) skipFiltered else skipUnfiltered
+        val marker = if (skip >= 0 && skip <= lines.size) lines.size - skip else -1
+        return LinesSnapshot(headerLine, lines, marker, searchIndex.getReader())
+    }
+
+    fun enableSearchIndex(enable: Boolean) {
+        if (enable) searchIndex.enable(unfiltered) else searchIndex.disable()
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -89,14 +95,45 @@ class Lines {
 
     fun replaceLines(lines: Collection<Line>) {
         if (status != Status.Fetching) return
+        evictRemovedLines(lines)
         unfiltered.clear()
         filtered.clear()
-        unfiltered.addAll(lines)
+        searchIndex.clear()
+        addAll(lines)
+    }
+
+    // the lines that don't come back are removed from SpannableCache, as their pointers can be
+    // reused by the lines that come later. the ones that do come back keep their spannables
+    private fun evictRemovedLines(newLines: Collection<Line>) {
+        if (unfiltered.size == 0) return
+        val newTimestamps = HashMap<Long, Long>(newLines.size * 2)
+        for (line in newLines) newTimestamps[line.pointer] = line.timestamp
+        for (position in unfiltered.start until unfiltered.end) {
+            val pointer = unfiltered.getPointer(position)
+            val timestamp = unfiltered.getTimestamp(position)
+            if (newTimestamps[pointer] != timestamp) SpannableCache.remove(pointer, timestamp)
+        }
+    }
+
+    // lines from LineCache, to be displayed while the lines are being fetched. these are only added
+    // if nothing has arrived from the relay yet, and are replaced by the lines that do arrive
+    fun addCachedLines(lines: List<Line>): Boolean {
+        if (status != Status.Fetching || !isEmpty) return false
+        addAll(lines.takeLast(maxUnfilteredSize))
+        return true
+    }
+
+    private fun addAll(lines: Collection<Line>) {
         for (line in lines) {
-            if (line.isVisible) filtered.add(line)
+            val position = unfiltered.addLast(line)
+            if (line.isVisible) filtered.addLast(position)
+            searchIndex.add(position, line)
         }
     }
 
+    // all the lines, including the invisible ones
+    fun getUnfilteredSnapshot() = unfiltered.snapshot()
+
     fun addLast(line: Line) {
         if (shouldAddSquiggleOnNewLine) {
             shouldAddSquiggleOnNewLine = false
@@ -108,7 +145,7 @@ class Lines {
             if (status == Status.Init && filtered.size > 0) {
                 // “unhide” the squiggly line added above. as it's hidden,
                 // the size of visible lines is surely less than maximum
-                unfiltered.reversed().firstOrNull { it is SquiggleLine }?.let {
+                (unfiltered.end - 1 downTo unfiltered.start).firstOrNull { unfiltered.isSquiggle(it) }?.let {
                     filtered.addLast(it)
                     if (skipFiltered >= 0) skipFiltered++
                 }
@@ -120,11 +157,16 @@ class Lines {
         val shouldRemoveFirstLine = unfilteredSize == maxUnfilteredSize
 
         if (shouldRemoveFirstLine) {
-            if (unfiltered.removeFirst().isVisible) filtered.removeFirst()
+            SpannableCache.remove(unfiltered.getPointer(unfiltered.start),
+                                  unfiltered.getTimestamp(unfiltered.start))
+            unfiltered.removeFirst()
+            if (filtered.size > 0 && filtered[0] < unfiltered.start) filtered.removeFirst()
+            searchIndex.removeBefore(unfiltered.start)
         }
 
-        unfiltered.addLast(line)
-        if (line.isVisible) filtered.addLast(line)
+        val position = unfiltered.addLast(line)
+        if (line.isVisible) filtered.addLast(position)
+        searchIndex.add(position, line)
 
         if (status == Status.Fetching) return
 
@@ -164,19 +206,18 @@ class Lines {
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
-    val descendingFilteredIterator: Iterator<Line> get() = filtered.descendingIterator()
+    val descendingFilteredIterator: Iterator<Line> get() =
+            (filtered.size - 1 downTo 0).asSequence().map { unfiltered.get(filtered[it]) }.iterator()
 
-
-    fun invalidateSpannables() {
-        unfiltered.forEach { it.invalidateSpannable() }
-    }
-
-    // process lines that are gre going to be displayed, backwards, on a background thread pool.
-    // this method gets called after line filter change, so it does get to process all needed lines
+    // process the bottom lines that are going to be displayed, see RenderScheduler. this method
+    // gets called after line filter change, so it does get to process all needed lines. lines
+    // further up are processed as they are displayed
     fun ensureSpannables() {
-        val target = if (P.filterLines) filtered else unfiltered
-        val snapshot = target.toTypedArray()
-        Utils.runInBackground { for (i in snapshot.indices.reversed()) snapshot[i].ensureSpannable() }
+        val snapshot = getSnapshot().lines
+        val from = unfiltered.end - PRE_RENDERED_LINES
+        var first = snapshot.size
+        while (first > 0 && snapshot.getPosition(first - 1) >= from) first--
+        RenderScheduler.render(this, snapshot.subList(first, snapshot.size))
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -197,7 +238,7 @@ class Lines {
     fun rememberCurrentSkipsOffset() {
         skipFilteredOffset = skipFiltered
         skipUnfilteredOffset = skipUnfiltered
-        if (unfiltered.size > 0) _lastSeenLine = unfiltered.last.pointer
+        if (unfiltered.size > 0) _lastSeenLine = unfiltered.getPointer(unfiltered.end - 1)
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -216,15 +257,15 @@ class Lines {
         var indexFiltered = 0
         var indexUnfiltered = 0
 
-        unfiltered.descendingIterator().forEach { line ->
-            if (line.pointer == _lastSeenLine) {
+        for (position in unfiltered.end - 1 downTo unfiltered.start) {
+            if (unfiltered.getPointer(position) == _lastSeenLine) {
                 skipFiltered = indexFiltered
                 skipUnfiltered = indexUnfiltered
                 return
             }
 
             indexUnfiltered++
-            if (line.isVisible) indexFiltered++
+            if (unfiltered.isVisible(position)) indexFiltered++
         }
 
         skipFiltered = -1
@@ -240,6 +281,87 @@ class Lines {
 }
 
 
+// what the lines adapter displays: the header, the lines, and, if the lines are not all read,
+// the read marker before the first unread line. squiggles at the end are not displayed
+class LinesSnapshot(
+    val header: HeaderLine,
+    internal val lines: LinesView,
+    private val marker: Int,        // index of the line before which the marker is, or -1
+    internal val searchIndex: SearchIndex.Reader? = null,
+) : AbstractList<Line>() {
+    private val displayedLines: Int
+
+    init {
+        var displayedLines = lines.size
+        while (displayedLines > 0 && displayedLines != marker &&
+                lines.isSquiggle(displayedLines - 1)) displayedLines--
+        this.displayedLines = displayedLines
+    }
+
+    override val size get() = 1 + displayedLines + if (marker >= 0) 1 else 0
+
+    // the index of the line in lines, or -1 for the header and -2 for the marker
+    private fun lineIndexOf(index: Int): Int {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        return when {
+            index == 0 -> -1
+            marker < 0 || index - 1 < marker -> index - 1
+            index - 1 == marker -> -2
+            else -> index - 2
+        }
+    }
+
+    override fun get(index: Int) = when (val i = lineIndexOf(index)) {
+        -1 -> header
+        -2 -> MarkerLine
+        else -> lines[i]
+    }
+
+    fun getPointer(index: Int) = when (val i = lineIndexOf(index)) {
+        -1 -> header.pointer
+        -2 -> MarkerLine.pointer
+        else -> lines.getPointer(i)
+    }
+
+    // the index of the line at the given position in LineStore, or -1 if it is not displayed
+    fun indexOfPosition(position: Int): Int {
+        var low = 0
+        var high = displayedLines
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (lines.getPosition(middle) < position) low = middle + 1 else high = middle
+        }
+        if (low == displayedLines || lines.getPosition(low) != position) return -1
+        return if (marker in 0..low) low + 2 else low + 1
+    }
+
+    // if this snapshot differs from an older one only in some lines removed from the top and some
+    // lines added to the bottom, returns how many; otherwise, returns null. the lines are compared
+    // by their position in the list, so this takes constant time
+    fun getDeltaFrom(old: List<Line>): LinesDelta? {
+        if (old !is LinesSnapshot) return null
+        if (old.header !== header || !lines.isOfSameListAs(old.lines)) return null
+        if (old.displayedLines != old.lines.size || displayedLines != lines.size) return null
+
+        val removed = lines.start - old.lines.start
+        val added = lines.end - old.lines.end
+        if (removed < 0 || added < 0 || removed > old.lines.size) return null
+
+        // the marker must stay in front of the same line
+        val oldMarkerPosition = if (old.marker >= 0) old.lines.start + old.marker else -1
+        val markerPosition = if (marker >= 0) lines.start + marker else -1
+        if (oldMarkerPosition != markerPosition) return null
+
+        return LinesDelta(old, removed, added)
+    }
+}
+
+
+// how to get from the old lines to the new ones: remove some lines right after the header, and add
+// some lines at the very end
+class LinesDelta(val old: List<Line>, val removed: Int, val added: Int)
+
+
 private const val MAX_C_POINTER_VALUE = 0x200000000000000       // 2⁵⁷
 private var fakePointerCounter = MAX_C_POINTER_VALUE
 private val TITLE_LINE_POINTER = ++fakePointerCounter
@@ -253,7 +375,7 @@ open class FakeLine(pointer: Long) : Line(
 
 
 object MarkerLine : FakeLine(++fakePointerCounter)              // can have only one per buffer
-class SquiggleLine : FakeLine(++fakePointerCounter)             // can have several of these
+class SquiggleLine(pointer: Long = ++fakePointerCounter) : FakeLine(pointer)    // can have several
 
 
 class HeaderLine(
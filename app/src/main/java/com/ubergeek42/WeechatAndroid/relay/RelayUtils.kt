@@ -4,6 +4,7 @@ package com.ubergeek42.WeechatAndroid.relay
 
 import com.ubergeek42.weechat.relay.protocol.Hashtable
 import com.ubergeek42.weechat.relay.protocol.Hdata
+import com.ubergeek42.weechat.relay.protocol.HdataCursor
 import com.ubergeek42.weechat.relay.protocol.HdataEntry
 import com.ubergeek42.weechat.relay.protocol.RelayObject
 import java.lang.NumberFormatException
@@ -29,6 +30,12 @@ inline fun HdataEntry.getStringArrayOrNull(id: String): Array<String>? = getItem
     }
 }
 
+// columns that might be missing have the index of -1
+inline fun HdataCursor.getStringOrNull(column: Int): String? =
+        if (column < 0) null else getString(column)
+inline fun HdataCursor.getByteOrNull(column: Int): Byte? =
+        if (column < 0) null else getChar(column).code.toByte()
+
 
 inline fun Hdata.forEach(block: (HdataEntry) -> Unit) {
     for (i in 0 until count) {
@@ -42,6 +49,14 @@ inline fun Hdata.forEachReversed(block: (HdataEntry) -> Unit) {
     }
 }
 
+// walks the rows in place, without creating HdataEntry objects. the spec is made once per hdata
+// and reads the values of the current row of the cursor, so it must not be used after the block
+inline fun <S> Hdata.forEachRow(makeSpec: (HdataCursor) -> S, block: (S) -> Unit) {
+    val cursor = cursor()
+    val spec = makeSpec(cursor)
+    while (cursor.next()) block(spec)
+}
+
 inline fun Hdata.forEachBufferSpec(block: (spec: BufferSpec) -> Unit) {
     forEach { entry ->
         val spec = BufferSpec(entry)
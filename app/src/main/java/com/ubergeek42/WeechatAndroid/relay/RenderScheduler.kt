@@ -0,0 +1,67 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+package com.ubergeek42.WeechatAndroid.relay
+
+import androidx.annotation.AnyThread
+import com.ubergeek42.WeechatAndroid.utils.makeBackgroundThreadPool
+import java.util.WeakHashMap
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+
+private const val LINES_PER_TASK = 32
+
+
+// renders lines into SpannableCache on a few background threads, so that neither the relay
+// thread nor the main thread have to. a job is split into small tasks that are executed in
+// parallel. tasks of newer jobs go first; within a job, the lines at the bottom go first, as that
+// is where the chat is opened. a job is dropped if the style changes before it is done, or if a
+// newer job is scheduled with the same key, e.g. for the same lines of a buffer
+object RenderScheduler {
+    private class Job(val sequence: Int, val style: Int) {
+        @Volatile var cancelled = false
+        val isStale get() = cancelled || style != SpannableCache.style
+    }
+
+    private class Task(
+        private val job: Job,
+        private val lines: List<Line>,
+        private val distanceFromBottom: Int,
+    ) : Runnable, Comparable<Task> {
+        override fun run() {
+            if (job.isStale) return
+            for (i in lines.indices.reversed()) {
+                if (job.isStale) return
+                lines[i].ensureSpannable()
+            }
+        }
+
+        override fun compareTo(other: Task) = if (job.sequence != other.job.sequence)
+                other.job.sequence.compareTo(job.sequence) else
+                distanceFromBottom.compareTo(other.distanceFromBottom)
+    }
+
+    private val sequence = AtomicInteger()
+    private val jobs = WeakHashMap<Any, Job>()             // the last job for each key
+
+    private val executor = makeBackgroundThreadPool("Render", PriorityBlockingQueue())
+
+    // the lines are rendered from the last to the first. key, if not null, identifies the job, and
+    // cancels any previous job with the same key that is not done yet
+    @AnyThread fun render(key: Any?, lines: List<Line>) {
+        if (lines.isEmpty()) return
+        val job = Job(sequence.incrementAndGet(), SpannableCache.style)
+
+        if (key != null) synchronized(jobs) {
+            jobs.put(key, job)?.cancelled = true
+        }
+
+        var end = lines.size
+        var distance = 0
+        while (end > 0) {
+            val start = (end - LINES_PER_TASK).coerceAtLeast(0)
+            executor.execute(Task(job, lines.subList(start, end), distance++))
+            end = start
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+package com.ubergeek42.WeechatAndroid.relay
+
+import androidx.annotation.WorkerThread
+import com.ubergeek42.WeechatAndroid.search.GlobalSearch
+import com.ubergeek42.WeechatAndroid.upload.applicationContext
+import com.ubergeek42.weechat.TrigramIndex
+
+
+// the index of the lines of a buffer for the search, by their positions in LineStore, see
+// TrigramIndex. as it takes some memory, the index is only kept while the buffer is being
+// searched. it is updated by Lines, which are synchronized by Buffer, and is read on the main
+// thread or on the search threads, so it is synchronized separately.
+//
+// the lines that the store has when the index is enabled are indexed on a search thread, without
+// holding the lock. the lines that are added or removed meanwhile are remembered and applied to
+// the index once it is built. until then, there's no reader, and the lines are searched one by one
+class SearchIndex {
+    private var index: TrigramIndex? = null             // null while disabled or being built
+    private var build: Build? = null
+    private var generation = 0          // changes whenever positions start anew, or index is dropped
+
+    // the changes made to the lines while the index is being built
+    private class Build(val lines: LineStore.Snapshot) {
+        val added = ArrayList<Pair<Int, Line>>()
+        var removedBefore = 0
+        var cleared = false
+    }
+
+    @Synchronized fun enable(store: LineStore) {
+        if (index != null || build != null) return
+        val build = Build(store.snapshot()).also { this.build = it }
+        GlobalSearch.executor.execute { build(build) }
+    }
+
+    @Synchronized fun disable() {
+        index = null
+        build = null
+        generation++
+    }
+
+    @Synchronized fun add(position: Int, line: Line) {
+        if (line is SquiggleLine) return
+        index?.add(position, line.ircLikeString)
+        build?.added?.add(position to line)
+    }
+
+    @Synchronized fun removeBefore(position: Int) {
+        index?.removeBefore(position)
+        build?.let { it.removedBefore = maxOf(it.removedBefore, position) }
+    }
+
+    @Synchronized fun clear() {
+        index?.clear()
+        build?.apply { added.clear(); removedBefore = 0; cleared = true }
+        generation++
+    }
+
+    @WorkerThread private fun build(build: Build) {
+        val index = TrigramIndex(applicationContext.resources.configuration.locale)
+        val lines = build.lines
+        for (i in lines.indices) {
+            if (this.build !== build) return
+            if (!lines.isSquiggle(i)) index.add(lines.getPosition(i), lines[i].ircLikeString)
+        }
+
+        synchronized(this) {
+            if (this.build !== build) return
+            if (build.cleared) index.clear()
+            build.added.forEach { (position, line) -> index.add(position, line.ircLikeString) }
+            index.removeBefore(build.removedBefore)
+            this.index = index
+            this.build = null
+        }
+    }
+
+    // the index as it is now, for LinesSnapshot. it stops finding anything when positions start
+    // anew, as the positions would then refer to different lines
+    @Synchronized fun getReader() = if (index != null) Reader(generation) else null
+
+    inner class Reader internal constructor(private val generation: Int) {
+        // returns positions of the lines that might match, in ascending order; see TrigramIndex
+        fun find(text: String, caseSensitive: Boolean, regex: Boolean): IntArray? {
+            synchronized(this@SearchIndex) {
+                if (generation != this@SearchIndex.generation) return null
+                return index?.find(text, caseSensitive, regex)
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+package com.ubergeek42.WeechatAndroid.relay
+
+import android.text.Spannable
+import androidx.annotation.AnyThread
+import androidx.annotation.MainThread
+
+
+// rough sizes of things, in bytes. these only need to be good enough to keep the cache bounded
+private const val ENTRY_OVERHEAD = 160      // map entry, boxed key, Rendered, the spannable object
+private const val SPAN_OVERHEAD = 48        // a span object and its record in the spannable
+
+private const val MAX_BUDGET = 16L * 1024 * 1024
+
+
+// rendered lines of all buffers, keyed by line pointer. lines are rendered when they are displayed
+// or are about to be, and are kept until lines that were used more recently push them out.
+// entries rendered with a different style, that is, before the preferences that affect rendering
+// last changed, are never returned. this includes the lines that were still being rendered while
+// the preferences were changing.
+//
+// pointers don't identify lines for good: weechat reuses the memory of the lines it frees, and
+// pointers repeat across weechat restarts, so lines from LineCache can share pointers with new
+// lines. so entries also keep what they were rendered from, and are only returned for lines with
+// the same timestamp, prefix and message
+object SpannableCache {
+    class Rendered(
+        line: Line,
+        val spannable: Spannable,
+        val prefixString: String,
+        val messageString: String,
+        internal val style: Int,
+    ) {
+        // the raw strings are shared with LineStore, so they aren't counted
+        private val timestamp = line.timestamp
+        private val rawPrefix = line.rawPrefix
+        private val rawMessage = line.rawMessage
+
+        internal val bytes = ENTRY_OVERHEAD +
+                2 * (spannable.length + prefixString.length + messageString.length) +
+                SPAN_OVERHEAD * spannable.getSpans(0, spannable.length, Any::class.java).size
+
+        internal fun isOf(line: Line) = timestamp == line.timestamp &&
+                rawPrefix == line.rawPrefix && rawMessage == line.rawMessage
+
+        internal fun isOf(timestamp: Long) = this.timestamp == timestamp
+    }
+
+    private val budget = (Runtime.getRuntime().maxMemory() / 16).coerceAtMost(MAX_BUDGET)
+    private val entries = LinkedHashMap<Long, Rendered>(256, 0.75f, true)     // in access order
+    private var bytes = 0L
+
+    // changes whenever the preferences that affect rendering change
+    @Volatile var style = 0
+        private set
+
+    var hits = 0L
+        @Synchronized get
+        private set
+    var misses = 0L
+        @Synchronized get
+        private set
+    var evictions = 0L
+        @Synchronized get
+        private set
+
+    @AnyThread @Synchronized fun get(line: Line): Rendered? {
+        val rendered = entries[line.pointer]
+        if (rendered != null && rendered.style == style && rendered.isOf(line)) {
+            hits++
+            return rendered
+        }
+        misses++
+        return null
+    }
+
+    // same as get(), but not counted as a hit or a miss
+    @AnyThread @Synchronized fun peek(line: Line): Rendered? {
+        val rendered = entries[line.pointer] ?: return null
+        return if (rendered.style == style && rendered.isOf(line)) rendered else null
+    }
+
+    @AnyThread @Synchronized fun put(line: Line, rendered: Rendered) {
+        if (rendered.style != style) return
+        entries.put(line.pointer, rendered)?.let { bytes -= it.bytes }
+        bytes += rendered.bytes
+
+        val iterator = entries.values.iterator()
+        while (bytes > budget && iterator.hasNext()) {
+            bytes -= iterator.next().bytes
+            iterator.remove()
+            evictions++
+        }
+    }
+
+    // to be called when a line is removed from its buffer. the entry of another line that has the
+    // same pointer is kept
+    @AnyThread @Synchronized fun remove(pointer: Long, timestamp: Long) {
+        val rendered = entries[pointer] ?: return
+        if (rendered.isOf(timestamp)) {
+            entries.remove(pointer)
+            bytes -= rendered.bytes
+        }
+    }
+
+    @MainThread @Synchronized fun invalidate() {
+        style++
+        entries.clear()
+        bytes = 0
+    }
+
+    @Synchronized override fun toString() = "SpannableCache(entries=${entries.size}, " +
+            "bytes=$bytes/$budget, hits=$hits, misses=$misses, evictions=$evictions)"
+}
@@ -7,7 +7,9 @@ import com.ubergeek42.WeechatAndroid.service.P
 import com.ubergeek42.weechat.relay.connection.Handshake
 import com.ubergeek42.weechat.relay.connection.find
 import com.ubergeek42.weechat.relay.protocol.Hashtable
+import com.ubergeek42.weechat.relay.protocol.HdataCursor
 import com.ubergeek42.weechat.relay.protocol.HdataEntry
+import com.ubergeek42.weechat.relay.protocol.RelayObject
 import kotlin.jvm.JvmInline
 
 
@@ -151,26 +153,45 @@ class HotlistSpec(entry: HdataEntry) {
 ////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
-@JvmInline value class LineSpec(val entry: HdataEntry) {
-    inline val bufferPointer: Long get() = entry.getPointerLong("buffer")
+// reads the current row of the cursor, see Hdata.forEachRow
+class LineSpec(private val row: HdataCursor) {
+    private val bufferColumn = row.columnIndex("buffer")
+    private val dateColumn = row.columnIndex("date")
+    private val prefixColumn = row.columnIndex("prefix")
+    private val messageColumn = row.columnIndex("message")
+    private val displayedColumn = row.columnIndex("displayed")
+    private val highlightColumn = row.columnIndex("highlight")
+    private val notifyLevelColumn = row.columnIndex("notify_level")
+    private val tagsColumn = row.columnIndex("tags_array")
 
-    inline val pointer: Long get() = entry.pointerLong
-    inline val timestamp: Long get() = entry.getItem("date").asTime().time
-    inline val prefix: String? get() = entry.getStringOrNull("prefix")
-    inline val message: String? get() = entry.getStringOrNull("message")
+    val bufferPointer: Long get() = row.getPointer(bufferColumn)
 
-    inline val visible: Boolean get() = entry.getChar("displayed") == 1.toChar()
-    inline val highlight: Boolean get() = entry.getChar("highlight") == 1.toChar()
+    val pointer: Long get() = row.pointer()
+    val timestamp: Long get() = row.getTime(dateColumn) * 1000
+    val prefix: String? get() = row.getStringOrNull(prefixColumn)
+    val message: String? get() = row.getStringOrNull(messageColumn)
 
-    inline val notifyLevel: NotifyLevel? get() = NotifyLevel.fromByte(
-            entry.getByteOrNull("notify_level"))
+    val visible: Boolean get() = row.getChar(displayedColumn) == 1.toChar()
+    val highlight: Boolean get() = row.getChar(highlightColumn) == 1.toChar()
 
-    inline val tags: Array<String>? get() = entry.getStringArrayOrNull("tags_array")
+    val notifyLevel: NotifyLevel? get() = NotifyLevel.fromByte(
+            row.getByteOrNull(notifyLevelColumn))
+
+    val tags: Array<String>? get() =
+            if (tagsColumn >= 0 && row.getType(tagsColumn) == RelayObject.WType.ARR)
+                row.getStringArray(tagsColumn) else null
 
     companion object {
         fun makeLastLinesRequest(id: String, pointer: Long, numberOfLines: Int) =
                 "($id) hdata buffer:${pointer.as0x}/own_lines/last_line(-$numberOfLines)/data " +
                 "date,displayed,prefix,message,highlight,notify,tags_array"
+
+        // only the pointers, the dates and the visibility, to tell which lines are already present.
+        // the dates guard against pointers reused by a restarted weechat, and the visibility
+        // changes when the lines are filtered. note that requesting no keys would return all keys
+        fun makeLastLinePointersRequest(id: String, pointer: Long, numberOfLines: Int) =
+                "($id) hdata buffer:${pointer.as0x}/own_lines/last_line(-$numberOfLines)/data " +
+                "date,displayed"
     }
 
     fun toLine(): Line {
@@ -329,16 +350,23 @@ internal const val REMOVE = '-'
 internal const val UPDATE = '*'
 
 
-@JvmInline value class NickSpec(val entry: HdataEntry) {
-    inline val bufferPointer: Long get() = entry.getPointerLong(0)
+// reads the current row of the cursor, see Hdata.forEachRow
+class NickSpec(private val row: HdataCursor) {
+    private val prefixColumn = row.columnIndex("prefix")
+    private val nameColumn = row.columnIndex("name")
+    private val colorColumn = row.columnIndex("color")
+    private val visibleColumn = row.columnIndex("visible")
+    private val groupColumn = row.columnIndex("group")
 
-    inline val pointer: Long get() = entry.pointerLong
-    inline val prefix: String? get() = entry.getStringOrNull("prefix")
-    inline val name: String get() = entry.getString("name")
-    inline val color: String? get() = entry.getStringOrNull("color")
+    val bufferPointer: Long get() = row.pointer(0)
 
-    inline val visible: Boolean get() = entry.getChar("visible") == 1.toChar()
-    inline val group: Boolean get() = entry.getChar("group") == 1.toChar()
+    val pointer: Long get() = row.pointer()
+    val prefix: String? get() = row.getStringOrNull(prefixColumn)
+    val name: String get() = row.getString(nameColumn)
+    val color: String? get() = row.getStringOrNull(colorColumn)
+
+    val visible: Boolean get() = row.getChar(visibleColumn) == 1.toChar()
+    val group: Boolean get() = row.getChar(groupColumn) == 1.toChar()
 
     fun toNick(): Nick {
         var prefix = this.prefix
@@ -354,6 +382,8 @@ internal const val UPDATE = '*'
 }
 
 
-@JvmInline value class NickDiffSpec(val entry: HdataEntry) {
-    inline val command: Char get() = entry.getChar("_diff")
+class NickDiffSpec(private val row: HdataCursor) {
+    private val diffColumn = row.columnIndex("_diff")
+
+    val command: Char get() = row.getChar(diffColumn)
 }
@@ -0,0 +1,89 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+package com.ubergeek42.WeechatAndroid.search
+
+import androidx.annotation.MainThread
+import androidx.annotation.WorkerThread
+import com.ubergeek42.WeechatAndroid.relay.Buffer
+import com.ubergeek42.WeechatAndroid.relay.BufferList
+import com.ubergeek42.WeechatAndroid.relay.HeaderLine
+import com.ubergeek42.WeechatAndroid.relay.Line
+import com.ubergeek42.WeechatAndroid.upload.main
+import com.ubergeek42.WeechatAndroid.utils.makeBackgroundThreadPool
+import java.util.concurrent.LinkedBlockingQueue
+
+
+private const val SEARCH_KEY = "global-search"
+
+private const val MAX_LINES_PER_BUFFER = 100
+
+
+// searches the lines of all buffers that have them, a few buffers at a time. the buffers are
+// indexed for as long as this is open, see SearchIndex, so that changing the search text only
+// looks at the lines that the index finds; the lines are indexed on the search threads, too.
+// results are sent as the buffers are searched. they are grouped by buffer, and the buffers with
+// the most recent matches go first. a new search cancels the previous one, and the results of the
+// previous one are never sent after that
+class GlobalSearch(private val listener: Listener) {
+    class Result(
+        val buffer: Buffer,
+        val lines: List<Line>,      // the most recent matches, newest first
+    )
+
+    fun interface Listener {
+        fun onResultsChanged(results: List<Result>, done: Boolean)
+    }
+
+    private class Query(val matcher: Search.Matcher, var remaining: Int) {
+        @Volatile var cancelled = false
+        val results = ArrayList<Result>()
+    }
+
+    private var query: Query? = null
+    private val indexedBuffers = HashSet<Buffer>()
+
+    @MainThread fun search(matcher: Search.Matcher) {
+        query?.cancelled = true
+
+        val buffers = BufferList.buffers.filter { it.linesAreReady() }
+        val query = Query(matcher, buffers.size).also { query = it }
+        if (buffers.isEmpty()) listener.onResultsChanged(emptyList(), done = true)
+
+        for (buffer in buffers) {
+            if (indexedBuffers.add(buffer)) buffer.addSearchKey(SEARCH_KEY)
+            executor.execute { search(query, buffer) }
+        }
+    }
+
+    @MainThread fun close() {
+        query?.cancelled = true
+        query = null
+        indexedBuffers.forEach { it.removeSearchKey(SEARCH_KEY) }
+        indexedBuffers.clear()
+    }
+
+    @WorkerThread private fun search(query: Query, buffer: Buffer) {
+        val lines = if (query.cancelled) emptyList() else query.matcher
+                .findMatchingLines(buffer.getLinesSnapshot())
+                .filter { it !is HeaderLine }
+                .takeLast(MAX_LINES_PER_BUFFER)
+                .asReversed()
+
+        main {
+            if (query.cancelled) return@main
+            query.remaining--
+            if (lines.isNotEmpty()) {
+                val result = Result(buffer, lines)
+                val index = query.results.indexOfFirst { it.lines[0].timestamp < lines[0].timestamp }
+                query.results.add(if (index >= 0) index else query.results.size, result)
+            }
+            if (lines.isNotEmpty() || query.remaining == 0)
+                    listener.onResultsChanged(query.results.toList(), done = query.remaining == 0)
+        }
+    }
+
+    companion object {
+        // also builds the search indexes of the buffers, see SearchIndex
+        internal val executor = makeBackgroundThreadPool("Search", LinkedBlockingQueue())
+    }
+}
@@ -2,8 +2,12 @@ package com.ubergeek42.WeechatAndroid.search
 
 import com.ubergeek42.WeechatAndroid.relay.Line
 import com.ubergeek42.WeechatAndroid.relay.HeaderLine
+import com.ubergeek42.WeechatAndroid.relay.LinesDelta
+import com.ubergeek42.WeechatAndroid.relay.LinesSnapshot
+import com.ubergeek42.WeechatAndroid.relay.SearchIndex
 import com.ubergeek42.WeechatAndroid.search.Search.Matcher
 import com.ubergeek42.WeechatAndroid.upload.applicationContext
+import com.ubergeek42.weechat.makeTextMatcher
 import java.util.regex.PatternSyntaxException
 
 
@@ -14,21 +18,50 @@ class Search(
     private val matcher: Matcher,
     private val searchListener: Listener,
 ) {
+    private var lastLines: List<Line>? = null
     private var lastMatches: MatchList? = null
 
-    fun onLinesChanged(lines: List<Line>) {
-        val matches = lines
-                .filter { it::class == Line::class || it is HeaderLine }
-                .filter { matcher.matches(it) }
-                .map { it.pointer }
-                .toList()
+    // if the lines have changed from the ones searched last time by a known delta,
+    // only the lines that were removed or added are looked at. otherwise, if the lines are
+    // indexed, only the lines that the index has found are looked at
+    fun onLinesChanged(lines: List<Line>, delta: LinesDelta? = null) {
+        val lastLines = lastLines
+        val lastMatches = lastMatches
+        this.lastLines = lines
+
+        val matches = if (delta != null && delta.old === lastLines && lastMatches != null) {
+            getMatchesUsingDelta(lines, lastMatches, delta) ?: return
+        } else {
+            matcher.findMatchingLines(lines).map { it.pointer }
+        }
 
         if (lastMatches != matches) {
-            lastMatches = matches
+            this.lastMatches = matches
             searchListener.onSearchResultsChanged(matches)
         }
     }
 
+    private fun lineMatches(line: Line) = matcher.matchesLine(line)
+
+    // the header is the first line, and the removed lines are the ones that follow it.
+    // returns null if the matches haven't changed
+    private fun getMatchesUsingDelta(lines: List<Line>, lastMatches: MatchList,
+                                     delta: LinesDelta): MatchList? {
+        val removedMatchCount = (1..delta.removed).count { lineMatches(delta.old[it]) }
+        val addedMatches = (lines.size - delta.added until lines.size)
+                .filter { lineMatches(lines[it]) }
+                .map { lines[it].pointer }
+
+        if (removedMatchCount == 0 && addedMatches.isEmpty()) return null
+
+        val headerMatchCount = if (lastMatches.firstOrNull() == lines[0].pointer) 1 else 0
+        return ArrayList<Long>(lastMatches.size - removedMatchCount + addedMatches.size).apply {
+            addAll(lastMatches.subList(0, headerMatchCount))
+            addAll(lastMatches.subList(headerMatchCount + removedMatchCount, lastMatches.size))
+            addAll(addedMatches)
+        }
+    }
+
     fun interface Listener {
         fun onSearchResultsChanged(matches: MatchList)
     }
@@ -36,6 +69,9 @@ class Search(
     fun interface Matcher {
         fun matches(line: Line): Boolean
 
+        // positions of the lines that might match, or null if the index can't tell
+        fun findPositions(index: SearchIndex.Reader): IntArray? = null
+
         companion object {
             @Throws(PatternSyntaxException::class)
             @JvmStatic fun fromString(text: String, config: SearchConfig): Matcher {
@@ -50,25 +86,14 @@ class Search(
                         SearchConfig.Source.PrefixAndMessage -> Line::ircLikeString
                     }
 
-                    val sourceMatchesSearch: ((String) -> Boolean) = if (regex) {
-                        val flags = if (caseSensitive) emptySet() else setOf(RegexOption.IGNORE_CASE)
-                        text.toRegex(flags)::containsMatchIn
-                    } else {
-                        if (caseSensitive) {
-                            { string -> string.contains(text) }
-                        } else {
-                            val locale = applicationContext.resources.configuration.locale;
-                            val textUpper = text.uppercase(locale)
-                            val textLower = text.lowercase(locale);
-
-                            { string ->
-                                string.uppercase(locale).contains(textUpper) ||
-                                        string.lowercase(locale).contains(textLower)
-                            }
-                        }
-                    }
+                    val sourceMatchesSearch = makeTextMatcher(text, caseSensitive, regex,
+                            applicationContext.resources.configuration.locale)
 
-                    Matcher { line -> sourceMatchesSearch(getSource(line)) }
+                    object : Matcher {
+                        override fun matches(line: Line) = sourceMatchesSearch(getSource(line))
+                        override fun findPositions(index: SearchIndex.Reader) =
+                                index.find(text, caseSensitive, regex)
+                    }
                 }
             }
         }
@@ -76,6 +101,26 @@ class Search(
 }
 
 
+private fun Matcher.matchesLine(line: Line) =
+        (line::class == Line::class || line is HeaderLine) && matches(line)
+
+
+// the lines that match, in order. if the lines are indexed, only the lines that the index has found
+// are looked at. the header is the first line, and it is not indexed
+fun Matcher.findMatchingLines(lines: List<Line>): List<Line> {
+    if (lines !is LinesSnapshot) return lines.filter(::matchesLine)
+    val positions = lines.searchIndex?.let(::findPositions) ?: return lines.filter(::matchesLine)
+
+    return ArrayList<Line>().apply {
+        if (matchesLine(lines.header)) add(lines.header)
+        for (position in positions) {
+            val index = lines.indexOfPosition(position)
+            if (index >= 0) lines[index].let { if (matchesLine(it)) add(it) }
+        }
+    }
+}
+
+
 data class SearchConfig(
     @JvmField val caseSensitive: Boolean,
     @JvmField val regex: Boolean,
@@ -0,0 +1,54 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+
+package com.ubergeek42.WeechatAndroid.service
+
+import androidx.annotation.AnyThread
+import com.ubergeek42.WeechatAndroid.relay.Buffer
+import com.ubergeek42.WeechatAndroid.relay.BufferList
+import com.ubergeek42.WeechatAndroid.relay.as0x
+import com.ubergeek42.WeechatAndroid.utils.Assert
+import com.ubergeek42.cats.Kitty
+import com.ubergeek42.cats.Root
+import com.ubergeek42.weechat.relay.connection.RelayConnection
+
+
+// sends commands straight to the current connection, which gathers them and writes them on its
+// writer thread, see RelayConnection.sendMessage. the connection is set by RelayService; commands
+// sent while there's none are dropped, as they would be by a closed connection
+object CommandChannel {
+    @Root private val kitty: Kitty = Kitty.make()
+
+    @Volatile var connection: RelayConnection? = null
+
+    // the callback is run on the writer thread once the command has been written
+    @JvmStatic @JvmOverloads @AnyThread fun send(message: String, onWritten: (() -> Unit)? = null) {
+        Assert.assertThat(message.endsWith("\n")).isFalse()
+        val connection = connection
+        if (connection == null) {
+            kitty.warn("no connection, dropping: %s", message)
+            return
+        }
+        connection.sendMessage(message, onWritten?.let { Runnable(it) })
+    }
+
+    // sends a command with an id, and passes the response to the handler
+    @AnyThread fun request(command: String, handler: BufferList.HdataHandler): String {
+        val id = BufferList.addOneOffMessageHandler(handler)
+        send("($id) $command")
+        return id
+    }
+
+    @AnyThread fun sendInput(buffer: Buffer, input: String?) {
+        if (input.isNullOrEmpty()) return
+
+        P.addSentMessage(input)
+
+        input.lineSequence().filter(String::isNotEmpty).forEach { line ->
+            send("input ${buffer.pointer.as0x} $line")
+        }
+    }
+
+    // the time it took the commands to get written, see RelayConnection.getWriteLatency
+    val writeLatency get() = connection?.writeLatency
+}
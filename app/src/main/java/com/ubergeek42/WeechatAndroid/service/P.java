@@ -231,6 +231,7 @@ public class P implements SharedPreferences.OnSharedPreferenceChangeListener{
     static String wsPath;
     static String pass;
     static String connectionType;
+    static boolean nioTransport;
     static String sshHost;
     static String sshUser;
     static SSHConnection.AuthenticationMethod sshAuthenticationMethod;
@@ -262,6 +263,7 @@ public class P implements SharedPreferences.OnSharedPreferenceChangeListener{
         pinRequired = p.getBoolean(PREF_SSL_PIN_REQUIRED, PREF_SSL_PIN_REQUIRED_D);
 
         connectionType = p.getString(PREF_CONNECTION_TYPE, PREF_CONNECTION_TYPE_D);
+        nioTransport = p.getBoolean(PREF_NIO_TRANSPORT, PREF_NIO_TRANSPORT_D);
         sshHost = p.getString(PREF_SSH_HOST, PREF_SSH_HOST_D);
         sshPort = Integer.valueOf(getString(PREF_SSH_PORT, PREF_SSH_PORT_D));
         sshUser = p.getString(PREF_SSH_USER, PREF_SSH_USER_D);
@@ -461,7 +463,7 @@ public class P implements SharedPreferences.OnSharedPreferenceChangeListener{
     private static final int PROTOCOL_ID = 19;
 
     @AnyThread @Cat public static void saveStuff() {
-        for (Buffer buffer : BufferList.buffers) saveLastReadLine(buffer);
+        for (Buffer buffer : BufferList.getBuffers()) saveLastReadLine(buffer);
         String data = Utils.serialize(new Object[]{openBuffers, bufferToLastReadLine, sentMessages, history});
         p.edit().putString(PREF_DATA, data).putInt(PREF_PROTOCOL_ID, PROTOCOL_ID).apply();
     }
@@ -70,7 +70,7 @@ class PingingPenguin(val relayService: RelayService) {
             scheduleTick(Tick.Regular(), lastMessageReceivedAt + P.pingIdleTime)
         } else if (lastTick is Tick.Regular) {
             kitty.info("Last message was received too long ago, sending a ping")
-            Events.SendMessageEvent.fire("ping")
+            CommandChannel.send("ping")
             scheduleTick(Tick.LastMessageTooOld(), now() + P.pingTimeout)
         } else {
             kitty.info("No messages received since ping was sent, disconnecting")
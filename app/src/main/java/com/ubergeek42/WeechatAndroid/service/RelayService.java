@@ -30,6 +30,7 @@ import androidx.annotation.WorkerThread;
 
 import com.ubergeek42.WeechatAndroid.R;
 import com.ubergeek42.WeechatAndroid.Weechat;
+import com.ubergeek42.WeechatAndroid.notifications.Hotlist;
 import com.ubergeek42.WeechatAndroid.notifications.NotificatorKt;
 import com.ubergeek42.WeechatAndroid.relay.BufferList;
 import com.ubergeek42.WeechatAndroid.utils.Network;
@@ -40,22 +41,20 @@ import com.ubergeek42.cats.Root;
 import com.ubergeek42.weechat.relay.RelayMessage;
 import com.ubergeek42.weechat.relay.connection.IConnection;
 import com.ubergeek42.weechat.relay.connection.IObserver;
+import com.ubergeek42.weechat.relay.connection.NioConnection;
 import com.ubergeek42.weechat.relay.connection.RelayConnection;
 import com.ubergeek42.weechat.relay.connection.SSHConnection;
 import com.ubergeek42.weechat.relay.connection.SimpleConnection;
 import com.ubergeek42.weechat.relay.connection.Utils;
 import com.ubergeek42.weechat.relay.connection.WebSocketConnection;
-import com.ubergeek42.weechat.relay.protocol.RelayObject;
 
 import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
 
 import java.nio.channels.UnresolvedAddressException;
 import java.util.EnumSet;
 
 import static com.ubergeek42.WeechatAndroid.notifications.NotificatorKt.showMainNotification;
 import static com.ubergeek42.WeechatAndroid.service.Events.ExceptionEvent;
-import static com.ubergeek42.WeechatAndroid.service.Events.SendMessageEvent;
 import static com.ubergeek42.WeechatAndroid.service.Events.StateChangedEvent;
 import static com.ubergeek42.WeechatAndroid.utils.Assert.assertThat;
 import static com.ubergeek42.WeechatAndroid.utils.Constants.*;
@@ -104,11 +103,10 @@ public class RelayService extends Service implements IObserver {
         });
 
         pingingPenguin = new PingingPenguin(this);
-        EventBus.getDefault().register(this);
     }
 
     @MainThread @Override @Cat public void onDestroy() {
-        EventBus.getDefault().unregister(this);
+        CommandChannel.INSTANCE.setConnection(null);
         P.saveStuff();
         Network.get().unregister(this);
         doge.post(() -> doge.getLooper().quit());
@@ -118,11 +116,6 @@ public class RelayService extends Service implements IObserver {
         return null;
     }
 
-    // todo synchronization?
-    @Subscribe @Cat public void onEvent(SendMessageEvent event) {
-        connection.sendMessage(event.message);
-    }
-
     final public static String ACTION_START = "com.ubergeek42.WeechatAndroid.START";
     final public static String ACTION_STOP = "com.ubergeek42.WeechatAndroid.STOP";
 
@@ -237,10 +230,10 @@ public class RelayService extends Service implements IObserver {
                         P.sshAuthenticationMethod, P.sshPassword, P.sshSerializedKey,
                         P.sshServerKeyVerifier
                 ); break;
-                case PREF_TYPE_SSL: conn = new SimpleConnection(
-                        P.host, P.port,
-                        SSLHandler.getInstance(this).makeSslAxolotl()
-                ); break;
+                case PREF_TYPE_SSL: conn = P.nioTransport ?
+                        new NioConnection(P.host, P.port, SSLHandler.getInstance(this).makeSslAxolotl()) :
+                        new SimpleConnection(P.host, P.port, SSLHandler.getInstance(this).makeSslAxolotl());
+                        break;
                 case PREF_TYPE_WEBSOCKET: conn = new WebSocketConnection(
                         P.host, P.port, P.wsPath, null
                 ); break;
@@ -248,7 +241,10 @@ public class RelayService extends Service implements IObserver {
                         P.host, P.port, P.wsPath,
                         SSLHandler.getInstance(this).makeSslAxolotl()
                 ); break;
-                default: conn = new SimpleConnection(P.host, P.port, null); break;
+                default: conn = P.nioTransport ?
+                        new NioConnection(P.host, P.port, null) :
+                        new SimpleConnection(P.host, P.port, null);
+                        break;
             }
         } catch (Exception e) {
             kitty.error("connect(): exception while creating connection", e);
@@ -257,6 +253,7 @@ public class RelayService extends Service implements IObserver {
         }
 
         connection = new RelayConnection(conn, P.handshakeMethod, P.pass, this);
+        CommandChannel.INSTANCE.setConnection(connection);
         connection.connect();
         return TRY.POSSIBLE;
     }
@@ -313,6 +310,8 @@ public class RelayService extends Service implements IObserver {
 
     //sync so that goodbye() never happens while state=auth but hello didn't run yet
     @AnyThread @Cat private void goodbye() {
+        kitty.info("command write latency: %s", connection.getWriteLatency());
+        Hotlist.INSTANCE.logUpdateStatistics();
         SyncAlarmReceiver.stop(this);
         BufferList.onServiceStopped();
         if (P.pingEnabled) pingingPenguin.stopPinging();
@@ -340,15 +339,10 @@ public class RelayService extends Service implements IObserver {
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
-    private final static RelayObject[] NULL = {null};
-
     @WorkerThread @Override public void onMessage(RelayMessage message) {
         kitty.trace("→ onMessage(%s)", message.getID());
         if (state.contains(STATE.STOPPED)) return;
         pingingPenguin.onMessage();
-        RelayObject[] objects = message.getObjects() == null ? NULL : message.getObjects();
-        String id = message.getID();
-        for (RelayObject object : objects)
-            BufferList.handleMessage(object, id);
+        BufferList.handleMessage(message);
     }
 }
@@ -110,7 +110,7 @@ class SSLHandler private constructor(private val userKeystoreFile: File) {
         val sslContext = SSLContext.getInstance("TLS")
         val customTrustManager = CustomTrustManager(userTrustManager)
         sslContext.init(getKeyManagers(), arrayOf(customTrustManager), null)
-        return SslAxolotl(sslContext.socketFactory, customTrustManager, hostnameVerifier)
+        return SslAxolotl(sslContext, customTrustManager, hostnameVerifier)
     }
 
     companion object {
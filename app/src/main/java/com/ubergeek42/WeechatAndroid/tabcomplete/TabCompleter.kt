@@ -3,8 +3,7 @@ package com.ubergeek42.WeechatAndroid.tabcomplete
 import android.widget.EditText
 import androidx.lifecycle.Lifecycle
 import com.ubergeek42.WeechatAndroid.relay.Buffer
-import com.ubergeek42.WeechatAndroid.relay.BufferList
-import com.ubergeek42.WeechatAndroid.service.Events
+import com.ubergeek42.WeechatAndroid.service.CommandChannel
 import com.ubergeek42.WeechatAndroid.upload.suppress
 import com.ubergeek42.cats.Kitty
 import com.ubergeek42.cats.Root
@@ -59,9 +58,7 @@ abstract class TabCompleter(val input: EditText) {
 }
 
 suspend fun queryWeechat(message: String) = suspendCancellableCoroutine<RelayObject> {
-    val handler = BufferList.HdataHandler { obj, _ -> it.resume(obj) }
-    val id = BufferList.addOneOffMessageHandler(handler)
-    Events.SendMessageEvent.fire("($id) $message")
+    CommandChannel.request(message) { obj, _ -> it.resume(obj) }
 }
 
 
@@ -18,6 +18,7 @@ public class Constants {
     final static public String PREF_TYPE_WEBSOCKET = "websocket";
     final static public String PREF_TYPE_WEBSOCKET_SSL = "websocket-ssl";
     final static private String PREF_TYPE_PLAIN = "plain"; final public static String PREF_CONNECTION_TYPE_D = PREF_TYPE_PLAIN;
+    final static public String PREF_NIO_TRANSPORT = "nio_transport"; final static public boolean PREF_NIO_TRANSPORT_D = false;
 
     // ssl group
     final static public String PREF_SSL_GROUP = "ssl_group";
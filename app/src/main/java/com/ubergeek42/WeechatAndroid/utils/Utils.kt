@@ -5,6 +5,7 @@ package com.ubergeek42.WeechatAndroid.utils
 import android.content.Context
 import android.content.Intent
 import android.net.Uri
+import android.os.Process
 import android.text.Editable
 import android.text.Spannable
 import android.text.SpannableString
@@ -18,11 +19,16 @@ import android.view.View
 import android.view.animation.Animation
 import android.widget.EditText
 import com.bumptech.glide.load.engine.GlideException
+import com.ubergeek42.weechat.relay.connection.Utils.POOL_THREADS
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.contracts.ExperimentalContracts
 import kotlin.contracts.InvocationKind
 import kotlin.contracts.contract
@@ -237,6 +243,23 @@ inline fun <A, B, C, D, R> let(a: A?, b: B?, c: C?, d: D?, block: (A, B, C, D) -
 }
 
 
+////////////////////////////////////////////////////////////////////////////////////////////////////
+//////////////////////////////////////////////////////////////////////////////////////////// threads
+////////////////////////////////////////////////////////////////////////////////////////////////////
+
+// a pool of POOL_THREADS threads of background priority, named name-1, name-2 and so on. the
+// threads go away after a few idle seconds
+fun makeBackgroundThreadPool(name: String, queue: BlockingQueue<Runnable>): ThreadPoolExecutor {
+    val threadCounter = AtomicInteger()
+    return ThreadPoolExecutor(POOL_THREADS, POOL_THREADS, 5, TimeUnit.SECONDS, queue) { runnable ->
+        Thread({
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            runnable.run()
+        }, "$name-${threadCounter.incrementAndGet()}")
+    }.apply { allowCoreThreadTimeOut(true) }
+}
+
+
 ////////////////////////////////////////////////////////////////////////////////////////////////////
 ////////////////////////////////////////////////////////////////////////////////////////// uri utils
 ////////////////////////////////////////////////////////////////////////////////////////////////////
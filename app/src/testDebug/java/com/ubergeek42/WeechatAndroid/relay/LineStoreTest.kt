@@ -0,0 +1,101 @@
+package com.ubergeek42.WeechatAndroid.relay
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+internal class LineStoreTest {
+    @Test
+    fun flagsRoundTrip() {
+        val store = LineStore()
+        val lines = mutableListOf<Line>()
+
+        for (type in LineSpec.Type.values())
+        for (displayAs in LineSpec.DisplayAs.values())
+        for (notifyLevel in LineSpec.NotifyLevel.values())
+        for (isVisible in listOf(false, true))
+        for (isHighlighted in listOf(false, true)) {
+            val pointer = lines.size + 1L
+            val nick = if (pointer % 3 == 0L) null else "nick$pointer"
+            lines.add(Line(pointer, type, pointer * 1000, "prefix$pointer", "message$pointer",
+                           nick, isVisible, isHighlighted, displayAs, notifyLevel))
+        }
+        lines.add(SquiggleLine())
+
+        lines.forEach { store.addLast(it) }
+        val snapshot = store.snapshot()
+
+        lines.forEachIndexed { index, expected ->
+            listOf(store.get(index), snapshot[index]).forEach { line ->
+                assertSameLine(expected, line)
+            }
+            assertEquals(expected.isVisible, store.isVisible(index))
+            assertEquals(expected is SquiggleLine, store.isSquiggle(index))
+            assertEquals(expected is SquiggleLine, snapshot.isSquiggle(index))
+        }
+    }
+
+    @Test
+    fun trimAcrossChunksWhileSnapshotIsHeld() {
+        val store = LineStore()
+        val filtered = PositionList()
+        fun add(pointer: Long) {
+            val isVisible = pointer % 2 == 0L
+            val position = store.addLast(makeLine(pointer, isVisible))
+            if (isVisible) filtered.addLast(position)
+        }
+
+        (0L until 600L).forEach(::add)
+        val oldSnapshot = store.snapshot()
+        val oldFiltered = filtered.snapshot(oldSnapshot)
+
+        // remove more than a chunk and a half, and add as many
+        repeat(400) {
+            store.removeFirst()
+            if (filtered.size > 0 && filtered[0] < store.start) filtered.removeFirst()
+        }
+        (600L until 1000L).forEach(::add)
+
+        assertEquals(600, oldSnapshot.size)
+        (0 until 600).forEach { assertEquals(it.toLong(), oldSnapshot[it].pointer) }
+        assertEquals(300, oldFiltered.size)
+        (0 until 300).forEach { assertEquals(it * 2L, oldFiltered.getPointer(it)) }
+
+        val snapshot = store.snapshot()
+        assertEquals(400, snapshot.start)
+        assertEquals(600, snapshot.size)
+        (0 until 600).forEach { assertEquals(400L + it, snapshot.getPointer(it)) }
+        (0 until 600).forEach { assertEquals(400 + it, snapshot.getPosition(it)) }
+
+        val newFiltered = filtered.snapshot(snapshot)
+        assertEquals(300, newFiltered.size)
+        (0 until 300).forEach { assertEquals(400L + it * 2, newFiltered[it].pointer) }
+
+        assertThrows(IndexOutOfBoundsException::class.java) { store.get(399) }
+        assertThrows(IndexOutOfBoundsException::class.java) { snapshot.getAt(399) }
+        assertThrows(IndexOutOfBoundsException::class.java) { store.get(1000) }
+    }
+
+    @Suppress("unused")
+    companion object {
+        fun makeLine(pointer: Long, isVisible: Boolean = true) = Line(
+                pointer, LineSpec.Type.IncomingMessage, pointer, "prefix", "message $pointer",
+                "nick", isVisible, isHighlighted = false,
+                LineSpec.DisplayAs.Say, LineSpec.NotifyLevel.Message)
+
+        fun assertSameLine(expected: Line, actual: Line) {
+            assertEquals(expected.pointer, actual.pointer)
+            assertEquals(expected is SquiggleLine, actual is SquiggleLine)
+            if (expected is SquiggleLine) return
+            assertEquals(expected.type, actual.type)
+            assertEquals(expected.timestamp, actual.timestamp)
+            assertEquals(expected.rawPrefix, actual.rawPrefix)
+            assertEquals(expected.rawMessage, actual.rawMessage)
+            assertEquals(expected.nick, actual.nick)
+            assertEquals(expected.isVisible, actual.isVisible)
+            assertEquals(expected.isHighlighted, actual.isHighlighted)
+            assertEquals(expected.displayAs, actual.displayAs)
+            assertEquals(expected.notifyLevel, actual.notifyLevel)
+        }
+    }
+}
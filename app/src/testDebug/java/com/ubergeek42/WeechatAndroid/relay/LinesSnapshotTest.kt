@@ -0,0 +1,97 @@
+package com.ubergeek42.WeechatAndroid.relay
+
+import android.text.SpannableString
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class LinesSnapshotTest {
+    @Test
+    fun deltaAfterTrimAndAppend() {
+        val store = LineStore()
+        (0L until 10L).forEach { store.addLast(makeLine(it)) }
+        val old = LinesSnapshot(header, store.snapshot(), -1)
+
+        store.removeFirst()
+        store.removeFirst()
+        (10L until 13L).forEach { store.addLast(makeLine(it)) }
+        val new = LinesSnapshot(header, store.snapshot(), -1)
+
+        val delta = new.getDeltaFrom(old)
+        assertNotNull(delta)
+        assertEquals(2, delta!!.removed)
+        assertEquals(3, delta.added)
+        assertTrue(delta.old === old)
+
+        store.addLast(makeLine(13))
+        val appended = LinesSnapshot(header, store.snapshot(), -1)
+        val appendDelta = appended.getDeltaFrom(new)!!
+        assertEquals(0, appendDelta.removed)
+        assertEquals(1, appendDelta.added)
+
+        assertNull(old.getDeltaFrom(new))       // lines can't come back
+    }
+
+    @Test
+    fun deltaWithMarker() {
+        val store = LineStore()
+        (0L until 10L).forEach { store.addLast(makeLine(it)) }
+        val oldLines = store.snapshot()
+        val old = LinesSnapshot(header, oldLines, 6)        // in front of line 6
+
+        store.removeFirst()
+        store.removeFirst()
+        store.addLast(makeLine(10))
+
+        // the marker stays in front of the same line
+        val sameMarker = LinesSnapshot(header, store.snapshot(), 4)
+        val delta = sameMarker.getDeltaFrom(old)!!
+        assertEquals(2, delta.removed)
+        assertEquals(1, delta.added)
+
+        // the marker has moved
+        assertNull(LinesSnapshot(header, store.snapshot(), 5).getDeltaFrom(old))
+        assertNull(LinesSnapshot(header, store.snapshot(), 9).getDeltaFrom(old))
+        assertNull(LinesSnapshot(header, store.snapshot(), -1).getDeltaFrom(old))
+        assertNull(LinesSnapshot(header, store.snapshot(), 4)
+                .getDeltaFrom(LinesSnapshot(header, oldLines, -1)))
+    }
+
+    @Test
+    fun deltaAfterClear() {
+        val store = LineStore()
+        (0L until 10L).forEach { store.addLast(makeLine(it)) }
+        val oldLines = store.snapshot()
+        val old = LinesSnapshot(header, oldLines, -1)
+
+        store.clear()
+        (0L until 12L).forEach { store.addLast(makeLine(it)) }
+        val newLines = store.snapshot()
+        val new = LinesSnapshot(header, newLines, -1)
+
+        // positions start anew, so the lines can't be compared by them
+        assertEquals(0, newLines.start)
+        assertFalse(newLines.isOfSameListAs(oldLines))
+        assertNull(new.getDeltaFrom(old))
+        assertFalse(oldLines.version == newLines.version)
+
+        // the header has changed
+        val otherHeader = HeaderLine("title", SpannableString("title"), Lines.Status.CanFetchMore)
+        assertNull(LinesSnapshot(otherHeader, store.snapshot(), -1).getDeltaFrom(new))
+        assertNotNull(LinesSnapshot(header, store.snapshot(), -1).getDeltaFrom(new))
+        assertEquals(newLines.version, store.snapshot().version)
+    }
+
+    @Suppress("unused")
+    companion object {
+        val header = HeaderLine("", SpannableString(""), Lines.Status.EverythingFetched)
+
+        fun makeLine(pointer: Long) = Line(
+                pointer, LineSpec.Type.IncomingMessage, pointer, "prefix", "message $pointer",
+                "nick", isVisible = true, isHighlighted = false,
+                LineSpec.DisplayAs.Say, LineSpec.NotifyLevel.Message)
+    }
+}
@@ -0,0 +1,79 @@
+package com.ubergeek42.WeechatAndroid.relay
+
+import android.text.Spannable
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+
+internal class SpannableCacheTest {
+    @Test
+    fun linesThatSharePointer() {
+        val old = makeLine(0x1000, timestamp = 1, "old message")
+        val new = makeLine(0x1000, timestamp = 2, "new message")
+        val sameTime = makeLine(0x1000, timestamp = 1, "another message")
+
+        val rendered = render(old)
+        assertSame(rendered, SpannableCache.get(old))
+        assertSame(rendered, SpannableCache.peek(makeLine(0x1000, timestamp = 1, "old message")))
+
+        assertNull(SpannableCache.get(new))
+        assertNull(SpannableCache.peek(new))
+        assertNull(SpannableCache.get(sameTime))
+        assertNull(SpannableCache.peek(sameTime))
+
+        // the strings of the new line are not taken from the old one
+        assertEquals("rendered old message", old.messageString)
+        assertEquals("new message", new.messageString)
+        assertEquals("prefix", new.prefixString)
+
+        // the new line replaces the old one
+        val newRendered = render(new)
+        assertSame(newRendered, SpannableCache.get(new))
+        assertNull(SpannableCache.get(old))
+    }
+
+    @Test
+    fun removal() {
+        val old = makeLine(0x2000, timestamp = 1, "old message")
+        val new = makeLine(0x2000, timestamp = 2, "new message")
+
+        // removing a line doesn't remove another line with the same pointer
+        val rendered = render(new)
+        SpannableCache.remove(old.pointer, old.timestamp)
+        assertSame(rendered, SpannableCache.get(new))
+
+        SpannableCache.remove(new.pointer, new.timestamp)
+        assertNull(SpannableCache.get(new))
+    }
+
+    @Suppress("unused")
+    companion object {
+        fun makeLine(pointer: Long, timestamp: Long, message: String) = Line(
+                pointer, LineSpec.Type.IncomingMessage, timestamp, "prefix", message,
+                "nick", isVisible = true, isHighlighted = false,
+                LineSpec.DisplayAs.Say, LineSpec.NotifyLevel.Message)
+
+        fun render(line: Line): SpannableCache.Rendered {
+            val text = "rendered ${line.rawMessage}"
+            return SpannableCache.Rendered(line, TextSpannable(text), "rendered prefix", text,
+                                           SpannableCache.style)
+                    .also { SpannableCache.put(line, it) }
+        }
+    }
+}
+
+
+// a spannable with no spans, as SpannableString does nothing in jvm tests
+private class TextSpannable(private val text: String) : Spannable, CharSequence by text {
+    override fun setSpan(what: Any?, start: Int, end: Int, flags: Int) {}
+    override fun removeSpan(what: Any?) {}
+    @Suppress("UNCHECKED_CAST")
+    override fun <T> getSpans(start: Int, end: Int, type: Class<T>): Array<T> =
+            java.lang.reflect.Array.newInstance(type, 0) as Array<T>
+    override fun getSpanStart(tag: Any?) = -1
+    override fun getSpanEnd(tag: Any?) = -1
+    override fun getSpanFlags(tag: Any?) = 0
+    override fun nextSpanTransition(start: Int, limit: Int, type: Class<*>?) = limit
+    override fun toString() = text
+}
@@ -0,0 +1,39 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+// Benchmarks of the relay protocol and of the line rendering code that runs on a plain JVM.
+// All of them live in src/jmh. Run with:
+//   $ ./gradlew :relay-bench:jmh
+// To run some of the benchmarks, add e.g. -Pjmh.includes=ReceiveBenchmark
+// To measure allocation, add -Pjmh.profilers=gc
+// To benchmark on recorded messages rather than on synthesized ones, add -Pjmh.dump=/path/to/dump
+// A dump of synthesized messages can be written with:
+//   $ ./gradlew :relay-bench:fixtures
+dependencies {
+    implementation(project(":relay"))
+    implementation("org.jetbrains.kotlin:kotlin-stdlib-jdk8:1.9.20")     // to call kotlin code of :relay
+}
+
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
+
+jmh {
+    jmhVersion.set("1.37")
+
+    (project.findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+    (project.findProperty("jmh.profilers") as String?)?.let { profilers.add(it) }
+
+    (project.findProperty("jmh.dump") as String?)?.let { dump ->
+        benchmarkParameters.put("dump", objects.listProperty<String>().value(listOf(dump)))
+    }
+}
+
+tasks.register<JavaExec>("fixtures") {
+    description = "Writes a dump of synthesized relay messages to build/fixtures/session.dump"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.ubergeek42.weechat.relay.Fixtures")
+    args(layout.buildDirectory.file("fixtures/session.dump").get().asFile.path)
+}
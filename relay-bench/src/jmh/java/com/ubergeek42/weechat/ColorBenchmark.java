@@ -0,0 +1,55 @@
+package com.ubergeek42.weechat;
+
+import com.ubergeek42.weechat.relay.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Parses color codes of 4096 colored irc lines, the way lines are rendered, and the way
+// prefixes and messages are stripped of colors when the rendered line isn't around.
+// The parser is reused for all lines, so see gc.alloc.rate.norm for what's left of allocations.
+//   ./gradlew :relay-bench:jmh -Pjmh.includes=ColorBenchmark -Pjmh.profilers=gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColorBenchmark {
+
+    private String[][] lines;
+
+    @Setup public void setup() {
+        lines = Fixtures.lineStrings(4096, 42);
+    }
+
+    // takes everything that Line takes from the parser
+    @Benchmark public void render(Blackhole blackhole) {
+        Color color = Color.get();
+        for (String[] line : lines) {
+            color.parseLine("12:34", line[0], line[1], true, false, 10, Color.ALIGN_RIGHT);
+            blackhole.consume(color.getLineString());
+            blackhole.consume(color.getPrefixString());
+            blackhole.consume(color.getMessageString());
+            for (int i = 0; i < color.getSpanCount(); i++) blackhole.consume(color.getSpanColor(i));
+        }
+    }
+
+    @Benchmark public void strip(Blackhole blackhole) {
+        for (String[] line : lines) {
+            blackhole.consume(Color.stripEverything(line[0]));
+            blackhole.consume(Color.stripEverything(line[1]));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ubergeek42.weechat;
+
+import com.ubergeek42.weechat.relay.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.jvm.functions.Function1;
+
+// Searches 4096 lines, as Search does for every change of the lines or of the search text.
+// Lines are searched in their irc-like form, e.g. "<nick> message"
+//   ./gradlew :relay-bench:jmh -Pjmh.includes=TextMatcherBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextMatcherBenchmark {
+
+    @Param({"weechat", "Issues/512"})
+    public String text;
+
+    @Param({"caseSensitive", "caseInsensitive", "regex"})
+    public String mode;
+
+    private String[] lines;
+    private Function1<String, Boolean> matcher;
+
+    @Setup public void setup() {
+        String[][] lines = Fixtures.lineStrings(4096, 42);
+        this.lines = new String[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            this.lines[i] = "<" + new Color().parseColors(lines[i][0]) + "> " +
+                    new Color().parseColors(lines[i][1]);
+        }
+        matcher = TextMatcherKt.makeTextMatcher(text, mode.equals("caseSensitive"),
+                mode.equals("regex"), Locale.ENGLISH);
+    }
+
+    @Benchmark public int search() {
+        int matches = 0;
+        for (String line : lines) {
+            if (matcher.invoke(line)) matches++;
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ubergeek42.weechat;
+
+import com.ubergeek42.weechat.relay.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
+import kotlin.sequences.Sequence;
+import kotlin.text.MatchResult;
+
+// Finds urls in the messages of 4096 lines, as done by Linkify when rendering lines: by running
+// the url regex on the parts of the messages that might contain urls, found by UrlCandidates.
+// regex runs it on every message that contains "://" or "www" anywhere, for comparison.
+//   ./gradlew :relay-bench:jmh -Pjmh.includes=UrlsBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlsBenchmark {
+
+    private String[] messages;
+
+    @Setup public void setup() {
+        String[][] lines = Fixtures.lineStrings(4096, 42);
+        messages = new String[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            messages[i] = Color.stripEverything(lines[i][1]);
+        }
+    }
+
+    @Benchmark public void findUrls(Blackhole blackhole) {
+        UrlCandidates candidates = new UrlCandidates();
+        for (String message : messages) {
+            UrlsKt.findUrls(message, candidates.scan(message), (start, end) -> {
+                blackhole.consume(message.substring(start, end));
+                return Unit.INSTANCE;
+            });
+        }
+    }
+
+    @Benchmark public void regex(Blackhole blackhole) {
+        for (String message : messages) {
+            if (!message.contains("://") && !message.toLowerCase().contains("www")) continue;
+            Sequence<MatchResult> matches = UrlsKt.getURL().findAll(message, 0);
+            for (Iterator<MatchResult> it = matches.iterator(); it.hasNext();) {
+                blackhole.consume(it.next().getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.ubergeek42.weechat.relay;
+
+import com.ubergeek42.weechat.relay.protocol.Hdata;
+import com.ubergeek42.weechat.relay.protocol.HdataEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Relay messages for benchmarks. These can be either synthesized, so that benchmarks run
+ * out of the box, or read from a dump of the bytes received from a real WeeChat.
+ *
+ * A dump is simply the concatenation of relay messages as they arrive over the wire,
+ * e.g. what you get by recording the traffic of a plain (non-ssl) relay connection.
+ *
+ * See https://weechat.org/files/doc/stable/weechat_relay_protocol.en.html#messages
+ *
+ * Running this class writes a dump of synthesized messages, see {@link #session}.
+ */
+public class Fixtures {
+
+    public final static String LINES_KEYS = "date:tim,displayed:chr,prefix:str,message:str," +
+            "highlight:chr,notify_level:chr,tags_array:arr";
+
+    private final static String[] NICKS = {"ubergeek42", "oakkitten", "mhoran", "FlashCode",
+            "nils_2", "Tamtam", "sim642", "emk", "trygveaa", "zarkbot", "lolcat", "ape"};
+
+    private final static String[] WORDS = {"the", "relay", "protocol", "is", "not", "very",
+            "weechat", "android", "buffer", "line", "hotlist", "nick", "works", "for", "me", "lol",
+            "please", "see", "issue", "patch", "merged", "thanks", "::", "ok", "ünïcødé", "日本語"};
+
+    private final static String[] URLS = {"https://weechat.org/files/doc/stable/",
+            "https://github.com/ubergeek42/weechat-android/issues/512",
+            "http://i.imgur.com/7X2M1Qz.jpg", "www.example.com/some/path?query=1"};
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // an _buffer_line_added-like or listlines-like hdata of `count` colored irc lines
+    public static byte[] lines(String id, int count, long seed) {
+        Random random = new Random(seed);
+        Writer w = new Writer();
+        w.string(id);
+        w.type("hda");
+        w.string("buffer/lines/line/line_data");
+        w.string(LINES_KEYS);
+        w.integer(count);
+
+        long bufferPointer = 0x55d8a4c0e7f0L;
+        long linePointer = 0x55d8a5000000L;
+        long time = 1600000000;
+        for (int i = 0; i < count; i++) {
+            w.pointer(bufferPointer);
+            w.pointer(bufferPointer + 0x1c0);
+            w.pointer(linePointer + i * 0x60L);
+            w.pointer(linePointer + i * 0x60L + 0x30);
+
+            String nick = NICKS[random.nextInt(NICKS.length)];
+            boolean action = random.nextInt(20) == 0;
+            boolean join = !action && random.nextInt(10) == 0;
+            boolean highlight = random.nextInt(30) == 0;
+
+            w.time(time + i * 7L);
+            w.chr(random.nextInt(50) == 0 ? 0 : 1);
+            if (join) {
+                w.string("\u001928-->");
+                w.string("\u0019F@00123" + nick + " \u001928(\u001923~" + nick +
+                        "@user/" + nick + "\u001928)\u001924 has joined \u0019F@00081#weechat");
+            } else {
+                w.string((action ? "\u0019F@00124 *" : "\u0019F@00149@") + "\u0019F@00" +
+                        (100 + random.nextInt(150)) + nick);
+                w.string(message(random));
+            }
+            w.chr(highlight ? 1 : 0);
+            w.chr(join ? 0 : highlight ? 3 : 1);
+            w.type("str");
+            if (join) {
+                w.integer(5);
+                w.string("irc_join");
+                w.string("nick_" + nick);
+                w.string("host_~" + nick + "@user/" + nick);
+                w.string("irc_smart_filter");
+                w.string("log4");
+            } else {
+                w.integer(6);
+                w.string(action ? "irc_action" : "irc_privmsg");
+                w.string("notify_message");
+                w.string("prefix_nick_" + (100 + random.nextInt(150)));
+                w.string("nick_" + nick);
+                w.string("host_~" + nick + "@user/" + nick);
+                w.string("log1");
+            }
+        }
+        return w.toByteArray();
+    }
+
+    // a nicklist-like hdata of `count` nicks in a single buffer
+    public static byte[] nicklist(String id, int count, long seed) {
+        Random random = new Random(seed);
+        Writer w = new Writer();
+        w.string(id);
+        w.type("hda");
+        w.string("buffer/nicklist_item");
+        w.string("group:chr,visible:chr,level:int,name:str,color:str,prefix:str,prefix_color:str");
+        w.integer(count);
+
+        for (int i = 0; i < count; i++) {
+            w.pointer(0x55d8a4c0e7f0L);
+            w.pointer(0x55d8a6000000L + i * 0x50L);
+            w.chr(0);
+            w.chr(1);
+            w.integer(0);
+            w.string(NICKS[random.nextInt(NICKS.length)] + i);
+            w.string(random.nextInt(5) == 0 ? "weechat.color.nicklist_away" : "default");
+            w.string(random.nextInt(10) == 0 ? "@" : " ");
+            w.string("lightgreen");
+        }
+        return w.toByteArray();
+    }
+
+    // prefixes and messages of `count` lines, with the color codes, as they come from weechat
+    public static String[][] lineStrings(int count, long seed) {
+        Hdata hdata = (Hdata) new RelayMessage(frame(lines("listlines", count, seed), false))
+                .getObjects()[0];
+        String[][] strings = new String[count][];
+        for (int i = 0; i < count; i++) {
+            HdataEntry entry = hdata.getItem(i);
+            strings[i] = new String[]{entry.getItem("prefix").asString(),
+                    entry.getItem("message").asString()};
+        }
+        return strings;
+    }
+
+    private static String message(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 3 + random.nextInt(25);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            int dice = random.nextInt(40);
+            if (dice == 0) sb.append(URLS[random.nextInt(URLS.length)]);
+            else if (dice == 1) sb.append("\u0019F0").append(random.nextInt(10))
+                    .append(WORDS[random.nextInt(WORDS.length)]).append("\u0019\u001c");
+            else if (dice == 2) sb.append("\u001a\u0001").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\u001b\u0001");
+            else sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // wraps message body (id + objects) into a complete message, optionally compressing it
+    public static byte[] frame(byte[] body, boolean compress) {
+        byte[] payload = body;
+        if (compress) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+            deflater.end();
+            payload = out.toByteArray();
+        }
+
+        Writer w = new Writer();
+        w.integer(payload.length + 5);
+        w.chr(compress ? 1 : 0);
+        w.raw(payload);
+        return w.toByteArray();
+    }
+
+    // what the client receives after connecting: nicklist and lines of a big channel, followed
+    // by lines added one by one. the large messages are compressed, and so is every other added
+    // line, so that both compressed and uncompressed messages are present
+    public static List<byte[]> session(int lines, int linesAdded, long seed) {
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(frame(nicklist("nicklist", 500, seed), true));
+        frames.add(frame(lines("listlines", lines, seed), true));
+        for (int i = 0; i < linesAdded; i++) {
+            frames.add(frame(lines("_buffer_line_added", 1, seed + i), i % 2 == 0));
+        }
+        return frames;
+    }
+
+    // usage: Fixtures <path> [lines] [lines added]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: Fixtures <path> [lines] [lines added]");
+            System.exit(1);
+        }
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int linesAdded = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : session(lines, linesAdded, 42)) out.write(frame, 0, frame.length);
+
+        Path path = Paths.get(args[0]);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Files.write(path, out.toByteArray());
+        System.out.println("wrote " + out.size() + " bytes to " + path);
+    }
+
+    // reads a dump of concatenated relay messages
+    public static List<byte[]> readDump(String path) throws IOException {
+        byte[] dump = Files.readAllBytes(Paths.get(path));
+        List<byte[]> frames = new ArrayList<>();
+        for (int position = 0; position + 5 <= dump.length;) {
+            int length = ((dump[position] & 0xff) << 24) | ((dump[position + 1] & 0xff) << 16) |
+                    ((dump[position + 2] & 0xff) << 8) | (dump[position + 3] & 0xff);
+            if (length < 5 || position + length > dump.length) break;
+            byte[] frame = new byte[length];
+            System.arraycopy(dump, position, frame, 0, length);
+            frames.add(frame);
+            position += length;
+        }
+        return frames;
+    }
+
+    // returns the uncompressed body of a message, that is the message without the 5-byte header
+    public static byte[] body(byte[] frame) {
+        byte[] payload = new byte[frame.length - 5];
+        System.arraycopy(frame, 5, payload, 0, payload.length);
+        if (frame[4] == 0) return payload;
+
+        try {
+            Inflater inflater = new Inflater();
+            inflater.setInput(payload);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                out.write(chunk, 0, inflated);
+            }
+            inflater.end();
+            return out.toByteArray();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Bad compressed message", e);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // writes objects as described in
+    // https://weechat.org/files/doc/stable/weechat_relay_protocol.en.html#objects
+    public static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public Writer type(String type) {
+            return raw(type.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        public Writer chr(int c) {
+            out.write(c);
+            return this;
+        }
+
+        public Writer integer(int i) {
+            out.write(i >>> 24);
+            out.write(i >>> 16);
+            out.write(i >>> 8);
+            out.write(i);
+            return this;
+        }
+
+        public Writer longInteger(long l) {
+            byte[] bytes = Long.toString(l).getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes.length);
+            return raw(bytes);
+        }
+
+        public Writer time(long t) {
+            return longInteger(t);
+        }
+
+        public Writer string(String s) {
+            if (s == null) return integer(-1);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            integer(bytes.length);
+            return raw(bytes);
+        }
+
+        public Writer pointer(long p) {
+            byte[] bytes = Long.toHexString(p).getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes.length);
+            return raw(bytes);
+        }
+
+        public Writer raw(byte[] bytes) {
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.ubergeek42.weechat.relay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+// Inflates and parses a compressed message: a single line as received during sync, or a
+// listing of 4096 lines as received when opening a buffer.
+//   ./gradlew :relay-bench:jmh -Pjmh.includes=RelayMessageBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayMessageBenchmark {
+
+    @Param({"1", "4096"})
+    public int lines;
+
+    private byte[] frame;
+    private Inflater inflater;
+
+    @Setup public void setup() {
+        frame = Fixtures.frame(Fixtures.lines("listlines", lines, 42), true);
+        inflater = new Inflater();
+    }
+
+    @TearDown public void tearDown() {
+        inflater.end();
+    }
+
+    @Benchmark public RelayMessage newInflater() {
+        return new RelayMessage(frame);
+    }
+
+    @Benchmark public RelayMessage reusedInflater() {
+        return new RelayMessage(frame, frame.length, inflater);
+    }
+}
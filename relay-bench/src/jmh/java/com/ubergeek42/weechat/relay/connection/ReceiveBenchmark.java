@@ -0,0 +1,83 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import com.ubergeek42.weechat.relay.Fixtures;
+import com.ubergeek42.weechat.relay.RelayMessage;
+import com.ubergeek42.weechat.relay.protocol.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+
+// Reads 1000 frames as received during sync, one line per frame. Run with the gc profiler to
+// compare the allocation per 1000 frames, see gc.alloc.rate.norm:
+//   ./gradlew :relay-bench:jmh -Pjmh.includes=ReceiveBenchmark -Pjmh.profilers=gc
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiveBenchmark {
+
+    private final static int FRAMES = 1000;
+
+    @Param({"true", "false"})
+    public boolean compressed;
+
+    private ByteArrayInputStream input;
+    private Inflater inflater;
+    private Utils.RelayMessageReader reader;
+
+    @Setup public void setup() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            out.writeBytes(Fixtures.frame(Fixtures.lines("_buffer_line_added", 1, i), compressed));
+        }
+        input = new ByteArrayInputStream(out.toByteArray());
+        inflater = new Inflater();
+        reader = new Utils.RelayMessageReader(input);
+    }
+
+    @TearDown public void tearDown() {
+        inflater.end();
+        reader.close();
+    }
+
+    // allocates the header and the message arrays for every frame, as it used to be done
+    @Benchmark public void allocating(Blackhole blackhole) throws IOException {
+        input.reset();
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] header = new byte[4];
+            readAll(input, header, 0);
+            byte[] data = new byte[new Data(header).getUnsignedInt()];
+            System.arraycopy(header, 0, data, 0, header.length);
+            readAll(input, data, header.length);
+            blackhole.consume(new RelayMessage(data, data.length, inflater));
+        }
+    }
+
+    @Benchmark public void pooled(Blackhole blackhole) throws IOException {
+        input.reset();
+        for (int i = 0; i < FRAMES; i++) blackhole.consume(reader.read());
+    }
+
+    private static void readAll(InputStream stream, byte[] data, int startAt) throws IOException {
+        for (int pos = startAt; pos != data.length;) pos += stream.read(data, pos, data.length - pos);
+    }
+}
@@ -0,0 +1,84 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import com.ubergeek42.weechat.relay.Fixtures;
+import com.ubergeek42.weechat.relay.RelayMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+// Time from a websocket frame being received to the message being handed to the observer.
+// The frame is either written to a pipe that is read by another thread, as it used to be done,
+// or parsed right on the thread that received it.
+//   ./gradlew :relay-bench:jmh -Pjmh.includes=WebSocketDeliveryBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebSocketDeliveryBenchmark {
+
+    // a line as received during sync, and a backlog of lines
+    @Param({"1", "1000"})
+    public int lines;
+
+    private byte[] frame;
+
+    private PipedOutputStream pipedOutputStream;
+    private Thread readerThread;
+    private final SynchronousQueue<RelayMessage> delivered = new SynchronousQueue<>();
+
+    private Utils.RelayMessageReader frameReader;
+
+    @Setup public void setup() throws IOException {
+        frame = Fixtures.frame(Fixtures.lines("_buffer_line_added", lines, 42), true);
+
+        PipedInputStream pipedInputStream = new PipedInputStream();
+        pipedOutputStream = new PipedOutputStream(pipedInputStream);
+        readerThread = new Thread(() -> {
+            Utils.RelayMessageReader reader = new Utils.RelayMessageReader(pipedInputStream);
+            try {
+                while (!Thread.interrupted()) delivered.put(reader.read());
+            } catch (IOException | InterruptedException ignored) {
+            } finally {
+                reader.close();
+            }
+        });
+        readerThread.start();
+
+        frameReader = new Utils.RelayMessageReader();
+    }
+
+    @TearDown public void tearDown() throws IOException, InterruptedException {
+        pipedOutputStream.close();
+        readerThread.interrupt();
+        readerThread.join();
+        frameReader.close();
+    }
+
+    @Benchmark public RelayMessage piped() throws IOException, InterruptedException {
+        pipedOutputStream.write(frame);
+        pipedOutputStream.flush();
+        return delivered.take();
+    }
+
+    @Benchmark public RelayMessage direct() throws IOException {
+        return frameReader.read(frame);
+    }
+}
@@ -0,0 +1,105 @@
+package com.ubergeek42.weechat.relay.protocol;
+
+import com.ubergeek42.weechat.relay.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Compares Data with ByteBufferData on uncompressed message bodies.
+// Run with: ./gradlew :relay-bench:jmh
+// To use recorded messages, pass -Pjmh.dump=/path/to/dump, see Fixtures
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataBenchmark {
+
+    @Param({"listlines", "nicklist"})
+    public String fixture;
+
+    @Param({"4096"})
+    public int count;
+
+    @Param({""})
+    public String dump;
+
+    private List<byte[]> bodies;
+
+    @Setup public void setup() throws IOException {
+        bodies = new ArrayList<>();
+        if (!dump.isEmpty()) {
+            for (byte[] frame : Fixtures.readDump(dump)) bodies.add(Fixtures.body(frame));
+        } else if (fixture.equals("listlines")) {
+            bodies.add(Fixtures.lines("listlines", count, 42));
+        } else {
+            bodies.add(Fixtures.nicklist("nicklist", count, 42));
+        }
+    }
+
+    @Benchmark public void data(Blackhole blackhole) {
+        for (byte[] body : bodies) {
+            Data data = new Data(body);
+            blackhole.consume(data.getString());
+            while (!data.empty()) blackhole.consume(data.getObject());
+        }
+    }
+
+    // hdata rows are decoded lazily, so make sure they are decoded
+    @Benchmark public void byteBufferData(Blackhole blackhole) {
+        for (byte[] body : bodies) {
+            ByteBufferData data = new ByteBufferData(body);
+            blackhole.consume(data.getString());
+            while (!data.empty()) {
+                RelayObject object = data.getObject();
+                if (object instanceof Hdata && ((Hdata) object).getCount() > 0) {
+                    blackhole.consume(((Hdata) object).getItem(0));
+                }
+                blackhole.consume(object);
+            }
+        }
+    }
+
+    // reads every value of every hdata row in place
+    @Benchmark public void hdataCursor(Blackhole blackhole) {
+        for (byte[] body : bodies) {
+            ByteBufferData data = new ByteBufferData(body);
+            blackhole.consume(data.getString());
+            while (!data.empty()) {
+                RelayObject object = data.getObject();
+                if (!(object instanceof Hdata)) continue;
+                HdataCursor cursor = ((Hdata) object).cursor();
+                while (cursor.next()) {
+                    blackhole.consume(cursor.pointer());
+                    for (int column = 0; column < ((Hdata) object).type_list.length; column++) {
+                        switch (cursor.getType(column)) {
+                            case CHR: blackhole.consume(cursor.getChar(column)); break;
+                            case INT: blackhole.consume(cursor.getInt(column)); break;
+                            case TIM: blackhole.consume(cursor.getTime(column)); break;
+                            case PTR: blackhole.consume(cursor.getPointer(column)); break;
+                            case STR: blackhole.consume(cursor.getString(column)); break;
+                            case ARR: blackhole.consume(cursor.getStringArray(column)); break;
+                            default: blackhole.consume(cursor.getObject(column));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -17,8 +17,7 @@ package com.ubergeek42.weechat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 
 
 /**
@@ -31,6 +30,9 @@ import java.util.Iterator;
  * See WeeChat dev document for more information: <a
  * href="http://www.weechat.org/files/doc/devel/weechat_dev.en.html#color_codes_in_strings">here</a>
  */
+// an instance parses into a StringBuilder and a packed array of spans, both of which are reused
+// for the next line. thus, an instance must only be used by one thread at a time, and the results
+// are only valid until the next call. get() returns an instance that belongs to the current thread
 public class Color {
     final private static boolean DEBUG = false;
     final private static Logger logger = LoggerFactory.getLogger("Color");
@@ -41,138 +43,198 @@ public class Color {
     public final static int ALIGN_RIGHT = 2;
     public final static int ALIGN_TIMESTAMP = 3;
 
+    // spans are stored as (start, end, type, color)
+    final private static int SPAN_START = 0;
+    final private static int SPAN_END = 1;
+    final private static int SPAN_TYPE = 2;
+    final private static int SPAN_COLOR = 3;
+    final private static int SPAN_FIELDS = 4;
+
+    final private static ThreadLocal<Color> instances = new ThreadLocal<Color>() {
+        @Override protected Color initialValue() {
+            return new Color();
+        }
+    };
+
+    public static Color get() {
+        return instances.get();
+    }
+
     static String stripColors(String text) { return text; }
 
     public Color() {}
 
     public static String stripEverything(String text) {
-        return new Color().parseColors(text).toString();
+        return get().parseColors(text).toString();
     }
 
-    public String lineString;
-    public String prefixString;
-    public String messageString;
-    public int margin;
-    public ArrayList<Span> finalSpanList;
+    // the output: the printable characters, and the spans in them
+    final private StringBuilder out = new StringBuilder();
+    private int[] spanList = new int[SPAN_FIELDS * 32];
+    private int spanCount = 0;
+
+    // set by parseLine()
+    final private UrlCandidates urlCandidates = new UrlCandidates();
+    private boolean findingUrlCandidates = false;
+    private String prefixString;
+    private int messageStart;
+    private int margin;
 
-    // prepares: cleanMessage, margin, finalSpanList
-    public Color(CharSequence timestamp, String prefix, String message, final boolean enclose_nick, final boolean highlight, final int max, final int alignment) {
+    // parses a whole line, adding the timestamp, aligning and enclosing the nick, and so on
+    public void parseLine(CharSequence timestamp, String prefix, String message, final boolean enclose_nick, final boolean highlight, final int max, final int alignment) {
         if (DEBUG) logger.debug("parse(timestamp='{}', prefix='{}', message='{}', enclose_nick={}, highlight={}, max={}, align_right={})",
                 timestamp, prefix, message, enclose_nick, highlight, max, alignment);
-        int puff;
         ColorScheme cs = ColorScheme.get();
-        StringBuilder sb = new StringBuilder();
-        finalSpanList = new ArrayList<>();
+        out.setLength(0);
+        spanCount = 0;
 
         if (timestamp != null) {
-            sb.append(timestamp);
-            maybeMakeAndAddSpans(0, sb.length(), cs.chat_time, finalSpanList);
-            sb.append(" ");
+            out.append(timestamp);
+            maybeAddSpans(0, out.length(), cs.chat_time);
+            out.append(' ');
         }
 
         // here's our margin
         if (alignment == ALIGN_TIMESTAMP) {
-            margin = sb.length();
+            margin = out.length();
         }
 
-        // prefix should be adjusted according to the settings
+        // prefix should be adjusted according to the settings. it's parsed right into the output,
+        // and then the padding and the “<” are inserted in front of it, if needed.
         // also, if highlight is enabled, remove all colors from here and add highlight color later
-        prefix = parseColors(prefix).toString();
-        prefixString = prefix;
-        if (highlight) spanList.clear();
+        int prefixStart = out.length();
+        int prefixSpans = spanCount;
+        parseColorsInto(prefix);
+        int prefixLength = out.length() - prefixStart;
+        prefixString = out.substring(prefixStart);
+        if (highlight) spanCount = prefixSpans;
         boolean nickHasBeenCut = false;
         int maxAdjusted = enclose_nick ? Math.max(0, max - 2) : max;
-        if (prefix.length() > maxAdjusted) {
+        int inserted = 0;
+        if (prefixLength > maxAdjusted) {
             nickHasBeenCut = true;
-            prefix = prefix.substring(0, maxAdjusted);
-            Span span;
-            for (Iterator<Span> it = spanList.iterator(); it.hasNext();) {
-                span = it.next();
-                if (span.end > maxAdjusted) span.end = maxAdjusted;
-                if (span.end <= span.start) it.remove();
-            }
+            prefixLength = maxAdjusted;
+            out.setLength(prefixStart + prefixLength);
+            clipSpans(prefixSpans, prefixStart + prefixLength);
         }
-        else if (alignment==ALIGN_RIGHT && prefix.length() < maxAdjusted) {
-            int diff = maxAdjusted - prefix.length();
-            for (int x = 0; x < diff; x++) sb.append(" "); // spaces for padding
+        else if (alignment==ALIGN_RIGHT && prefixLength < maxAdjusted) {
+            inserted = maxAdjusted - prefixLength;
+            for (int x = 0; x < inserted; x++) out.insert(prefixStart, ' '); // spaces for padding
         }
         if (highlight) {
-            maybeMakeAndAddSpans(0, prefix.length(), cs.chat_highlight, spanList);
+            maybeAddSpans(prefixStart, prefixStart + prefixLength, cs.chat_highlight);
         }
         if (enclose_nick && max >= 1) {
-            sb.append("<");
-            maybeMakeAndAddSpans(sb.length() - 1, sb.length(), cs.chat_nick_prefix, finalSpanList);
+            out.insert(prefixStart + inserted, '<');
+            inserted++;
         }
-        puff = sb.length();
-        for (Span span : spanList) {
-            span.start += puff;
-            span.end += puff;
-            finalSpanList.add(span);
+        if (inserted > 0) {
+            shiftSpans(prefixSpans, inserted);
+            if (enclose_nick && max >= 1)
+                maybeAddSpans(prefixStart + inserted - 1, prefixStart + inserted, cs.chat_nick_prefix);
         }
-        sb.append(prefix);
         if (nickHasBeenCut) {
             if (enclose_nick && max >= 2) {
-                sb.append(">");
-                maybeMakeAndAddSpans(sb.length() - 1, sb.length(), cs.chat_nick_suffix, finalSpanList);
+                out.append('>');
+                maybeAddSpans(out.length() - 1, out.length(), cs.chat_nick_suffix);
             }
-            sb.append("+");
-            maybeMakeAndAddSpans(sb.length() - 1, sb.length(), cs.chat_prefix_more, finalSpanList);
+            out.append('+');
+            maybeAddSpans(out.length() - 1, out.length(), cs.chat_prefix_more);
         }
         else if (enclose_nick && max >= 2) {
-            sb.append("> ");
-            maybeMakeAndAddSpans(sb.length() - 2, sb.length() - 1, cs.chat_nick_suffix, finalSpanList);
+            out.append("> ");
+            maybeAddSpans(out.length() - 2, out.length() - 1, cs.chat_nick_suffix);
         }
-        else sb.append(" ");
+        else out.append(' ');
 
         // here's our margin
         if (alignment != ALIGN_TIMESTAMP) {
-            margin = sb.length();
+            margin = out.length();
         }
 
-        // the rest of the message
-        message = parseColors(message).toString();
-        puff = sb.length();
-        for (Span span : spanList) {
-            span.start += puff;
-            span.end += puff;
-            finalSpanList.add(span);
+        // the rest of the message. this also looks for parts of it that might be urls
+        messageStart = out.length();
+        urlCandidates.reset();
+        findingUrlCandidates = true;
+        parseColorsInto(message);
+        findingUrlCandidates = false;
+        urlCandidates.finish();
+    }
+
+    // these return the results of parseLine()
+    public String getLineString() { return out.toString(); }
+    public String getPrefixString() { return prefixString; }
+    public String getMessageString() { return out.substring(messageStart); }
+    public int getMargin() { return margin; }
+    public UrlCandidates getUrlCandidates() { return urlCandidates; }   // in the message string
+
+    // these return the results of both parseLine() and parseColors()
+    public int getSpanCount() { return spanCount; }
+    public int getSpanStart(int i) { return spanList[i * SPAN_FIELDS + SPAN_START]; }
+    public int getSpanEnd(int i) { return spanList[i * SPAN_FIELDS + SPAN_END]; }
+    public int getSpanType(int i) { return spanList[i * SPAN_FIELDS + SPAN_TYPE]; }
+    public int getSpanColor(int i) { return spanList[i * SPAN_FIELDS + SPAN_COLOR]; }
+
+    private void maybeAddSpans(int start, int end, int[] color) {
+        if (color[0] != -1) appendSpan(start, end, Span.FGCOLOR, color[0]);
+        if (color[1] != -1) appendSpan(start, end, Span.BGCOLOR, color[1]);
+    }
+
+    private void appendSpan(int start, int end, int type, int color) {
+        int offset = spanCount * SPAN_FIELDS;
+        if (offset == spanList.length) spanList = Arrays.copyOf(spanList, spanList.length * 2);
+        spanList[offset + SPAN_START] = start;
+        spanList[offset + SPAN_END] = end;
+        spanList[offset + SPAN_TYPE] = type;
+        spanList[offset + SPAN_COLOR] = color;
+        spanCount++;
+    }
+
+    // cuts spans starting from the given one at the given position, removing the empty ones
+    private void clipSpans(int from, int end) {
+        int count = from;
+        for (int i = from; i < spanCount; i++) {
+            int offset = i * SPAN_FIELDS;
+            if (spanList[offset + SPAN_END] > end) spanList[offset + SPAN_END] = end;
+            if (spanList[offset + SPAN_END] <= spanList[offset + SPAN_START]) continue;
+            if (count != i) System.arraycopy(spanList, offset, spanList, count * SPAN_FIELDS, SPAN_FIELDS);
+            count++;
         }
-        sb.append(message);
-        messageString = message;
-        lineString = sb.toString();
+        spanCount = count;
     }
 
-    private static void maybeMakeAndAddSpans(int start, int end, int[] color, ArrayList<Span> list) {
-        if (color[0] != -1) {Span fg = new Span(); fg.start = start; fg.end = end; fg.type = Span.FGCOLOR; fg.color = color[0]; list.add(fg);}
-        if (color[1] != -1) {Span bg = new Span(); bg.start = start; bg.end = end; bg.type = Span.BGCOLOR; bg.color = color[1]; list.add(bg);}
+    private void shiftSpans(int from, int shift) {
+        for (int i = from; i < spanCount; i++) {
+            spanList[i * SPAN_FIELDS + SPAN_START] += shift;
+            spanList[i * SPAN_FIELDS + SPAN_END] += shift;
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
-    // output of parseColors()
-    private StringBuffer out;                                   // printable characters
-    private ArrayList<Span> spanList = new ArrayList<>();       // list of spans in “out”
-
     // working vars of parseColor()
     private String msg;                                         // text currently being parsed by parseColors
     private int msgLength;
     private int index;                                          // parsing position in this
-    private Span[] spans = new Span[6];                         // list of currently open spans
+    private int firstSpan;                                      // first span of the text being parsed
 
-    // this Span can be easily translated into android's spans (except REVERSE)
-    public static class Span {
+    // currently open spans, by type
+    private final boolean[] open = new boolean[6];
+    private final int[] openStart = new int[6];
+    private final int[] openColor = new int[6];
+
+    // types of spans. these can be easily translated into android's spans (except REVERSE)
+    public final static class Span {
         final static public int BOLD =      0x00;
         final static public int UNDERLINE = 0x01;
         final static        int REVERSE =   0x02;
         final static public int ITALIC =    0x03;
         final static public int FGCOLOR =   0x04;
         final static public int BGCOLOR =   0x05;
-        public int start;
-        public int end;
-        public int type;
-        public int color;
+
+        private Span() {}
     }
 
     private char getChar() {
@@ -190,47 +252,42 @@ public class Color {
         return msg.charAt(index);
     }
 
-    /** adds a new span to the temporary span list
+    /** opens a new span of the given type,
      ** closing a similar span if it's been open and,
      ** if possible, extending a recently closed span */
     private void addSpan(int type) {addSpan(type, -1);}
     private void addSpan(int type, int color) {
         finalizeSpan(type);
         int pos = out.length();
+        int start = pos;
         // get the old span if the same span is ending at this same spot
-        // if found, remove it from the list
-        Span span = null;
-        boolean found = false;
-        for (Iterator<Span> it = spanList.iterator(); it.hasNext();) {
-            span = it.next();
-            if (span.end == pos && span.type == type && span.color == color) {
-                it.remove();
-                found = true;
+        // if found, remove it from the list and reopen it. spans are put in the list in the order
+        // of their ends, so only the last few spans need to be looked at
+        for (int i = spanCount - 1; i >= firstSpan; i--) {
+            int offset = i * SPAN_FIELDS;
+            if (spanList[offset + SPAN_END] != pos) break;
+            if (spanList[offset + SPAN_TYPE] == type && spanList[offset + SPAN_COLOR] == color) {
+                start = spanList[offset + SPAN_START];
+                System.arraycopy(spanList, offset + SPAN_FIELDS, spanList, offset,
+                        (spanCount - i - 1) * SPAN_FIELDS);
+                spanCount--;
                 break;
             }
         }
-        // no old span found, make new one
-        if (!found) {
-            span = new Span();
-            span.type = type;
-            span.start = pos;
-            span.color = color;
-        }
-        // put it into temporary list
-        spans[type] = span;
+        open[type] = true;
+        openStart[type] = start;
+        openColor[type] = color;
     }
 
-    /** takes a span from the temporary span list and put it in the output list
+    /** finishes an open span, putting it in the output list
      ** if span is size 0, simply discards it */
     private void finalizeSpan(int type) {
-        Span span = spans[type];
-        if (span != null) {
-            spans[type] = null;
-            span.end = out.length();
-            if (span.start != span.end) {
-                if (DEBUG) logger.debug("finalizeSpan(...): type={}, start={}, end={}, color={}", span.type, span.start, span.end, span.color);
-                spanList.add(span);
-            }
+        if (!open[type]) return;
+        open[type] = false;
+        int end = out.length();
+        if (openStart[type] != end) {
+            if (DEBUG) logger.debug("finalizeSpan(...): type={}, start={}, end={}, color={}", type, openStart[type], end, openColor[type]);
+            appendSpan(openStart[type], end, type, openColor[type]);
         }
     }
 
@@ -337,17 +394,23 @@ public class Color {
 
     // see https://weechat.org/files/doc/stable/weechat_dev.en.html#color_codes_in_strings
     // takes text as input
-    // sets out and spanList
+    // sets the output and the spans. the returned builder is reused, see above
     public CharSequence parseColors(String msg) {
+        out.setLength(0);
+        spanCount = 0;
+        parseColorsInto(msg);
+        return out;
+    }
+
+    // appends the printable characters of msg to the output, and its spans to the span list
+    private void parseColorsInto(String msg) {
         if (DEBUG) logger.debug("parseColors({})", msg);
+        if (msg == null) return;
 
         this.msg = msg;
         this.msgLength = msg.length();
         index = 0;
-        out = new StringBuffer();
-        spanList.clear();
-
-        if (msg == null) return out;
+        firstSpan = spanCount;
 
         char c;
         while (index < msg.length()) {
@@ -393,9 +456,10 @@ public class Color {
                     break;
                 default:
                     out.append(c);      // wow, we've got a printable character!
+                    if (findingUrlCandidates) urlCandidates.feed(c);
             }
         }
         for (int i = 0; i <= 5; i++) finalizeSpan(i);
-        return out;
+        this.msg = null;
     }
 }
@@ -2,6 +2,7 @@ package com.ubergeek42.weechat
 
 import java.security.cert.X509Certificate
 import javax.net.ssl.HostnameVerifier
+import javax.net.ssl.SSLContext
 import javax.net.ssl.SSLSocketFactory
 
 
@@ -12,10 +13,12 @@ interface RememberingTrustManager {
 
 
 class SslAxolotl(
-    val sslSocketFactory: SSLSocketFactory,
+    val sslContext: SSLContext,
     val rememberingTrustManager: RememberingTrustManager,
     val hostnameVerifier: HostnameVerifier,
 ) {
+    val sslSocketFactory: SSLSocketFactory get() = sslContext.socketFactory
+
     class ExceptionWrapper(
         val lastServerOfferedCertificateChain: Array<X509Certificate>?,
         val lastAuthType: String?,
@@ -34,4 +37,12 @@ fun <T> SslAxolotl.wrapExceptions(block: () -> T): T {
             exception
         )
     }
-}
\ No newline at end of file
+}
+
+
+// Java can't throw ExceptionWrapper from methods that don't declare it, so it uses this instead
+fun interface ThrowingRunnable {
+    @Throws(Exception::class) fun run()
+}
+
+fun SslAxolotl.runWrappingExceptions(block: ThrowingRunnable) = wrapExceptions { block.run() }
@@ -0,0 +1,28 @@
+package com.ubergeek42.weechat
+
+import java.util.Locale
+import java.util.regex.PatternSyntaxException
+
+
+// makes a function that tells whether a string contains the text, or, if using regex, has a match
+// of it. if not case sensitive, the text is looked for in both the upper and the lower case
+@Throws(PatternSyntaxException::class)
+fun makeTextMatcher(text: String, caseSensitive: Boolean, regex: Boolean, locale: Locale):
+        (String) -> Boolean {
+    return if (regex) {
+        val flags = if (caseSensitive) emptySet() else setOf(RegexOption.IGNORE_CASE)
+        text.toRegex(flags)::containsMatchIn
+    } else {
+        if (caseSensitive) {
+            { string -> string.contains(text) }
+        } else {
+            val textUpper = text.uppercase(locale)
+            val textLower = text.lowercase(locale);
+
+            { string ->
+                string.uppercase(locale).contains(textUpper) ||
+                        string.lowercase(locale).contains(textLower)
+            }
+        }
+    }
+}
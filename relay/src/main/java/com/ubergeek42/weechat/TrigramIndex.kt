@@ -0,0 +1,321 @@
+package com.ubergeek42.weechat
+
+import java.util.BitSet
+import java.util.Locale
+
+
+// an index of texts by the sequences of three characters they contain. the texts are identified by
+// ids, which must be added in ascending order and can be removed from the start. find() returns
+// the ids of the texts that might contain the text that makes the given matcher match, see
+// makeTextMatcher. all such texts are found, but not all found texts contain it, so the caller is
+// to check the found texts with the matcher.
+//
+// characters are indexed case-folded, so that the index works for both case sensitive and case
+// insensitive search. for the latter, the case of a string depends on the locale and sometimes on
+// the neighbouring characters, which is not something that a character-wise index can reproduce;
+// texts that contain such characters are always found. the class is not thread safe
+class TrigramIndex(private val locale: Locale) {
+    private var postings = PostingsMap()
+    private val special = Postings()        // ids of texts with characters that can't be folded
+
+    private var first = 0                   // ids before this one are removed
+    private var compactedFirst = 0          // value of first during the last compaction
+    private var last = -1                   // last added id
+
+    fun add(id: Int, text: String) {
+        if (id <= last) throw IllegalArgumentException("id: $id, last: $last")
+        last = id
+
+        var a = ' '
+        var b = ' '
+        for ((i, c) in text.withIndex()) {
+            if (isSpecial(c)) special.add(id)
+            val folded = fold(c)
+            if (i >= 2) postings.getOrAdd(trigram(a, b, folded)).add(id)
+            a = b
+            b = folded
+        }
+    }
+
+    // the postings of removed ids are dropped once there are about as many of them as there are
+    // of the ids that are still around, so this takes amortized constant time
+    fun removeBefore(id: Int) {
+        if (id <= first) return
+        first = id
+        if (first - compactedFirst >= (last + 1 - first).coerceAtLeast(MIN_COMPACTION)) {
+            compactedFirst = first
+            postings = postings.compact(first)
+            special.removeBefore(first)
+        }
+    }
+
+    fun clear() {
+        postings = PostingsMap()
+        special.removeBefore(Int.MAX_VALUE)
+        first = 0
+        compactedFirst = 0
+        last = -1
+    }
+
+    // returns the ids in ascending order, or null if the index can't narrow down the search, in
+    // which case all texts should be checked. the parameters are those of makeTextMatcher
+    fun find(text: String, caseSensitive: Boolean, regex: Boolean): IntArray? {
+        val literals = if (regex) {
+            getRequiredLiterals(text).flatMap { it.splitAt(::isSpecial) }
+        } else {
+            if (!caseSensitive && text.any(::isSpecial)) return null
+            listOf(text)
+        }
+
+        val lists = ArrayList<Postings?>()
+        for (literal in literals) {
+            for (i in 2 until literal.length) {
+                lists.add(postings[trigram(fold(literal[i - 2]), fold(literal[i - 1]), fold(literal[i]))])
+            }
+        }
+        if (lists.isEmpty()) return null
+
+        var ids = if (lists.any { it == null }) IntArray(0) else intersect(lists.map { it!! })
+        if (!regex && !caseSensitive) ids = union(ids, special.idsFrom(first))
+        return ids
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private fun intersect(lists: List<Postings>): IntArray {
+        val sorted = lists.sortedBy { it.size }
+        var ids = sorted[0].idsFrom(first)
+        for (i in 1 until sorted.size) {
+            if (ids.isEmpty()) break
+            ids = ids.filter { sorted[i].contains(it) }.toIntArray()
+        }
+        return ids
+    }
+
+    // characters that either are not always converted to a single character when changing the
+    // case of a string, or depend on the neighbouring characters when doing so, such as sigma or
+    // the combining dot above; also surrogates, as a single surrogate can't be folded
+    private val checked = BitSet()
+    private val specials = BitSet()
+
+    private fun isSpecial(c: Char): Boolean {
+        if (c < '\u0080') return false
+        val i = c.code
+        if (!checked[i]) {
+            checked.set(i)
+            val string = c.toString()
+            if (Character.isSurrogate(c) ||
+                    Character.getType(c) == Character.NON_SPACING_MARK.toInt() ||
+                    c in "Σσς" ||
+                    string.uppercase(locale).length != 1 ||
+                    string.lowercase(locale).length != 1) specials.set(i)
+        }
+        return specials[i]
+    }
+}
+
+
+private const val MIN_COMPACTION = 1024
+
+
+// two characters are folded to the same one if they are equal ignoring case,
+// including in the sense of the case insensitive regular expressions
+private fun fold(c: Char) = Character.toLowerCase(Character.toUpperCase(c))
+
+private fun trigram(a: Char, b: Char, c: Char) =
+        (a.code.toLong() shl 32) or (b.code.toLong() shl 16) or c.code.toLong()
+
+
+private fun String.splitAt(predicate: (Char) -> Boolean): List<String> {
+    val parts = ArrayList<String>()
+    var start = 0
+    for (i in 0..length) {
+        if (i == length || predicate(this[i])) {
+            if (i > start) parts.add(substring(start, i))
+            start = i + 1
+        }
+    }
+    return parts
+}
+
+
+// trigrams to their postings, using open addressing, as there are many trigrams
+// and there's no need to box them
+private class PostingsMap(capacity: Int = 1024) {
+    private var keys = LongArray(capacity)
+    private var values = arrayOfNulls<Postings>(capacity)
+    private var size = 0
+
+    private fun slotOf(key: Long): Int {
+        val mask = keys.size - 1
+        var slot = (key * -0x61c8864680b583ebL ushr 40).toInt() and mask
+        while (values[slot] != null && keys[slot] != key) slot = (slot + 1) and mask
+        return slot
+    }
+
+    operator fun get(key: Long) = values[slotOf(key)]
+
+    fun getOrAdd(key: Long): Postings {
+        val slot = slotOf(key)
+        values[slot]?.let { return it }
+        if ((size + 1) * 2 > keys.size) {
+            grow()
+            return getOrAdd(key)
+        }
+        size++
+        keys[slot] = key
+        return Postings().also { values[slot] = it }
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldValues = values
+        keys = LongArray(oldKeys.size * 2)
+        values = arrayOfNulls(oldKeys.size * 2)
+        for (i in oldKeys.indices) {
+            val value = oldValues[i] ?: continue
+            val slot = slotOf(oldKeys[i])
+            keys[slot] = oldKeys[i]
+            values[slot] = value
+        }
+    }
+
+    // returns a new map without the ids before the given one
+    fun compact(first: Int): PostingsMap {
+        val map = PostingsMap(keys.size)
+        for (i in keys.indices) {
+            val value = values[i] ?: continue
+            value.removeBefore(first)
+            if (value.size > 0) {
+                val slot = map.slotOf(keys[i])
+                map.keys[slot] = keys[i]
+                map.values[slot] = value
+                map.size++
+            }
+        }
+        return map
+    }
+}
+
+
+// ascending ids, possibly with some ids that have been removed at the start
+private class Postings {
+    private var ids = IntArray(4)
+    var size = 0
+        private set
+
+    fun add(id: Int) {
+        if (size > 0 && ids[size - 1] == id) return
+        if (size == ids.size) ids = ids.copyOf(size * 2)
+        ids[size++] = id
+    }
+
+    // index of the first id that is not less than the given one
+    private fun lowerBound(id: Int): Int {
+        var low = 0
+        var high = size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (ids[middle] < id) low = middle + 1 else high = middle
+        }
+        return low
+    }
+
+    fun contains(id: Int) = lowerBound(id).let { it < size && ids[it] == id }
+
+    fun idsFrom(id: Int): IntArray = ids.copyOfRange(lowerBound(id), size)
+
+    fun removeBefore(id: Int) {
+        val from = lowerBound(id)
+        ids.copyInto(ids, 0, from, size)
+        size -= from
+    }
+}
+
+
+private fun union(a: IntArray, b: IntArray): IntArray {
+    if (a.isEmpty()) return b
+    if (b.isEmpty()) return a
+    val result = IntArray(a.size + b.size)
+    var i = 0
+    var j = 0
+    var size = 0
+    while (i < a.size || j < b.size) {
+        val id = when {
+            j == b.size || i < a.size && a[i] < b[j] -> a[i++]
+            i == a.size || b[j] < a[i] -> b[j++]
+            else -> { j++; a[i++] }
+        }
+        result[size++] = id
+    }
+    return result.copyOf(size)
+}
+
+
+// escapes that stand for a single character or a class of characters, or match an empty string.
+// other escapes can be followed by arguments, such as \x41, or refer to groups
+private const val SIMPLE_ESCAPES = "dDsSwWhHvVRXbBAGZztnrfae"
+
+
+// returns the parts of a regular expression that are matched literally and can't be skipped. for
+// simplicity, this gives up on alternation, groups, quotation and escapes with arguments,
+// returning nothing
+internal fun getRequiredLiterals(pattern: String): List<String> {
+    val literals = ArrayList<String>()
+    val literal = StringBuilder()
+
+    fun endLiteral() {
+        if (literal.isNotEmpty()) literals.add(literal.toString())
+        literal.setLength(0)
+    }
+
+    var i = 0
+    while (i < pattern.length) {
+        when (val c = pattern[i]) {
+            '|', '(', ')' -> return emptyList()
+            '\\' -> {
+                val next = pattern.getOrNull(i + 1) ?: return emptyList()
+                when {
+                    !next.isLetterOrDigit() -> literal.append(next)
+                    next in SIMPLE_ESCAPES -> endLiteral()
+                    else -> return emptyList()
+                }
+                i++
+            }
+            '[' -> {
+                endLiteral()
+                i = skipCharacterClass(pattern, i) ?: return emptyList()
+            }
+            '?', '*', '{' -> {
+                if (literal.isNotEmpty()) literal.setLength(literal.length - 1)
+                endLiteral()
+                if (c == '{') i = pattern.indexOf('}', i).takeIf { it >= 0 } ?: return emptyList()
+            }
+            '+', '.', '^', '$' -> endLiteral()
+            else -> literal.append(c)
+        }
+        i++
+    }
+
+    endLiteral()
+    return literals
+}
+
+
+// given the index of the opening bracket, returns the index of the closing one
+private fun skipCharacterClass(pattern: String, start: Int): Int? {
+    var depth = 0
+    var i = start
+    while (i < pattern.length) {
+        when (pattern[i]) {
+            '\\' -> i++
+            '[' -> depth++
+            ']' -> {
+                val isFirst = i == start + 1 || i == start + 2 && pattern[start + 1] == '^'
+                if (!isFirst && --depth == 0) return i
+            }
+        }
+        i++
+    }
+    return null
+}
@@ -0,0 +1,182 @@
+package com.ubergeek42.weechat
+
+
+// urls can't contain these, see badCharRange below
+fun isUrlBreakingChar(c: Char) = c <= '\u0020' || c in '\u007f'..'\u00a0' || c >= '\ufff0'
+
+
+// finds the parts of text that might contain urls: runs of characters that urls can contain, if
+// they contain "://" or "www." in any case. the characters are fed one by one, so that this can be
+// done while the text is being parsed for colors. the url regex then only has to look at these.
+// as these parts are delimited by characters that urls can't contain, the result is the same as
+// if the regex was run on the whole text. this also holds if some of the characters are later
+// replaced with spaces
+class UrlCandidates {
+    private var ranges = IntArray(8)
+    var count = 0
+        private set
+
+    private var position = 0
+    private var partStart = 0
+    private var isCandidate = false
+    private var last = 0            // last three characters of the part, lowercase
+    private var beforeLast = 0
+    private var beforeBeforeLast = 0
+
+    fun getStart(i: Int) = ranges[i * 2]
+    fun getEnd(i: Int) = ranges[i * 2 + 1]
+
+    fun reset() {
+        count = 0
+        position = 0
+        partStart = 0
+        isCandidate = false
+        last = 0
+        beforeLast = 0
+        beforeBeforeLast = 0
+    }
+
+    fun feed(c: Char) {
+        if (isUrlBreakingChar(c)) {
+            finish()
+            partStart = position + 1
+            last = 0
+            beforeLast = 0
+            beforeBeforeLast = 0
+        } else {
+            if (!isCandidate) {
+                isCandidate = (c == '/' && last == '/'.code && beforeLast == ':'.code) ||
+                        (c == '.' && last == 'w'.code && beforeLast == 'w'.code && beforeBeforeLast == 'w'.code)
+            }
+            beforeBeforeLast = beforeLast
+            beforeLast = last
+            last = if (c in 'A'..'Z') c.code or 0x20 else c.code
+        }
+        position++
+    }
+
+    // must be called after the last character
+    fun finish() {
+        if (!isCandidate) return
+        isCandidate = false
+        if (count * 2 == ranges.size) ranges = ranges.copyOf(ranges.size * 2)
+        ranges[count * 2] = partStart
+        ranges[count * 2 + 1] = position
+        count++
+    }
+
+    fun scan(input: CharSequence) = apply {
+        reset()
+        for (i in input.indices) feed(input[i])
+        finish()
+    }
+}
+
+
+// calls action with the start and the end of each url, running the regex only on the candidates
+fun findUrls(input: CharSequence, candidates: UrlCandidates, action: (start: Int, end: Int) -> Unit) {
+    if (candidates.count == 0) return
+    val matcher = URL_PATTERN.matcher(input)
+    for (i in 0 until candidates.count) {
+        matcher.region(candidates.getStart(i), candidates.getEnd(i))
+        while (matcher.find()) action(matcher.start(), matcher.end())
+    }
+}
+
+fun findUrls(input: CharSequence, action: (start: Int, end: Int) -> Unit) =
+        findUrls(input, UrlCandidates().scan(input), action)
+
+
+// 00-1f     c0 control chars
+// 20        space
+// 21-2f     !"#$%&'()*+,-./
+// 30-39         0123456789
+// 3a-40     :;<=>?@
+// 41-5a         ABCDEFGHIJKLMNOPQRSTUVWXYZ
+// 5b-60     [\]^_`
+// 61-7a         abcdefghijklmnopqrstuvwxyz
+// 7b-7e     {|}~
+// 7f        del
+// 80-9f     c1 control chars
+// a0        nbsp
+@Suppress("RegExpRepeatedSpace", "SpellCheckingInspection", "RegExpRedundantEscape")
+val URL = run {
+    val purePunycodeChar = """[a-z0-9]"""   // not mixed with ascii
+    val badCharRange = """\x00-\x20\x7f-\xa0\ufff0-\uffff\s"""
+    val goodChar = """[^$badCharRange]"""
+    val goodHostChar = """[^\x00-\x2f\x3a-\x40\x5b-\x60\x7b-\xa0\ufff0-\uffff…]"""
+    val goodTldChar = """[^\x00-\x40\x5b-\x60\x7b-\xa0\ufff0-\uffff…]"""
+
+    val ipv4Segment = """(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)"""
+    val ipv4 = """(?:$ipv4Segment\.){3} $ipv4Segment"""
+
+    val ipv6Segment = """[0-9A-Fa-f]{1,4}"""
+    val ipv6 = """
+        \[
+        (?:
+                                                         (?:$ipv6Segment:){7} $ipv6Segment
+            |                                         :: (?:$ipv6Segment:){6} $ipv6Segment
+            | (?:                      $ipv6Segment)? :: (?:$ipv6Segment:){5} $ipv6Segment
+            | (?:(?:$ipv6Segment:)?    $ipv6Segment)? :: (?:$ipv6Segment:){4} $ipv6Segment
+            | (?:(?:$ipv6Segment:){0,2}$ipv6Segment)? :: (?:$ipv6Segment:){3} $ipv6Segment
+            | (?:(?:$ipv6Segment:){0,3}$ipv6Segment)? :: (?:$ipv6Segment:){2} $ipv6Segment
+            | (?:(?:$ipv6Segment:){0,4}$ipv6Segment)? :: (?:$ipv6Segment:)    $ipv6Segment
+            | (?:(?:$ipv6Segment:){0,5}$ipv6Segment)? ::                      $ipv6Segment
+            | (?:(?:$ipv6Segment:){0,6}$ipv6Segment)? ::
+        )
+        \]
+    """
+
+    // domain name includes non-standard single-letter top level domains and signle label domains;
+    // also, the fqdn dot, but only if followed by url-ish things: / or :123
+    val hostSegment = """$goodHostChar+(?:-+$goodHostChar+)*"""
+    val tld = """(?:$goodTldChar{1,63}?|xn--$purePunycodeChar+)"""
+    val domainName = """(?:$hostSegment\.)*$tld (?:\.(?=/|:\d))?"""
+    val optionalUserInfo = """(?:[^$badCharRange@]*@)?"""
+
+    """
+    # url must be preceded by a word boundary
+    \b
+    
+    (?:
+        [A-Za-z+]+://
+        $optionalUserInfo
+        (?:$domainName|$ipv4|$ipv6)
+    |
+        [Ww]{3}\.
+        $domainName
+    )
+
+    # optional port
+    (?::\d{1,5})?
+
+    # / or ? and the rest
+    (?:
+        [/?]
+        
+        # hello<world> in "hello<world>>", but parentheses
+        (?:
+            [^$badCharRange(]*
+            \(
+            [^$badCharRange)]+
+            \)
+        )*
+        
+        # any string, non-greedy!
+        $goodChar*?
+    )?
+
+    # url must be directly followed by:
+    (?=
+        # some possible punctuation
+        [\]>,.…)!?:'"”’@]*
+        
+        # and the end of string, or a space or another non-url character
+        (?:$|[$badCharRange])
+    )
+    """.toRegex(RegexOption.COMMENTS)
+}
+
+
+// must come after URL
+private val URL_PATTERN = URL.toPattern()
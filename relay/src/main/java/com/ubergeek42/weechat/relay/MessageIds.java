@@ -0,0 +1,159 @@
+package com.ubergeek42.weechat.relay;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// message ids that are known in advance: the events that weechat sends, and the ids of the
+// requests of this client. while a message is being decoded, these are recognized by their bytes
+// and turned into small codes, so that no strings are made for them, see RelayMessage.getIdCode().
+// ids that consist of a few digits are taken for one-off requests, see MessageRouter, and are
+// turned into codes as well
+public final class MessageIds {
+    public final static int UNKNOWN = -1;
+
+    public final static int BUFFER_OPENED = 0;
+    public final static int BUFFER_TYPE_CHANGED = 1;
+    public final static int BUFFER_MOVED = 2;
+    public final static int BUFFER_MERGED = 3;
+    public final static int BUFFER_UNMERGED = 4;
+    public final static int BUFFER_HIDDEN = 5;
+    public final static int BUFFER_UNHIDDEN = 6;
+    public final static int BUFFER_RENAMED = 7;
+    public final static int BUFFER_TITLE_CHANGED = 8;
+    public final static int BUFFER_LOCALVAR_ADDED = 9;
+    public final static int BUFFER_LOCALVAR_CHANGED = 10;
+    public final static int BUFFER_LOCALVAR_REMOVED = 11;
+    public final static int BUFFER_CLOSING = 12;
+    public final static int BUFFER_CLEARED = 13;
+    public final static int BUFFER_LINE_ADDED = 14;
+    public final static int NICKLIST_EVENT = 15;
+    public final static int NICKLIST_DIFF = 16;
+    public final static int PONG = 17;
+    public final static int UPGRADE = 18;
+    public final static int UPGRADE_ENDED = 19;
+    public final static int HANDSHAKE = 20;
+    public final static int LIST_BUFFERS = 21;
+    public final static int RENUMBER = 22;
+    public final static int LAST_LINES = 23;
+    public final static int LAST_READ_LINES = 24;
+    public final static int HOTLIST = 25;
+    public final static int NICKLIST = 26;
+
+    final private static String[] NAMES = {
+            "_buffer_opened",
+            "_buffer_type_changed",
+            "_buffer_moved",
+            "_buffer_merged",
+            "_buffer_unmerged",
+            "_buffer_hidden",
+            "_buffer_unhidden",
+            "_buffer_renamed",
+            "_buffer_title_changed",
+            "_buffer_localvar_added",
+            "_buffer_localvar_changed",
+            "_buffer_localvar_removed",
+            "_buffer_closing",
+            "_buffer_cleared",
+            "_buffer_line_added",
+            "_nicklist",
+            "_nicklist_diff",
+            "_pong",
+            "_upgrade",
+            "_upgrade_ended",
+            "handshake",
+            "listbuffers",
+            "renumber",
+            "last_lines",
+            "last_read_lines",
+            "hotlist",
+            "nicklist",
+    };
+
+    public final static int COUNT = NAMES.length;
+
+    // codes of one-off ids are ONE_OFF + the id
+    final static int ONE_OFF = 1 << 30;
+    final static int MAX_ONE_OFF_ID = 999_999_999;
+    final private static int MAX_ONE_OFF_DIGITS = 9;
+
+    final private static byte[][] BYTES = new byte[COUNT][];
+    final private static HashMap<String, Integer> CODES = new HashMap<>();
+
+    // codes by the hash of the bytes of their names, in an open addressing table. -1 is empty
+    final private static int[] TABLE = new int[Integer.highestOneBit(COUNT) * 4];
+
+    static {
+        Arrays.fill(TABLE, UNKNOWN);
+        for (int code = 0; code < COUNT; code++) {
+            BYTES[code] = NAMES[code].getBytes(StandardCharsets.UTF_8);
+            CODES.put(NAMES[code], code);
+            int slot = hash(BYTES[code], 0, BYTES[code].length);
+            while (TABLE[slot] != UNKNOWN) slot = (slot + 1) & (TABLE.length - 1);
+            TABLE[slot] = code;
+        }
+    }
+
+    private MessageIds() {}
+
+    public static boolean isOneOff(int code) {
+        return code >= ONE_OFF;
+    }
+
+    public static int oneOffIdOf(int code) {
+        return code - ONE_OFF;
+    }
+
+    // the id of a known or a one-off code, or null
+    public static String nameOf(int code) {
+        if (code >= 0 && code < COUNT) return NAMES[code];
+        if (isOneOff(code)) return String.valueOf(oneOffIdOf(code));
+        return null;
+    }
+
+    public static int codeOf(String id) {
+        if (id == null) return UNKNOWN;
+        Integer code = CODES.get(id);
+        if (code != null) return code;
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return parseOneOffId(bytes, 0, bytes.length);
+    }
+
+    // the code of the id in the given bytes, or UNKNOWN
+    public static int codeOf(byte[] data, int offset, int length) {
+        if (length == 0) return UNKNOWN;
+        if (data[offset] >= '0' && data[offset] <= '9') return parseOneOffId(data, offset, length);
+
+        int slot = hash(data, offset, length);
+        for (int code; (code = TABLE[slot]) != UNKNOWN; slot = (slot + 1) & (TABLE.length - 1)) {
+            if (equals(BYTES[code], data, offset, length)) return code;
+        }
+        return UNKNOWN;
+    }
+
+    private static int parseOneOffId(byte[] data, int offset, int length) {
+        if (length == 0 || length > MAX_ONE_OFF_DIGITS) return UNKNOWN;
+        if (length > 1 && data[offset] == '0') return UNKNOWN;     // would not read back the same
+        int id = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] < '0' || data[i] > '9') return UNKNOWN;
+            id = id * 10 + (data[i] - '0');
+        }
+        return ONE_OFF + id;
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) hash = hash * 31 + data[i];
+        hash ^= hash >>> 16;
+        return hash & (TABLE.length - 1);
+    }
+
+    private static boolean equals(byte[] name, byte[] data, int offset, int length) {
+        if (name.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name[i] != data[offset + i]) return false;
+        }
+        return true;
+    }
+}
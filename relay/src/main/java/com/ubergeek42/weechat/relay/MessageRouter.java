@@ -0,0 +1,100 @@
+package com.ubergeek42.weechat.relay;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// finds handlers for messages by their ids. handlers for the ids known in advance are kept in an
+// array indexed by their codes, see MessageIds, so that finding them takes neither a string nor
+// a hash lookup. one-off handlers get ids that are indexes into another array, and are removed
+// once found. the handlers for other ids are looked up by strings. messages are counted by id.
+// can be used from any thread
+public class MessageRouter<H> {
+    final private AtomicReferenceArray<H> handlers = new AtomicReferenceArray<>(MessageIds.COUNT);
+    final private ConcurrentHashMap<String, H> otherHandlers = new ConcurrentHashMap<>();
+
+    // guarded by this. one-off handlers are kept by id modulo the size of the array. ids are not
+    // reused, so that a late response to a request doesn't find the handler of another one. a slot
+    // is only taken again after as many other requests as there are slots; a handler that is still
+    // there by then has missed its response, e.g. as its request was dropped with no connection,
+    // and is dropped in turn
+    final private static int ONE_OFF_SLOTS = 1024;
+    final private Object[] oneOffHandlers = new Object[ONE_OFF_SLOTS];
+    final private int[] oneOffIds = new int[ONE_OFF_SLOTS];
+    private int nextOneOffId = 0;
+    private long unansweredOneOffs = 0;
+
+    // the counts of the known ids by code, followed by the counts of one-off and other ids
+    final private AtomicLongArray counts = new AtomicLongArray(MessageIds.COUNT + 2);
+    final private static int ONE_OFF_COUNT = MessageIds.COUNT;
+    final private static int OTHER_COUNT = MessageIds.COUNT + 1;
+
+    public void add(String id, H handler) {
+        int code = MessageIds.codeOf(id);
+        if (code >= 0 && code < MessageIds.COUNT) handlers.set(code, handler);
+        else otherHandlers.put(id, handler);
+    }
+
+    // returns the id of the request that the handler is waiting for
+    public synchronized String addOneOff(H handler) {
+        int id = nextOneOffId;
+        nextOneOffId = id == MessageIds.MAX_ONE_OFF_ID ? 0 : id + 1;
+
+        int slot = id & (ONE_OFF_SLOTS - 1);
+        if (oneOffHandlers[slot] != null) unansweredOneOffs++;
+        oneOffHandlers[slot] = handler;
+        oneOffIds[slot] = id;
+        return String.valueOf(id);
+    }
+
+    public synchronized void clear() {
+        for (int code = 0; code < MessageIds.COUNT; code++) handlers.set(code, null);
+        otherHandlers.clear();
+        Arrays.fill(oneOffHandlers, null);
+    }
+
+    // returns null if there is no handler
+    public H find(RelayMessage message) {
+        int code = message.getIdCode();
+        if (code >= 0 && code < MessageIds.COUNT) {
+            counts.incrementAndGet(code);
+            return handlers.get(code);
+        } else if (MessageIds.isOneOff(code)) {
+            counts.incrementAndGet(ONE_OFF_COUNT);
+            return takeOneOff(MessageIds.oneOffIdOf(code));
+        } else {
+            counts.incrementAndGet(OTHER_COUNT);
+            String id = message.getID();
+            return id == null ? null : otherHandlers.get(id);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized H takeOneOff(int id) {
+        int slot = id & (ONE_OFF_SLOTS - 1);
+        if (oneOffIds[slot] != id) return null;
+        H handler = (H) oneOffHandlers[slot];
+        oneOffHandlers[slot] = null;
+        return handler;
+    }
+
+    // the number of messages by id, for the ids that were seen
+    public Map<String, Long> getCounts() {
+        LinkedHashMap<String, Long> result = new LinkedHashMap<>();
+        for (int code = 0; code < MessageIds.COUNT; code++) {
+            long count = counts.get(code);
+            if (count > 0) result.put(MessageIds.nameOf(code), count);
+        }
+        if (counts.get(ONE_OFF_COUNT) > 0) result.put("(one-off)", counts.get(ONE_OFF_COUNT));
+        if (counts.get(OTHER_COUNT) > 0) result.put("(other)", counts.get(OTHER_COUNT));
+        return result;
+    }
+
+    // the number of one-off handlers that were dropped without having been found
+    public synchronized long getUnansweredOneOffCount() {
+        return unansweredOneOffs;
+    }
+}
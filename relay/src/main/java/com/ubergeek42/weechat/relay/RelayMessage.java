@@ -15,17 +15,16 @@
  ******************************************************************************/
 package com.ubergeek42.weechat.relay;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.zip.InflaterInputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ubergeek42.weechat.relay.protocol.Data;
+import com.ubergeek42.weechat.relay.protocol.ByteBufferData;
 import com.ubergeek42.weechat.relay.protocol.RelayObject;
 
 /**
@@ -38,13 +37,33 @@ public class RelayMessage {
     final private static boolean DEBUG = false;
     private static Logger logger = LoggerFactory.getLogger("RelayMessage");
 
+    // 4 bytes of length and 1 byte of compression flag
+    final private static int HEADER_LENGTH = 5;
+
+    // initial guess of the size of inflated data; relay messages usually compress 5-10 times
+    final private static int INFLATE_RATIO = 6;
+
     private ArrayList<RelayObject> objects = new ArrayList<RelayObject>();
     private boolean compressed = false;
     private int length = 0;
     private String id = null;
+    private int idCode = MessageIds.UNKNOWN;
+    private boolean retainsData = false;
 
     public RelayMessage(byte[] data) {
-        Data wd = new Data(data); // Load the data into our consumer
+        this(data, data.length, null);
+    }
+
+    /**
+     * @param size
+     *            - Size of the message in data, which can be larger than the message
+     * @param inflater
+     *            - Inflater to reuse for compressed messages, e.g. one per connection. Must not be
+     *            used by other threads at the same time. If null, a new one is made and released.
+     */
+    public RelayMessage(byte[] data, int size, Inflater inflater) {
+        // Load the data into our consumer
+        ByteBufferData wd = new ByteBufferData(ByteBuffer.wrap(data, 0, size));
 
         // Get total message length
         length = wd.getUnsignedInt();
@@ -55,40 +74,51 @@ public class RelayMessage {
             compressed = false;
         } else if (c == 0x01) {
             compressed = true;
+            boolean ownInflater = inflater == null;
+            if (ownInflater) inflater = new Inflater();
             try {
-                // System.out.println("[WMessage.constructor] Decompressing data");
-                ByteArrayOutputStream bout = new ByteArrayOutputStream();
-                InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(
-                        wd.getByteArray()));
-                byte b[] = new byte[256];
-                while (is.available() == 1) {
-                    int r = is.read(b);
-                    if (r < 0) {
-                        break;
-                    }
-                    bout.write(b, 0, r);
-                }
-                data = bout.toByteArray();
-                wd = new Data(data);
-                // System.out.format("[WMessage.constructor] Data size: %d/%d\n", length,
-                // data.length+5);// 5 is how much we've already read
-            } catch (IOException e) {
-                System.err.println("[WMessage.constructor] Failed to decompress data stream");
-                e.printStackTrace();
+                wd = new ByteBufferData(inflate(inflater, data, HEADER_LENGTH,
+                        size - HEADER_LENGTH));
+            } catch (DataFormatException e) {
+                throw new RuntimeException("[WMessage.constructor] Failed to decompress data stream", e);
+            } finally {
+                if (ownInflater) inflater.end();
             }
-
         } else {
             throw new RuntimeException("[WMessage.constructor] unknown compression type: "
                     + String.format("%02X", c));
         }
 
-        // Optional data element
-        id = wd.getString();
+        // Optional data element. known ids are only kept as codes
+        idCode = wd.getMessageIdCode();
+        if (idCode == MessageIds.UNKNOWN) id = wd.getString();
 
         // One or more objects at this point
         while (wd.empty() == false) {
             objects.add(wd.getObject());
         }
+
+        retainsData = !compressed && wd.retainsBuffer();
+    }
+
+    // Inflates straight into an array that is handed to the decoder as is. The array can't be
+    // reused for the next message, as hdata rows are decoded lazily from it
+    private static ByteBuffer inflate(Inflater inflater, byte[] data, int offset, int length)
+            throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+
+        byte[] out = new byte[Math.max(length * INFLATE_RATIO, 256)];
+        int size = 0;
+        while (!inflater.finished()) {
+            if (size == out.length) out = Arrays.copyOf(out, out.length * 2);
+            int read = inflater.inflate(out, size, out.length - size);
+            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Unexpected end of compressed data");
+            }
+            size += read;
+        }
+        return ByteBuffer.wrap(out, 0, size);
     }
 
     /**
@@ -109,9 +139,25 @@ public class RelayMessage {
      * @return The ID associated with the message
      */
     public String getID() {
+        if (id == null && idCode != MessageIds.UNKNOWN) id = MessageIds.nameOf(idCode);
         return this.id;
     }
 
+    /**
+     * @return The code of the ID, see {@link MessageIds}, or {@link MessageIds#UNKNOWN}
+     */
+    public int getIdCode() {
+        return idCode;
+    }
+
+    /**
+     * @return true if the objects of this message are still being decoded from the array it was
+     *         made from, in which case the array must not be reused while the message is in use
+     */
+    public boolean retainsData() {
+        return retainsData;
+    }
+
     /**
      * @return The set of objects in the message
      */
@@ -0,0 +1,27 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import com.ubergeek42.weechat.relay.RelayMessage;
+
+import java.io.IOException;
+
+// a connection that receives whole relay messages by itself and sends messages without blocking.
+// RelayConnection doesn't start reader and writer threads for these, so connect() can return
+// streams that are null
+public interface IMessageConnection extends IConnection {
+
+    interface Listener {
+        // called on a single thread, in the order of arrival
+        void onMessage(RelayMessage message);
+
+        // called at most once, after which no more messages arrive. not called after disconnect()
+        void onException(Exception e);
+    }
+
+    // called after connect() has returned, before any messages are sent
+    void start(Listener listener) throws IOException;
+
+    // can be called from any thread. the callback, if not null, is run after the message has been
+    // written to the socket, on the thread that wrote it; it should be quick. it is not run if the
+    // connection is closed before that
+    void send(String message, Runnable onWritten);
+}
@@ -0,0 +1,34 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import java.util.Locale;
+
+// counts the latencies of some events, such as the time it takes for a command to get written
+// to the socket after it has been sent. can be used from any thread
+public class LatencyStats {
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getAverageMillis() {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    @Override public synchronized String toString() {
+        return String.format(Locale.ROOT, "%d events, average %.2f ms, max %.2f ms",
+                count, getAverageMillis(), getMaxMillis());
+    }
+}
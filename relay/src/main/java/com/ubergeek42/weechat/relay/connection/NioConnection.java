@@ -0,0 +1,278 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import com.ubergeek42.weechat.SslAxolotl;
+import com.ubergeek42.weechat.SslUtilsKt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import static com.ubergeek42.weechat.relay.connection.RelayConnection.CONNECTION_TIMEOUT;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_TASK;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+
+// a plain or ssl connection that does all reading and writing on a single thread. the socket is
+// connected, and the ssl handshake is performed, in blocking mode in connect(). after that, the
+// selector thread reads whatever bytes have arrived into a direct buffer, decrypts them if needed
+// and frames them into messages; outgoing messages are queued and written by the same thread when
+// the socket is writable. compared to SimpleConnection, this saves the reader and the writer
+// threads, along with the wakeups of the latter
+public class NioConnection implements IMessageConnection {
+    final private static Logger logger = LoggerFactory.getLogger("NioConnection");
+
+    final private static int BUFFER_SIZE = 64 * 1024;
+    final private static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static int iterationCounter = 0;
+
+    final private String hostname;
+    final private int port;
+    final private SslAxolotl sslAxolotl;
+
+    final private SocketChannel channel;
+    final private OutgoingMessages outgoing = new OutgoingMessages();
+
+    private volatile Selector selector;
+    private volatile boolean closed = false;
+
+    private SSLEngine engine = null;
+    private ByteBuffer netIn, netOut;       // encrypted data. only used with ssl
+    private ByteBuffer appIn;               // received data, decrypted if using ssl
+    private ByteBuffer pending = null;      // outgoing data that wasn't written completely
+    private ArrayList<OutgoingMessages.Line> pendingLines = null;     // the lines of pending data
+
+    public NioConnection(String hostname, int port, SslAxolotl sslAxolotl) throws IOException {
+        this.hostname = hostname;
+        this.port = port;
+        this.sslAxolotl = sslAxolotl;
+        channel = SocketChannel.open();
+    }
+
+    @Override public Streams connect() throws IOException {
+        channel.socket().connect(new InetSocketAddress(hostname, port), CONNECTION_TIMEOUT);
+
+        if (sslAxolotl == null) {
+            appIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        } else {
+            SslUtilsKt.runWrappingExceptions(sslAxolotl, () -> {
+                engine = sslAxolotl.getSslContext().createSSLEngine(hostname, port);   // for SNI
+                engine.setUseClientMode(true);
+                netIn = ByteBuffer.allocateDirect(engine.getSession().getPacketBufferSize());
+                netOut = ByteBuffer.allocateDirect(engine.getSession().getPacketBufferSize());
+                appIn = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE,
+                        engine.getSession().getApplicationBufferSize()));
+                handshake();
+                if (!sslAxolotl.getHostnameVerifier().verify(hostname, engine.getSession()))
+                    throw new SSLPeerUnverifiedException("Cannot verify hostname: " + hostname);
+            });
+        }
+
+        channel.configureBlocking(false);
+        return new Streams(null, null);
+    }
+
+    @Override public void start(Listener listener) throws IOException {
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        new Utils.FriendlyThread("SelectorStream", iterationCounter++, () -> loop(listener)).start();
+    }
+
+    @Override public void send(String message, Runnable onWritten) {
+        if (!outgoing.add(message, onWritten)) return;      // the selector will get to it anyway
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
+    }
+
+    @Override public void disconnect() throws IOException {
+        closed = true;
+        channel.close();
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void loop(Listener listener) {
+        Utils.RelayMessageReader reader = new Utils.RelayMessageReader();
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            deliver(reader, listener);      // data that arrived along with the end of the handshake
+            while (!closed) {
+                boolean wantWrite = pending != null || !outgoing.isEmpty() ||
+                        (engine != null && engine.getHandshakeStatus() == NEED_WRAP);
+                key.interestOps(wantWrite ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+                selector.select();
+                if (closed) break;
+
+                // readyOps() is only updated for the selected keys
+                boolean selected = selector.selectedKeys().remove(key);
+                if (selected && key.isReadable()) read(reader, listener);
+                if ((selected && key.isWritable()) || !outgoing.isEmpty()) write();
+            }
+        } catch (Exception e) {
+            if (!closed) listener.onException(e);
+        } finally {
+            reader.close();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.warn("error while closing selector", e);
+            }
+        }
+    }
+
+    private void read(Utils.RelayMessageReader reader, Listener listener) throws IOException {
+        int read = channel.read(engine == null ? appIn : netIn);
+        if (read == -1) throw new Utils.StreamClosed();
+        boolean closedByServer = engine != null && !unwrap();
+        deliver(reader, listener);
+        if (closedByServer) throw new Utils.StreamClosed();
+    }
+
+    private void deliver(Utils.RelayMessageReader reader, Listener listener) throws IOException {
+        appIn.flip();
+        reader.feed(appIn, listener::onMessage);
+        appIn.clear();
+    }
+
+    // writes what can be written without blocking. with ssl, this also sends the data that the
+    // engine wants to send by itself, e.g. responses to key updates. the callbacks of the lines
+    // are run once all of their batch has been written
+    private void write() throws IOException {
+        while (true) {
+            if (pending != null) {
+                channel.write(pending);
+                if (pending.hasRemaining()) return;
+                pending = null;
+                if (pendingLines != null) {
+                    for (OutgoingMessages.Line line : pendingLines) {
+                        if (line.onWritten != null) line.onWritten.run();
+                    }
+                    pendingLines = null;
+                }
+            }
+
+            // everything that was sent since the last write is written at once
+            OutgoingMessages.Batch batch = outgoing.drainBatch();
+            ByteBuffer next = batch == null ? null : ByteBuffer.wrap(batch.text.getBytes(StandardCharsets.UTF_8));
+            pendingLines = batch == null ? null : batch.lines;
+            if (engine == null) {
+                if (next == null) return;
+                pending = next;
+            } else {
+                if (next == null) {
+                    if (engine.getHandshakeStatus() != NEED_WRAP) return;
+                    next = EMPTY;
+                }
+                pending = wrap(next);
+                if (!pending.hasRemaining()) {
+                    pending = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // decrypts as much of netIn as possible into appIn. returns false if the server has closed
+    // the ssl connection; the data that was received before that is still in appIn
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW: return true;     // a partial record; wait for more data
+                    case BUFFER_OVERFLOW: appIn = enlarge(appIn); break;
+                    case CLOSED: return false;
+                }
+                if (result.getHandshakeStatus() == NEED_TASK) runDelegatedTasks();
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 &&
+                        result.getStatus() == SSLEngineResult.Status.OK) return true;
+            }
+            return true;
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    // encrypts all of data into netOut, which is returned ready for writing
+    private ByteBuffer wrap(ByteBuffer data) throws IOException {
+        netOut.clear();
+        SSLEngineResult result;
+        do {
+            result = engine.wrap(data, netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW: netOut = enlarge(netOut); break;
+                case CLOSED: throw new Utils.StreamClosed();
+            }
+            if (result.getHandshakeStatus() == NEED_TASK) runDelegatedTasks();
+        } while (data.hasRemaining() || result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW);
+        netOut.flip();
+        return netOut;
+    }
+
+    // performed while the channel is still blocking
+    private void handshake() throws IOException {
+        engine.beginHandshake();
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != FINISHED && status != NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    ByteBuffer out = wrap(EMPTY);
+                    while (out.hasRemaining()) channel.write(out);
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    netIn.flip();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.unwrap(netIn, appIn);
+                    } finally {
+                        netIn.compact();
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                        throw new SSLException("Connection closed during handshake");
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        if (!netIn.hasRemaining()) netIn = enlarge(netIn);
+                        if (channel.read(netIn) == -1) throw new Utils.StreamClosed();
+                    }
+                    status = engine.getHandshakeStatus();
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) task.run();
+    }
+
+    // buffer must be in the mode of being filled
+    private static ByteBuffer enlarge(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
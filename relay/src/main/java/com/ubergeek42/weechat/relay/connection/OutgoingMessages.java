@@ -0,0 +1,124 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// commands that are waiting to be sent. they are gathered until the writer wakes up, and then
+// sent together in a single write. before that, redundant commands are removed:
+//   * of sync and desync with the same arguments, only the last one is kept, as it decides
+//     whether the buffer ends up synced or not;
+//   * of identical requests, such as "(hotlist) hdata hotlist:gui_hotlist(*)", only the last
+//     one is kept, as its response reflects the most recent state
+// all other commands, e.g. input, are always kept, and the order of commands is preserved.
+// commands can be added from any thread without locking; only the writer drains them
+class OutgoingMessages {
+    static class Line {
+        final String line;
+        final long enqueuedAt;          // System.nanoTime()
+        final Runnable onWritten;       // can be null
+
+        Line(String line, long enqueuedAt, Runnable onWritten) {
+            this.line = line;
+            this.enqueuedAt = enqueuedAt;
+            this.onWritten = onWritten;
+        }
+    }
+
+    // the commands to write, separated and terminated by newlines, and all lines that were
+    // drained, including the dropped ones, in the order they were added
+    static class Batch {
+        final String text;
+        final ArrayList<Line> lines;
+
+        Batch(String text, ArrayList<Line> lines) {
+            this.text = text;
+            this.lines = lines;
+        }
+    }
+
+    final private ConcurrentLinkedQueue<Line> queue = new ConcurrentLinkedQueue<>();
+    final private AtomicBoolean writerWoken = new AtomicBoolean(false);
+
+    boolean add(String message) {
+        return add(message, null);
+    }
+
+    // returns true if the writer must be woken up. the callback, if any, is run after the last line
+    // of the message has been written, or after a line that made it redundant has. messages with
+    // no commands are ignored along with their callbacks
+    boolean add(String message, Runnable onWritten) {
+        long now = System.nanoTime();
+        String[] lines = message.split("\n");
+        int last = lines.length - 1;
+        while (last >= 0 && lines[last].isEmpty()) last--;
+        if (last < 0) return false;
+
+        for (int i = 0; i <= last; i++) {
+            if (!lines[i].isEmpty()) queue.add(new Line(lines[i], now, i == last ? onWritten : null));
+        }
+        return writerWoken.compareAndSet(false, true);
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    // returns the commands separated and terminated by newlines, or null if there are none
+    String drain() {
+        Batch batch = drainBatch();
+        return batch == null ? null : batch.text;
+    }
+
+    // the writer must be marked as not woken before polling, so that the commands added after
+    // polling wake it up again
+    Batch drainBatch() {
+        writerWoken.set(false);
+
+        ArrayList<Line> lines = new ArrayList<>();
+        for (Line line; (line = queue.poll()) != null;) lines.add(line);
+        if (lines.isEmpty()) return null;
+
+        ArrayList<String> kept = new ArrayList<>(lines.size());
+        HashSet<String> seen = new HashSet<>();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i).line;
+            String key = getCoalescingKey(line);
+            if (key == null || seen.add(key)) kept.add(line);
+        }
+
+        Collections.reverse(kept);
+        StringBuilder builder = new StringBuilder();
+        for (String line : kept) builder.append(line).append('\n');
+        return new Batch(builder.toString(), lines);
+    }
+
+    // commands with the same key are redundant. null means that the command can't be dropped
+    static String getCoalescingKey(String line) {
+        String command = line;
+        if (command.startsWith("(")) {
+            int end = command.indexOf(") ");
+            if (end == -1) return null;
+            command = command.substring(end + 2);
+        }
+
+        int space = command.indexOf(' ');
+        String name = space == -1 ? command : command.substring(0, space);
+        String arguments = space == -1 ? "" : command.substring(space + 1);
+
+        switch (name) {
+            case "sync":
+            case "desync":
+                return "sync " + arguments;
+            case "hdata":
+            case "info":
+            case "infolist":
+            case "nicklist":
+                return line;
+            default:
+                return null;
+        }
+    }
+}
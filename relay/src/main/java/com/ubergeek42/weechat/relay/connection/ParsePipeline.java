@@ -0,0 +1,148 @@
+package com.ubergeek42.weechat.relay.connection;
+
+import com.ubergeek42.weechat.relay.RelayMessage;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+// parses the frames of a single connection on a small pool of threads, so that the thread that
+// reads the socket only has to frame the bytes. messages, and parsing errors, are delivered to the
+// consumer one at a time, in the order in which the frames were submitted: the thread that
+// completes the oldest pending frame delivers it along with the following frames that are ready.
+// after an error, or after close(), nothing else is delivered. the number of pending frames is
+// limited; once it is reached, submitting blocks
+class ParsePipeline {
+    interface Consumer {
+        void onMessage(RelayMessage message);
+        void onException(Exception e);
+    }
+
+    final static int MAX_PENDING = Utils.POOL_THREADS * 4;
+
+    final private static AtomicInteger threadCounter = new AtomicInteger();
+    final private static ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            Utils.POOL_THREADS, Utils.POOL_THREADS, 5, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "parse-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    final private Consumer consumer;
+    final private Semaphore slots = new Semaphore(MAX_PENDING);
+
+    // inflaters are not thread-safe, so each parsing thread takes one for the duration
+    final private ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    // parsed messages or exceptions by sequence number modulo MAX_PENDING
+    final private Object[] results = new Object[MAX_PENDING];
+    private long submitted = 0;
+    private long delivered = 0;
+    private boolean stopped = false;
+
+    ParsePipeline(Consumer consumer) {
+        this.consumer = consumer;
+    }
+
+    // true if everything submitted so far has been delivered. as long as the caller is the only
+    // one submitting, a message can then be delivered right away, see deliver()
+    synchronized boolean isIdle() {
+        return delivered == submitted;
+    }
+
+    // the frame must not be modified afterwards. returns false if the pipeline has stopped
+    boolean submit(byte[] data, int size) throws InterruptedException {
+        long sequence = obtainSequence();
+        if (sequence < 0) return false;
+        executor.execute(() -> complete(sequence, parse(data, size)));
+        return true;
+    }
+
+    // delivers a message that was parsed by the caller, after the ones submitted before. returns
+    // false if the pipeline has stopped
+    boolean deliver(RelayMessage message) throws InterruptedException {
+        long sequence = obtainSequence();
+        if (sequence < 0) return false;
+        complete(sequence, message);
+        return true;
+    }
+
+    // stops delivering and releases the inflaters. frames that are still being parsed are dropped
+    void close() {
+        synchronized (this) {
+            stop();
+        }
+        for (Inflater inflater; (inflater = inflaters.poll()) != null;) inflater.end();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // returns -1 if the pipeline has stopped
+    private long obtainSequence() throws InterruptedException {
+        slots.acquire();
+        synchronized (this) {
+            if (stopped) {
+                slots.release();
+                return -1;
+            }
+            return submitted++;
+        }
+    }
+
+    // wakes up the submitting thread, if it's waiting for a slot
+    private void stop() {
+        if (stopped) return;
+        stopped = true;
+        slots.release(MAX_PENDING);
+    }
+
+    private Object parse(byte[] data, int size) {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) inflater = new Inflater();
+        try {
+            return Utils.parseMessage(data, size, inflater);
+        } catch (Exception e) {
+            return e;
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        synchronized (this) {
+            if (!stopped) {
+                inflaters.add(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    private synchronized void complete(long sequence, Object result) {
+        results[(int) (sequence % MAX_PENDING)] = result;
+
+        while (!stopped && delivered < submitted) {
+            int index = (int) (delivered % MAX_PENDING);
+            Object next = results[index];
+            if (next == null) return;
+            results[index] = null;
+            delivered++;
+            slots.release();
+
+            if (next instanceof RelayMessage) {
+                consumer.onMessage((RelayMessage) next);
+            } else {
+                stop();
+                consumer.onException((Exception) next);
+            }
+        }
+    }
+}
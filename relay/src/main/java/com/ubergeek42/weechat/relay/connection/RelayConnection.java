@@ -1,6 +1,7 @@
 package com.ubergeek42.weechat.relay.connection;
 
 
+import com.ubergeek42.weechat.relay.MessageIds;
 import com.ubergeek42.weechat.relay.RelayMessage;
 
 import org.slf4j.Logger;
@@ -13,8 +14,6 @@ public class RelayConnection {
 
     final static int CONNECTION_TIMEOUT = 5 * 1000;
 
-    final private static String ID_LIST_BUFFERS = "listbuffers";
-
     public enum STATE {
         UNKNOWN,
         CONNECTING,
@@ -45,6 +44,12 @@ public class RelayConnection {
 
     private IConnection.Streams streams;
 
+    // commands are gathered here until the writer stream gets to them, and are then written at once
+    final private OutgoingMessages outgoing = new OutgoingMessages();
+
+    // the time from sendMessage() to the end of the write, for every line written
+    final private LatencyStats writeLatency = new LatencyStats();
+
     private volatile STATE state = STATE.UNKNOWN;
 
     private Handshake handshake;
@@ -67,16 +72,39 @@ public class RelayConnection {
     }
 
     public void sendMessage(String message) {
+        sendMessage(message, null);
+    }
+
+    // can be called from any thread. the callback, if any, is run after the message has been
+    // written to the socket, on the thread that did that; it should be quick. it is not run if the
+    // connection is closed before that. message connections write by themselves, and call back
+    public void sendMessage(String message, Runnable onWritten) {
         final String string = message.endsWith("\n") ? message : message + "\n";
-        if (connection instanceof WebSocketConnection) {
-            ((WebSocketConnection) connection).sendMessage(string);
-        } else {
-            writerStream.post(new Protected("writerStream", () ->
-                streams.outputStream.write(string.getBytes())
-            ));
+        if (connection instanceof IMessageConnection) {
+            long enqueuedAt = System.nanoTime();
+            ((IMessageConnection) connection).send(string, () -> {
+                writeLatency.record(System.nanoTime() - enqueuedAt);
+                if (onWritten != null) onWritten.run();
+            });
+        } else if (outgoing.add(string, onWritten)) {
+            writerStream.post(new Protected("writerStream", () -> {
+                OutgoingMessages.Batch batch = outgoing.drainBatch();
+                if (batch == null) return;
+                streams.outputStream.write(batch.text.getBytes());
+
+                long now = System.nanoTime();
+                for (OutgoingMessages.Line line : batch.lines) {
+                    writeLatency.record(now - line.enqueuedAt);
+                    if (line.onWritten != null) line.onWritten.run();
+                }
+            }));
         }
     }
 
+    public LatencyStats getWriteLatency() {
+        return writeLatency;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -123,11 +151,41 @@ public class RelayConnection {
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
     private void startThreadsAndAuthenticate() {
-        new Utils.FriendlyThread("ReadStream", iteration, new Protected("readStream", () -> {
-            while (!Thread.interrupted()) onMessage(Utils.getRelayMessage(streams.inputStream));
-        })).start();
-
-        if (streams.outputStream != null) writerStream.start();
+        if (connection instanceof IMessageConnection) {
+            new Protected("messageConnection", () ->
+                ((IMessageConnection) connection).start(new IMessageConnection.Listener() {
+                    @Override public void onMessage(RelayMessage message) {
+                        RelayConnection.this.onMessage(message);
+                    }
+
+                    @Override public void onException(Exception e) {
+                        onProtectedException("messageConnection", e);
+                    }
+                })
+            ).run();
+        } else {
+            // the reader only frames the bytes, and the messages are parsed in the pipeline
+            new Utils.FriendlyThread("ReadStream", iteration, new Protected("readStream", () -> {
+                Utils.RelayMessageReader reader = new Utils.RelayMessageReader(streams.inputStream);
+                ParsePipeline pipeline = new ParsePipeline(new ParsePipeline.Consumer() {
+                    @Override public void onMessage(RelayMessage message) {
+                        RelayConnection.this.onMessage(message);
+                    }
+
+                    @Override public void onException(Exception e) {
+                        onProtectedException("parsePipeline", e);
+                    }
+                });
+                try {
+                    reader.read(pipeline);
+                } finally {
+                    pipeline.close();
+                    reader.close();
+                }
+            })).start();
+
+            if (streams.outputStream != null) writerStream.start();
+        }
 
         handshake.start();
     }
@@ -157,8 +215,8 @@ public class RelayConnection {
 
         eventStream.post(() -> observer.onMessage(message));
 
-        // ID_LIST_BUFFERS must get requested after onAuthenticated() (BufferList does that)
-        if (ID_LIST_BUFFERS.equals(message.getID())) setState(STATE.BUFFERS_LISTED);
+        // listbuffers must get requested after onAuthenticated() (BufferList does that)
+        if (message.getIdCode() == MessageIds.LIST_BUFFERS) setState(STATE.BUFFERS_LISTED);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -178,11 +236,15 @@ public class RelayConnection {
             try {
                 event.run();
             } catch (Exception e) {
-                if (state == STATE.DISCONNECTED) return;
-                logger.error(name + ": exception while state == " + state, e);
-                eventStream.post(() -> observer.onException(e));
-                disconnect();
+                onProtectedException(name, e);
             }
         }
     }
+
+    private void onProtectedException(String name, Exception e) {
+        if (state == STATE.DISCONNECTED) return;
+        logger.error(name + ": exception while state == " + state, e);
+        eventStream.post(() -> observer.onException(e));
+        disconnect();
+    }
 }
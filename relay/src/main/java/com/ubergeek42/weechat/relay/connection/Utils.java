@@ -1,7 +1,6 @@
 package com.ubergeek42.weechat.relay.connection;
 
 import com.ubergeek42.weechat.relay.RelayMessage;
-import com.ubergeek42.weechat.relay.protocol.Data;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +9,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.zip.Inflater;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLPeerUnverifiedException;
@@ -19,7 +20,7 @@ import javax.net.ssl.SSLSocket;
 public class Utils {
 
     public static class StreamClosed extends IOException {
-        private StreamClosed() {
+        StreamClosed() {
             super("Stream unexpectedly closed");
         }
     }
@@ -49,44 +50,167 @@ public class Utils {
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
+    // the number of threads of the pools that do the heavy lifting in the background, such as
+    // parsing messages or rendering lines. one processor is left for the thread that feeds the pool
+    public final static int POOL_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
     private final static int HEADER_LENGTH = 4;
     private final static int MAX_MESSAGE_SIZE = 5 * 1024 * 1024;    // 5 MiB
 
-    // todo better handling of exceptions
-    static RelayMessage getRelayMessage(InputStream stream) throws IOException {
-        byte[] data = new byte[HEADER_LENGTH];
+    // buffers up to this size are kept for reuse; larger ones are only used for one message
+    private final static int MIN_BUFFER_SIZE = 4 * 1024;
+    private final static int MAX_KEPT_BUFFER_SIZE = 256 * 1024;
+
+    // messages up to this size are parsed by the reading thread if nothing else is being parsed
+    private final static int MAX_INLINE_PARSE_SIZE = 16 * 1024;
 
-        readAll(stream, data, 0);                                   // throws IOException, StreamClosed
-        int messageSize = new Data(data).getUnsignedInt();          // can throw but won't
+    static RelayMessage parseMessage(byte[] data, int messageSize, Inflater inflater)
+            throws IOException {
+        try {return new RelayMessage(data, messageSize, inflater);}
+        catch (Exception e) {throw new ProtocolError("Error while parsing message", e);}
+    }
 
-        if (messageSize > MAX_MESSAGE_SIZE)
-            throw new ProtocolError("Protocol error",  new NumberFormatException(
-                    "Server is attempting to send a message of size " + messageSize + " bytes"));
+    // reads messages of a single connection, either from a stream or from chunks of bytes that
+    // are fed to it. the receive buffer and the inflater are reused between messages. messages are
+    // parsed from the receive buffer in place; if a message keeps referencing it, see
+    // RelayMessage.retainsData(), it is given to the message for good
+    static class RelayMessageReader {
+        interface Consumer {
+            void onMessage(RelayMessage message);
+        }
 
-        data = enlarge(data, messageSize);
-        readAll(stream, data, HEADER_LENGTH);                       // throws IOException, StreamClosed
+        final private InputStream stream;
+        final private Inflater inflater = new Inflater();
+        final private byte[] header = new byte[HEADER_LENGTH];
+        private byte[] buffer = null;
+        private boolean lastMessageRetainedData = false;
 
-        RelayMessage message;
-        try {message = new RelayMessage(data);}
-        catch (Exception e) {throw new ProtocolError("Error while parsing message", e);}
+        // state of feed()
+        private byte[] data = null;
+        private int messageSize = 0;
+        private int position = 0;
 
-        return message;
+        RelayMessageReader(InputStream stream) {
+            this.stream = stream;
+        }
+
+        RelayMessageReader() {
+            this(null);
+        }
+
+        // todo better handling of exceptions
+        RelayMessage read() throws IOException {
+            readAll(stream, header, 0, HEADER_LENGTH);              // throws IOException, StreamClosed
+            int messageSize = getMessageSize();
+
+            byte[] data = obtainBuffer(messageSize);
+            System.arraycopy(header, 0, data, 0, HEADER_LENGTH);
+            readAll(stream, data, HEADER_LENGTH, messageSize);      // throws IOException, StreamClosed
+            return parse(data, messageSize);
+        }
+
+        // reads messages until interrupted or until the pipeline stops. small messages are parsed
+        // right here, in the reused receive buffer, if the pipeline has nothing else to deliver;
+        // the rest are parsed by the pipeline, each in an array of its own
+        void read(ParsePipeline pipeline) throws IOException, InterruptedException {
+            while (!Thread.interrupted()) {
+                readAll(stream, header, 0, HEADER_LENGTH);          // throws IOException, StreamClosed
+                int messageSize = getMessageSize();
+
+                boolean parseHere = messageSize <= MAX_INLINE_PARSE_SIZE && pipeline.isIdle();
+                byte[] data = parseHere ? obtainBuffer(messageSize) : new byte[messageSize];
+                System.arraycopy(header, 0, data, 0, HEADER_LENGTH);
+                readAll(stream, data, HEADER_LENGTH, messageSize);  // throws IOException, StreamClosed
+
+                boolean running = parseHere ?
+                        pipeline.deliver(parse(data, messageSize)) :
+                        pipeline.submit(data, messageSize);
+                if (!running) return;
+            }
+        }
+
+        // parses a single complete message, e.g. a websocket frame
+        RelayMessage read(byte[] frame) throws IOException {
+            System.arraycopy(frame, 0, header, 0, Math.min(frame.length, HEADER_LENGTH));
+            if (frame.length < HEADER_LENGTH || getMessageSize() != frame.length)
+                throw new ProtocolError("Protocol error", new NumberFormatException(
+                        "Message size doesn't match the size of the frame, " + frame.length));
+            return parse(frame, frame.length);
+        }
+
+        // consumes all of the bytes, passing every message completed by them to the consumer
+        void feed(ByteBuffer bytes, Consumer consumer) throws IOException {
+            while (bytes.hasRemaining()) {
+                if (data == null) {
+                    int length = Math.min(HEADER_LENGTH - position, bytes.remaining());
+                    bytes.get(header, position, length);
+                    position += length;
+                    if (position < HEADER_LENGTH) return;
+
+                    messageSize = getMessageSize();
+                    data = obtainBuffer(messageSize);
+                    System.arraycopy(header, 0, data, 0, HEADER_LENGTH);
+                }
+
+                int length = Math.min(messageSize - position, bytes.remaining());
+                bytes.get(data, position, length);
+                position += length;
+                if (position < messageSize) return;
+
+                RelayMessage message = parse(data, messageSize);
+                data = null;
+                position = 0;
+                consumer.onMessage(message);
+            }
+        }
+
+        private int getMessageSize() throws IOException {
+            int messageSize = (header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 |
+                    (header[2] & 0xff) << 8 | (header[3] & 0xff);
+
+            if (messageSize <= HEADER_LENGTH || messageSize > MAX_MESSAGE_SIZE)
+                throw new ProtocolError("Protocol error",  new NumberFormatException(
+                        "Server is attempting to send a message of size " + messageSize + " bytes"));
+            return messageSize;
+        }
+
+        private RelayMessage parse(byte[] data, int messageSize) throws IOException {
+            RelayMessage message = parseMessage(data, messageSize, inflater);
+            lastMessageRetainedData = message.retainsData();
+            if (lastMessageRetainedData && data == buffer) buffer = null;
+            return message;
+        }
+
+        // returns the receive buffer, growing it to the next power of two if needed. if the last
+        // message kept its array, the next one likely will too, e.g. lines during sync without
+        // compression, so in this case an array of the exact size is returned
+        private byte[] obtainBuffer(int size) {
+            if (lastMessageRetainedData) return new byte[size];
+            if (buffer != null && buffer.length >= size) return buffer;
+
+            int newSize = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size - 1) << 1);
+            byte[] newBuffer = new byte[newSize];
+            if (newSize <= MAX_KEPT_BUFFER_SIZE) buffer = newBuffer;
+            return newBuffer;
+        }
+
+        void close() {
+            inflater.end();
+        }
     }
 
-    private static void readAll(InputStream stream, byte[] data, int startAt) throws IOException {
-        for (int pos = startAt; pos != data.length;) {
-            int read = stream.read(data, pos, data.length - pos);
+    private static void readAll(InputStream stream, byte[] data, int startAt, int endAt)
+            throws IOException {
+        for (int pos = startAt; pos != endAt;) {
+            int read = stream.read(data, pos, endAt - pos);
             if (read == -1) throw new StreamClosed();
             pos += read;
         }
     }
 
-    private static byte[] enlarge(byte[] in, int size) {
-        byte[] out = new byte[size];
-        System.arraycopy(in, 0, out, 0, in.length);
-        return out;
-    }
-
     static int findAvailablePort() throws IOException {
         try (ServerSocket socket = new ServerSocket(0)) {
             return socket.getLocalPort();
@@ -9,9 +9,9 @@ import com.ubergeek42.weechat.SslAxolotl
 import com.ubergeek42.weechat.wrapExceptions
 import org.slf4j.LoggerFactory
 import java.io.IOException
-import java.io.PipedInputStream
-import java.io.PipedOutputStream
 import java.net.URI
+import java.util.Collections
+import java.util.IdentityHashMap
 import javax.net.ssl.SSLSocket
 
 
@@ -20,9 +20,19 @@ class WebSocketConnection(
     port: Int,
     path: String,
     private val sslAxolotl: SslAxolotl?,
-) : IConnection {
+) : IMessageConnection {
     private val webSocket: WebSocket
-    private val pipedOutputStream = PipedOutputStream()
+
+    // every binary frame is a single relay message, so it is parsed right on the thread
+    // of the websocket, without going through a stream and a reader thread
+    private val reader = Utils.RelayMessageReader()
+    @Volatile private var listener: IMessageConnection.Listener? = null
+    @Volatile private var closed = false
+
+    // the callbacks of the frames that are yet to be sent. the frames are sent by the thread of the
+    // websocket, in an order that can differ from the order of send() calls, so they are looked up
+    // by identity. without extensions, the frames are sent as they are
+    private val callbacks = Collections.synchronizedMap(IdentityHashMap<WebSocketFrame, Runnable>())
 
     // This is why we call setVerifyHostname(false) here:
     // The library is verifying the hostname like this:
@@ -74,9 +84,6 @@ class WebSocketConnection(
 
     @Throws(IOException::class, WebSocketException::class)
     override fun connect(): IConnection.Streams {
-        val inputStream = PipedInputStream()
-        pipedOutputStream.connect(inputStream)
-
         if (sslAxolotl == null) {
             webSocket.connect()
         } else {
@@ -87,17 +94,28 @@ class WebSocketConnection(
             }
         }
 
-        return IConnection.Streams(inputStream, null)
+        return IConnection.Streams(null, null)
+    }
+
+    override fun start(listener: IMessageConnection.Listener) {
+        this.listener = listener
     }
 
     @Throws(IOException::class)
     override fun disconnect() {
+        closed = true
         webSocket.disconnect()
-        pipedOutputStream.close()
     }
 
-    fun sendMessage(string: String?) {
-        webSocket.sendText(string)
+    override fun send(message: String, onWritten: Runnable?) {
+        val frame = WebSocketFrame.createTextFrame(message)
+        if (onWritten != null) callbacks[frame] = onWritten
+        webSocket.sendFrame(frame)
+    }
+
+    private fun onException(e: Exception) {
+        if (!closed) listener?.onException(e)
+        closed = true
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -111,17 +129,33 @@ class WebSocketConnection(
             logger.error("onConnectError({})", exception)
         }
 
-        @Throws(IOException::class)
         override fun onDisconnected(websocket: WebSocket, serverCloseFrame: WebSocketFrame,
                                     clientCloseFrame: WebSocketFrame, closedByServer: Boolean) {
             logger.trace("onDisconnected(closedByServer={})", closedByServer)
-            pipedOutputStream.close()
+            onException(Utils.StreamClosed())
+            reader.close()
         }
 
-        @Throws(Exception::class) override fun onBinaryMessage(websocket: WebSocket, binary: ByteArray) {
+        override fun onBinaryMessage(websocket: WebSocket, binary: ByteArray) {
             logger.trace("onBinaryMessage(size={})", binary.size)
-            pipedOutputStream.write(binary)
-            pipedOutputStream.flush()  // much faster with this
+            if (closed) return
+            try {
+                val message = reader.read(binary)
+                val listener = listener
+                if (listener != null) listener.onMessage(message)
+                else logger.warn("onBinaryMessage(): message received before start()")
+            } catch (e: IOException) {
+                onException(e)
+                webSocket.disconnect()
+            }
+        }
+
+        override fun onFrameSent(websocket: WebSocket, frame: WebSocketFrame) {
+            callbacks.remove(frame)?.run()
+        }
+
+        override fun onFrameUnsent(websocket: WebSocket, frame: WebSocketFrame) {
+            callbacks.remove(frame)
         }
 
         override fun onError(websocket: WebSocket, cause: WebSocketException) {
@@ -0,0 +1,500 @@
+package com.ubergeek42.weechat.relay.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import com.ubergeek42.weechat.relay.MessageIds;
+import com.ubergeek42.weechat.relay.protocol.RelayObject.WType;
+
+/**
+ * A faster version of {@link Data} that reads from a {@link ByteBuffer}. It produces the same
+ * objects, but strings are decoded in bulk straight from the backing array, numbers are parsed
+ * without going through a StringBuilder, and object types are looked up in a static table.
+ *
+ * The buffer is consumed from its current position up to its limit.
+ */
+public class ByteBufferData {
+
+    private final ByteBuffer buffer;
+    private boolean retainsBuffer = false;
+
+    public ByteBufferData(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public ByteBufferData(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    private void require(int length, String message) {
+        if (length > buffer.remaining()) {
+            throw new IndexOutOfBoundsException(message);
+        }
+    }
+
+    public int getUnsignedInt() {
+        require(4, "Not enough data to compute length");
+        return buffer.getInt();
+    }
+
+    public int getByte() {
+        require(1, "Not enough data");
+        return buffer.get() & 0xFF;
+    }
+
+    public char getChar() {
+        return (char) getByte();
+    }
+
+    public long getLongInteger() {
+        int length = getByte();
+        require(length, "Not enough data");
+        if (length == 0) {
+            throw new RuntimeException("Length must not be zero");
+        }
+
+        int start = buffer.position();
+        buffer.position(start + length);
+        return parseLong(buffer, start, length);
+    }
+
+    public String getString() {
+        int length = getUnsignedInt();
+        require(length, "Not enough data");
+        if (length == 0) {
+            return "";
+        }
+        if (length == -1) {
+            return null;
+        }
+
+        int start = buffer.position();
+        buffer.position(start + length);
+        return decodeString(buffer, start, length);
+    }
+
+    // if the next string is a message id known in advance, skips it and returns its code without
+    // making a string, see MessageIds. otherwise returns MessageIds.UNKNOWN, and the string is to
+    // be read with getString()
+    public int getMessageIdCode() {
+        require(4, "Not enough data to compute length");
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length <= 0 || !buffer.hasArray()) return MessageIds.UNKNOWN;
+        checkBounds(buffer, start + 4 + length);
+
+        int code = MessageIds.codeOf(buffer.array(), buffer.arrayOffset() + start + 4, length);
+        if (code != MessageIds.UNKNOWN) buffer.position(start + 4 + length);
+        return code;
+    }
+
+    public byte[] getBuffer() {
+        int length = getUnsignedInt();
+        require(length, "Not enough data");
+        if (length == 0) {
+            return new byte[0];
+        }
+        if (length == -1) {
+            return null;
+        }
+
+        byte[] ret = new byte[length];
+        buffer.get(ret);
+        return ret;
+    }
+
+    public String getPointer() {
+        int length = getByte();
+        require(length, "Not enough data");
+
+        char[] chars = new char[length + 2];
+        chars[0] = '0';
+        chars[1] = 'x';
+        for (int i = 0; i < length; i++) {
+            chars[i + 2] = (char) (buffer.get() & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    public long getPointerLong() {
+        int length = getByte();
+        require(length, "Not enough data");
+
+        int start = buffer.position();
+        buffer.position(start + length);
+        return parsePointer(buffer, start, length);
+    }
+
+    // the text of the pointer at the position that was read as the given value, if the pointer
+    // couldn't be parsed, or null
+    private String getInvalidPointer(int position, long value) {
+        if (value != -1) return null;
+        int end = buffer.position();
+        buffer.position(position);
+        String text = getPointer();
+        buffer.position(end);
+        return text;
+    }
+
+    public long getTime() {
+        return getLongInteger();
+    }
+
+    public Hashtable getHashtable() {
+        WType keyType = getType();
+        WType valueType = getType();
+        int count = getUnsignedInt();
+
+        Hashtable hta = new Hashtable(keyType, valueType);
+        for (int i = 0; i < count; i++) {
+            RelayObject k = getObject(keyType);
+            RelayObject v = getObject(valueType);
+            hta.put(k, v);
+        }
+
+        return hta;
+    }
+
+    // Only reads the header of hdata and skips over its rows. The rows can be then walked in place
+    // with Hdata.cursor(), or decoded into HdataEntry objects on the first call to Hdata.getItem()
+    public Hdata getHdata() {
+        Hdata whd = new Hdata();
+
+        String hpath = getString();
+        String keys = getString();
+        int count = getUnsignedInt();
+
+        if (count == 0) return whd;    // if count is 0, hpath and keys are null -- "empty hdata"
+
+        whd.path_list = hpath.split("/");
+        whd.setKeys(keys.split(","));
+
+        int start = buffer.position();
+        int end = start;
+        for (int i = 0; i < count; i++) {
+            end = skipHdataEntry(buffer, end, whd);
+        }
+
+        ByteBuffer rows = buffer.duplicate();
+        rows.limit(end);
+        rows.position(start);
+        whd.setRows(rows.slice(), count);
+        retainsBuffer = true;
+
+        buffer.position(end);
+        return whd;
+    }
+
+    HdataEntry getHdataEntry(Hdata whd) {
+        HdataEntry hde = new HdataEntry(whd.path_list.length);
+        for (int j = 0; j < whd.path_list.length; j++) {
+            int position = buffer.position();
+            long value = getPointerLong();
+            hde.addPointer(value, getInvalidPointer(position, value));
+        }
+
+        for (int j = 0; j < whd.key_list.length; j++) {
+            hde.addObject(whd.key_list[j], getObject(whd.type_list[j]));
+        }
+        return hde;
+    }
+
+    public Info getInfo() {
+        String name = getString();
+        String value = getString();
+        return new Info(name, value);
+    }
+
+    public Infolist getInfolist() {
+        String name = getString();
+        int count = getUnsignedInt();
+
+        Infolist wil = new Infolist(name);
+
+        for (int i = 0; i < count; i++) {
+            int numItems = getUnsignedInt();
+            HashMap<String, RelayObject> variables = new HashMap<>();
+            for (int j = 0; j < numItems; j++) {
+                String itemName = getString();
+                WType itemType = getType();
+                RelayObject item = getObject(itemType);
+                variables.put(itemName, item);
+            }
+            wil.addItem(variables);
+        }
+
+        return wil;
+    }
+
+    public Array getArray() {
+        WType arrayType = getType();
+        int arraySize = getUnsignedInt();
+        Array arr = new Array(arrayType, arraySize);
+        for (int i = 0; i < arraySize; i++) {
+            arr.add(getObject(arrayType));
+        }
+        return arr;
+    }
+
+    private WType getType() {
+        require(3, "Not enough data");
+        return getType(buffer.get(), buffer.get(), buffer.get());
+    }
+
+    public RelayObject getObject() {
+        WType type = getType();
+        return getObject(type);
+    }
+
+    RelayObject getObject(WType type) {
+        RelayObject ret = null;
+
+        switch (type) {
+        case CHR:
+            ret = new RelayObject(getChar());
+            break;
+        case INT:
+            ret = new RelayObject(getUnsignedInt());
+            break;
+        case LON:
+            ret = new RelayObject(getLongInteger());
+            break;
+        case STR:
+            ret = new RelayObject(getString());
+            break;
+        case BUF:
+            ret = new RelayObject(getBuffer());
+            break;
+        case PTR:
+            int position = buffer.position();
+            long value = getPointerLong();
+            ret = new RelayObject(value, getInvalidPointer(position, value));
+            break;
+        case TIM:
+            ret = new RelayObject(getTime());
+            break;
+        case ARR:
+            ret = new RelayObject(getArray());
+            break;
+        case HTB:
+            ret = getHashtable();
+            break;
+        case HDA:
+            ret = getHdata();
+            break;
+        case INF:
+            ret = getInfo();
+            break;
+        case INL:
+            ret = getInfolist();
+            break;
+        default:
+            System.err.println("[ByteBufferData.getObject] Unknown object type: " + type);
+        }
+        // Set the type of the object
+        if (ret != null) {
+            ret.setType(type);
+        }
+        return ret;
+    }
+
+    // Returns the unconsumed portion of the data stream
+    public byte[] getByteArray() {
+        byte[] ret = new byte[buffer.remaining()];
+        buffer.get(ret);
+        return ret;
+    }
+
+    /**
+     * @return true if any of the objects read so far decode their values lazily from the buffer,
+     *         see {@link Hdata#cursor()}
+     */
+    public boolean retainsBuffer() {
+        return retainsBuffer;
+    }
+
+    public boolean empty() {
+        return !buffer.hasRemaining();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // The following methods read from absolute positions and don't change the buffer position
+
+    // Same as Long.parseLong(), but reads ascii digits directly from the buffer
+    static long parseLong(ByteBuffer buffer, int start, int length) {
+        int end = start + length;
+        checkBounds(buffer, end);
+
+        int i = start;
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            if (length == 1) throw numberFormatException(buffer, start, length);
+            negative = first == '-';
+            i++;
+        }
+
+        // accumulating negatively, as Long.MIN_VALUE has no positive counterpart
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyMin) throw numberFormatException(buffer, start, length);
+            result *= 10;
+            if (result < limit + digit) throw numberFormatException(buffer, start, length);
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static NumberFormatException numberFormatException(ByteBuffer buffer, int start, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(start + i) & 0xFF);
+        }
+        return new NumberFormatException("For input string: \"" + new String(chars) + "\"");
+    }
+
+    // Pointers are sent as hex digits without the 0x prefix. Same as
+    // Long.parseUnsignedLong(..., 16), but returns -1 if the pointer can't be parsed
+    static long parsePointer(ByteBuffer buffer, int start, int length) {
+        checkBounds(buffer, start + length);
+        if (length == 0 || length > 16) return -1;
+
+        long result = 0;
+        for (int i = start; i < start + length; i++) {
+            int c = buffer.get(i);
+            int digit;
+            if (c >= '0' && c <= '9') digit = c - '0';
+            else if (c >= 'a' && c <= 'f') digit = c - 'a' + 10;
+            else if (c >= 'A' && c <= 'F') digit = c - 'A' + 10;
+            else return -1;
+            result = result << 4 | digit;
+        }
+        return result;
+    }
+
+    static String decodeString(ByteBuffer buffer, int start, int length) {
+        checkBounds(buffer, start + length);
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length,
+                    StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void checkBounds(ByteBuffer buffer, int end) {
+        if (end > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Not enough data");
+        }
+    }
+
+    // Returns the position right after the object of the given type that starts at position
+    static int skip(ByteBuffer buffer, int position, WType type) {
+        int end;
+        switch (type) {
+            case CHR:
+                end = position + 1;
+                break;
+            case INT:
+                end = position + 4;
+                break;
+            case LON:
+            case TIM:
+            case PTR:
+                checkBounds(buffer, position + 1);
+                end = position + 1 + (buffer.get(position) & 0xFF);
+                break;
+            case STR:
+            case BUF:
+                checkBounds(buffer, position + 4);
+                end = position + 4 + Math.max(0, buffer.getInt(position));
+                break;
+            case ARR: {
+                checkBounds(buffer, position + 7);
+                WType arrayType = getType(buffer.get(position), buffer.get(position + 1),
+                        buffer.get(position + 2));
+                int count = buffer.getInt(position + 3);
+                end = position + 7;
+                for (int i = 0; i < count; i++) end = skip(buffer, end, arrayType);
+                break;
+            }
+            case HTB: {
+                checkBounds(buffer, position + 10);
+                WType keyType = getType(buffer.get(position), buffer.get(position + 1),
+                        buffer.get(position + 2));
+                WType valueType = getType(buffer.get(position + 3), buffer.get(position + 4),
+                        buffer.get(position + 5));
+                int count = buffer.getInt(position + 6);
+                end = position + 10;
+                for (int i = 0; i < count; i++) {
+                    end = skip(buffer, end, keyType);
+                    end = skip(buffer, end, valueType);
+                }
+                break;
+            }
+            default: {
+                // these are rare enough to simply be decoded
+                ByteBuffer duplicate = buffer.duplicate();
+                duplicate.position(position);
+                new ByteBufferData(duplicate).getObject(type);
+                end = duplicate.position();
+            }
+        }
+        checkBounds(buffer, end);
+        return end;
+    }
+
+    static int skipHdataEntry(ByteBuffer buffer, int position, Hdata whd) {
+        for (int j = 0; j < whd.path_list.length; j++) {
+            position = skip(buffer, position, WType.PTR);
+        }
+        for (int j = 0; j < whd.key_list.length; j++) {
+            position = skip(buffer, position, whd.type_list[j]);
+        }
+        return position;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Types are three lowercase ascii letters; pack them into an int and look them up in a table.
+    // Or-ing with 0x20 lowercases letters, so that we accept types in any case, like valueOf() did
+    private final static int[] TYPE_KEYS;
+    private final static WType[] TYPE_VALUES;
+
+    static {
+        WType[] types = WType.values();
+        TYPE_KEYS = new int[types.length];
+        TYPE_VALUES = new WType[types.length];
+        for (int i = 0; i < types.length; i++) {
+            String name = types[i].name();
+            TYPE_KEYS[i] = name.length() == 3 ? typeKey(name.charAt(0), name.charAt(1), name.charAt(2)) : -1;
+            TYPE_VALUES[i] = types[i];
+        }
+    }
+
+    private static int typeKey(int a, int b, int c) {
+        return ((a | 0x20) & 0xFF) << 16 | ((b | 0x20) & 0xFF) << 8 | ((c | 0x20) & 0xFF);
+    }
+
+    static WType getType(int a, int b, int c) {
+        int key = typeKey(a, b, c);
+        for (int i = 0; i < TYPE_KEYS.length; i++) {
+            if (TYPE_KEYS[i] == key) return TYPE_VALUES[i];
+        }
+        throw new IllegalArgumentException("Unknown object type: " + (char) (a & 0xFF) +
+                (char) (b & 0xFF) + (char) (c & 0xFF));
+    }
+
+    static WType getType(String type) {
+        if (type.length() != 3) throw new IllegalArgumentException("Unknown object type: " + type);
+        return getType(type.charAt(0), type.charAt(1), type.charAt(2));
+    }
+}
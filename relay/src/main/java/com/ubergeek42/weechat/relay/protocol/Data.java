@@ -16,6 +16,7 @@
 package com.ubergeek42.weechat.relay.protocol;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Locale;
 
@@ -139,6 +140,28 @@ public class Data {
         return sb.toString();
     }
 
+    public long getPointerLong() {
+        int length = getByte();
+        if (pointer + length > data.length) {
+            throw new IndexOutOfBoundsException("Not enough data");
+        }
+
+        long ret = ByteBufferData.parsePointer(ByteBuffer.wrap(data), pointer, length);
+        pointer += length;
+        return ret;
+    }
+
+    // the text of the pointer at the position that was read as the given value, if the pointer
+    // couldn't be parsed, or null
+    private String getInvalidPointer(int position, long value) {
+        if (value != -1) return null;
+        int end = pointer;
+        pointer = position;
+        String text = getPointer();
+        pointer = end;
+        return text;
+    }
+
     // Maybe return a reasonable "Date" object or similar
     public long getTime() {
         long time = getLongInteger();
@@ -173,10 +196,11 @@ public class Data {
         whd.setKeys(keys.split(","));
 
         for (int i = 0; i < count; i++) {
-            HdataEntry hde = new HdataEntry();
+            HdataEntry hde = new HdataEntry(whd.path_list.length);
             for (int j = 0; j < whd.path_list.length; j++) {
-                String pointer = getPointer();
-                hde.addPointer(pointer);
+                int position = pointer;
+                long value = getPointerLong();
+                hde.addPointer(value, getInvalidPointer(position, value));
             }
 
             for (int j = 0; j < whd.key_list.length; j++) {
@@ -257,7 +281,9 @@ public class Data {
             ret = new RelayObject(getBuffer());
             break;
         case PTR:
-            ret = new RelayObject(getPointer());
+            int position = pointer;
+            long value = getPointerLong();
+            ret = new RelayObject(value, getInvalidPointer(position, value));
             break;
         case TIM:
             ret = new RelayObject(getTime());
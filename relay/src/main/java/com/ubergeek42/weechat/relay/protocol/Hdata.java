@@ -15,8 +15,8 @@
  ******************************************************************************/
 package com.ubergeek42.weechat.relay.protocol;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Locale;
 
 /**
  * Hdata Object from Weechat; basically a list of assocative arrays See the following URL for more
@@ -34,17 +34,47 @@ public class Hdata extends RelayObject {
 
     private ArrayList<HdataEntry> items = new ArrayList<HdataEntry>();
 
+    // If set, these are the undecoded rows of this hdata. Entries are decoded from them on demand
+    private ByteBuffer rows = null;
+    private int rowCount = 0;
+
     protected void addItem(HdataEntry hde) {
         items.add(hde);
     }
 
+    protected void setRows(ByteBuffer rows, int count) {
+        this.rows = rows;
+        this.rowCount = count;
+    }
+
+    private synchronized ArrayList<HdataEntry> getItems() {
+        if (rows != null && items.size() != rowCount) {
+            ByteBufferData data = new ByteBufferData(rows.duplicate());
+            for (int i = 0; i < rowCount; i++) items.add(data.getHdataEntry(this));
+        }
+        return items;
+    }
+
+    /**
+     * Walks the rows of this hdata in place, without creating HdataEntry objects. This is only
+     * available for hdata read by {@link ByteBufferData}
+     *
+     * @return A new cursor positioned before the first row
+     */
+    public HdataCursor cursor() {
+        if (rows == null && !items.isEmpty()) {
+            throw new IllegalStateException("Hdata has no undecoded rows");
+        }
+        return new HdataCursor(this, rows == null ? null : rows.duplicate(), rowCount);
+    }
+
     protected void setKeys(String[] keys) {
         key_list = new String[keys.length];
         type_list = new WType[keys.length];
         for (int i = 0; i < keys.length; i++) {
             String kt[] = keys[i].split(":");
             key_list[i] = kt[0];
-            type_list[i] = WType.valueOf(kt[1].toUpperCase(Locale.ENGLISH));
+            type_list[i] = ByteBufferData.getType(kt[1]);
         }
     }
 
@@ -52,7 +82,7 @@ public class Hdata extends RelayObject {
      * @return The number of items in the hdata object
      */
     public int getCount() {
-        return items.size();
+        return rows != null ? rowCount : items.size();
     }
 
     /**
@@ -63,7 +93,7 @@ public class Hdata extends RelayObject {
      * @return An HdataEntry object of the item
      */
     public HdataEntry getItem(int index) {
-        return items.get(index);
+        return getItems().get(index);
     }
 
     /**
@@ -75,7 +105,7 @@ public class Hdata extends RelayObject {
         if (path_list == null) s += "null";
         else for (String p : path_list) s += p + "/";
         s += "\n";
-        for (HdataEntry hde : items) s += hde.toString(2) + "\n";
+        for (HdataEntry hde : getItems()) s += hde.toString(2) + "\n";
         return s;
     }
 }
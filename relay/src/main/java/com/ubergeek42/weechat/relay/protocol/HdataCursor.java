@@ -0,0 +1,190 @@
+package com.ubergeek42.weechat.relay.protocol;
+
+import java.nio.ByteBuffer;
+
+import com.ubergeek42.weechat.relay.protocol.RelayObject.WType;
+
+/**
+ * A forward-only cursor over the rows of an {@link Hdata}. Values are read straight from the
+ * message bytes by column index, so walking the rows doesn't create an HdataEntry, a HashMap
+ * or a RelayObject per value. Look up the column indices once with {@link #columnIndex(String)}.
+ *
+ * Usage:
+ * <pre>
+ *     HdataCursor cursor = hdata.cursor();
+ *     int message = cursor.columnIndex("message");
+ *     while (cursor.next()) {
+ *         long pointer = cursor.pointer();
+ *         String text = cursor.getString(message);
+ *     }
+ * </pre>
+ */
+public class HdataCursor {
+
+    private final Hdata hdata;
+    private final ByteBuffer rows;
+    private final int count;
+
+    private final long[] pointers;      // path pointers of the current row
+    private final int[] offsets;        // positions of the values of the current row
+
+    private int row = -1;
+    private int nextRowPosition = 0;
+
+    HdataCursor(Hdata hdata, ByteBuffer rows, int count) {
+        this.hdata = hdata;
+        this.rows = rows;
+        this.count = count;
+        pointers = new long[hdata.path_list == null ? 0 : hdata.path_list.length];
+        offsets = new int[hdata.key_list == null ? 0 : hdata.key_list.length];
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The index of the current row, or -1 if {@link #next()} hasn't been called yet
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @param key
+     *            - The name of the column, e.g. "message"
+     * @return Index of the column or -1 if this hdata doesn't have it
+     */
+    public int columnIndex(String key) {
+        if (hdata.key_list == null) return -1;
+        for (int i = 0; i < hdata.key_list.length; i++) {
+            if (hdata.key_list[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves to the next row
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() {
+        if (row + 1 >= count) return false;
+        row++;
+
+        int position = nextRowPosition;
+        for (int i = 0; i < pointers.length; i++) {
+            int length = rows.get(position) & 0xFF;
+            pointers[i] = ByteBufferData.parsePointer(rows, position + 1, length);
+            position += 1 + length;
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = position;
+            position = ByteBufferData.skip(rows, position, hdata.type_list[i]);
+        }
+        nextRowPosition = position;
+        return true;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return The pointer to the object at the end of the hdata path
+     */
+    public long pointer() {
+        return pointers[pointers.length - 1];
+    }
+
+    /**
+     * @param index
+     *            - Which element in the path to get the pointer for
+     * @return The pointer, or -1 if it couldn't be parsed
+     */
+    public long pointer(int index) {
+        return pointers[index];
+    }
+
+    public WType getType(int column) {
+        return hdata.type_list[column];
+    }
+
+    private int offset(int column, WType type) {
+        if (hdata.type_list[column] != type) {
+            throw new RuntimeException("Cannont convert from " + hdata.type_list[column] + " to " + type);
+        }
+        return offsets[column];
+    }
+
+    public char getChar(int column) {
+        return (char) (rows.get(offset(column, WType.CHR)) & 0xFF);
+    }
+
+    public int getInt(int column) {
+        return rows.getInt(offset(column, WType.INT));
+    }
+
+    public long getLong(int column) {
+        int offset = offset(column, WType.LON);
+        return ByteBufferData.parseLong(rows, offset + 1, rows.get(offset) & 0xFF);
+    }
+
+    /**
+     * @return Time in seconds
+     */
+    public long getTime(int column) {
+        int offset = offset(column, WType.TIM);
+        return ByteBufferData.parseLong(rows, offset + 1, rows.get(offset) & 0xFF);
+    }
+
+    /**
+     * @return A pointer value of a column with the type ptr, or -1 if it couldn't be parsed
+     */
+    public long getPointer(int column) {
+        int offset = offset(column, WType.PTR);
+        return ByteBufferData.parsePointer(rows, offset + 1, rows.get(offset) & 0xFF);
+    }
+
+    /**
+     * @return The string, which can be null
+     */
+    public String getString(int column) {
+        int offset = offset(column, WType.STR);
+        int length = rows.getInt(offset);
+        if (length == -1) return null;
+        if (length == 0) return "";
+        return ByteBufferData.decodeString(rows, offset + 4, length);
+    }
+
+    /**
+     * @return Strings of an array of strings. For arrays of other types, returns an empty array
+     */
+    public String[] getStringArray(int column) {
+        int offset = offset(column, WType.ARR);
+        WType arrayType = ByteBufferData.getType(rows.get(offset), rows.get(offset + 1),
+                rows.get(offset + 2));
+        if (arrayType != WType.STR) return new String[0];
+
+        int length = rows.getInt(offset + 3);
+        String[] strings = new String[length];
+        int position = offset + 7;
+        for (int i = 0; i < length; i++) {
+            int stringLength = rows.getInt(position);
+            strings[i] = stringLength == -1 ? null : stringLength == 0 ? "" :
+                    ByteBufferData.decodeString(rows, position + 4, stringLength);
+            position += 4 + Math.max(0, stringLength);
+        }
+        return strings;
+    }
+
+    /**
+     * Decodes the value of a column of any type, e.g. a hashtable
+     */
+    public RelayObject getObject(int column) {
+        ByteBuffer duplicate = rows.duplicate();
+        duplicate.position(offsets[column]);
+        return new ByteBufferData(duplicate).getObject(hdata.type_list[column]);
+    }
+}
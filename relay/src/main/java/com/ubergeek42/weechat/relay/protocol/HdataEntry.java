@@ -15,7 +15,6 @@
  ******************************************************************************/
 package com.ubergeek42.weechat.relay.protocol;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -25,11 +24,21 @@ import java.util.HashMap;
  * 
  */
 public class HdataEntry extends RelayObject {
-    private final ArrayList<String> pointers = new ArrayList<String>();
+    private final long[] pointers;
+    private int pointerCount = 0;
+    private String[] invalidPointers;       // the text of the pointers that couldn't be parsed
     private final HashMap<String, RelayObject> data = new HashMap<String, RelayObject>();
 
-    protected void addPointer(String pointer) {
-        pointers.add(pointer);
+    protected HdataEntry(int pathLength) {
+        pointers = new long[pathLength];
+    }
+
+    protected void addPointer(long pointer, String invalidPointer) {
+        if (invalidPointer != null) {
+            if (invalidPointers == null) invalidPointers = new String[pointers.length];
+            invalidPointers[pointerCount] = invalidPointer;
+        }
+        pointers[pointerCount++] = pointer;
     }
 
     protected void addObject(String key, RelayObject value) {
@@ -51,8 +60,8 @@ public class HdataEntry extends RelayObject {
 
         String ret = String.format("%s[HdataEntry]\n", is);
         String pointerString = "";
-        for (String p : pointers) {
-            pointerString += p + ", ";
+        for (int i = 0; i < pointerCount; i++) {
+            pointerString += getPointer(i) + ", ";
         }
         ret += String.format("%s  Pointers: %s\n", is, pointerString);
 
@@ -78,15 +87,11 @@ public class HdataEntry extends RelayObject {
      * @return The pointer to the object at the end of the hdata path
      */
     public String getPointer() {
-        return pointers.get(pointers.size() - 1);
+        return getPointer(pointerCount - 1);
     }
 
     public long getPointerLong() {
-        try {
-            return Long.parseUnsignedLong(getPointer().substring(2), 16);
-        } catch (Exception e) {
-            return -1;
-        }
+        return getPointerLong(pointerCount - 1);
     }
 
     /**
@@ -97,14 +102,18 @@ public class HdataEntry extends RelayObject {
      * @return The pointer to the chosen element(as a String
      */
     public String getPointer(int index) {
-        return pointers.get(index);
+        long pointer = getPointerLong(index);
+        if (invalidPointers != null && invalidPointers[index] != null) return invalidPointers[index];
+        return RelayObject.pointerToString(pointer);
     }
 
+    /**
+     * @return The pointer as a number, or -1 if it couldn't be parsed
+     */
     public long getPointerLong(int index) {
-        try {
-            return Long.parseUnsignedLong(getPointer(index).substring(2), 16);
-        } catch (Exception e) {
-            return -1;
+        if (index < 0 || index >= pointerCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + pointerCount);
         }
+        return pointers[index];
     }
 }
@@ -57,6 +57,14 @@ public class RelayObject {
         type = WType.LON;
     }
 
+    // pointers that can't be parsed read as -1, which is also a valid pointer; these keep their
+    // original text as well, so that the string form stays the same as the one that was sent
+    protected RelayObject(long pointer, String invalidPointer) {
+        longValue = pointer;
+        strValue = invalidPointer;
+        type = WType.PTR;
+    }
+
     protected RelayObject(String s) {
         strValue = s;
         type = WType.STR;
@@ -147,20 +155,24 @@ public class RelayObject {
     }
 
     /**
-     * @return A string representing a pointer(e.g. 0xDEADBEEF)
+     * @return A string representing a pointer(e.g. 0xdeadbeef)
      */
     public String asPointer() {
         checkType(WType.PTR);
-        return strValue;
+        return strValue != null ? strValue : pointerToString(longValue);
     }
 
-
+    /**
+     * @return The pointer as a number, or -1 if this is not a pointer or it couldn't be parsed
+     */
     public long asPointerLong() {
-        try {
-            return Long.parseUnsignedLong(asPointer().substring(2), 16);
-        } catch (Exception e) {
-            return -1;
-        }
+        if (type != WType.PTR) return -1;
+        return longValue;
+    }
+
+    // Pointers are stored as numbers; the string form is only made on request
+    static String pointerToString(long pointer) {
+        return "0x" + Long.toHexString(pointer);
     }
 
     /**
@@ -0,0 +1,59 @@
+package com.ubergeek42.weechat;
+
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+public class ColorTest {
+
+	private static String spans(Color color) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < color.getSpanCount(); i++) {
+			sb.append(color.getSpanType(i)).append('@').append(color.getSpanStart(i))
+					.append('-').append(color.getSpanEnd(i)).append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+	@Test
+	public void testStrip() {
+		assertEquals("hello", Color.stripEverything("\u001905he\u001Cllo"));
+		assertEquals("hello world", Color.stripEverything("\u0019F*05hello\u0019bF \u001A*world\u001B*"));
+		assertEquals("", Color.stripEverything(""));
+	}
+
+	@Test
+	public void testSpans() {
+		Color color = new Color();
+
+		color.parseColors("\u001A*bold\u001B* \u001A_under\u001C");
+		assertEquals("0@0-4 1@5-10", spans(color));
+
+		// a span of the same color that continues right away is extended
+		color.parseColors("\u0019F05ab\u0019F05cd");
+		assertEquals(1, color.getSpanCount());
+		assertEquals(0, color.getSpanStart(0));
+		assertEquals(4, color.getSpanEnd(0));
+	}
+
+	@Test
+	public void testParseLine() {
+		Color color = Color.get();
+
+		color.parseLine("12:34", "\u0019F05nickname", "\u001A*hello\u001C world", true, false, 6, Color.ALIGN_RIGHT);
+		assertEquals("12:34 <nick>+hello world", color.getLineString());
+		assertEquals("nickname", color.getPrefixString());
+		assertEquals("hello world", color.getMessageString());
+		assertEquals(13, color.getMargin());
+
+		// the results of the previous line don't leak into the next one
+		color.parseLine(null, "ab", "plain", false, false, 4, Color.ALIGN_RIGHT);
+		assertEquals("  ab plain", color.getLineString());
+		assertEquals("ab", color.getPrefixString());
+		assertEquals("plain", color.getMessageString());
+		assertEquals(5, color.getMargin());
+		assertEquals("", spans(color));
+	}
+}
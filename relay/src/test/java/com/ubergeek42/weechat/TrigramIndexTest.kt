@@ -0,0 +1,64 @@
+package com.ubergeek42.weechat
+
+import org.junit.jupiter.api.Assertions.*
+
+import org.junit.jupiter.api.Test
+import java.util.Locale
+
+
+private val texts = listOf(
+    "<alice> hello world",
+    "<bob> HELLO there",
+    "<carol> goodbye",
+    "<dave> straße",
+    "<eve> world peace",
+)
+
+private fun makeIndex() = TrigramIndex(Locale.ENGLISH).apply {
+    texts.forEachIndexed { id, text -> add(id, text) }
+}
+
+
+internal class TrigramIndexTest {
+    @Test fun find() {
+        val index = makeIndex()
+        // the index ignores case, so "HELLO" is found too
+        assertArrayEquals(intArrayOf(0, 1), index.find("hello", caseSensitive = true, regex = false))
+        assertArrayEquals(intArrayOf(0, 4), index.find("world", caseSensitive = true, regex = false))
+        assertArrayEquals(intArrayOf(), index.find("nothing", caseSensitive = true, regex = false))
+        assertNull(index.find("he", caseSensitive = true, regex = false))
+    }
+
+    @Test fun findIgnoringCase() {
+        val index = makeIndex()
+        // "straße" is found, as its uppercase contains "SS"
+        assertArrayEquals(intArrayOf(0, 1, 3), index.find("hello", caseSensitive = false, regex = false))
+        assertArrayEquals(intArrayOf(3), index.find("nothing", caseSensitive = false, regex = false))
+        assertNull(index.find("ßhello", caseSensitive = false, regex = false))
+    }
+
+    @Test fun findRegex() {
+        val index = makeIndex()
+        assertArrayEquals(intArrayOf(0, 1), index.find("hel+o.*the?", caseSensitive = false, regex = true))
+        assertArrayEquals(intArrayOf(2), index.find("go+dbye", caseSensitive = true, regex = true))
+        assertNull(index.find("hello|world", caseSensitive = true, regex = true))
+        assertNull(index.find("\\x41bc", caseSensitive = true, regex = true))
+    }
+
+    @Test fun removeBefore() {
+        val index = makeIndex()
+        index.removeBefore(1)
+        assertArrayEquals(intArrayOf(4), index.find("world", caseSensitive = true, regex = false))
+        index.add(5, "<frank> world")
+        assertArrayEquals(intArrayOf(4, 5), index.find("world", caseSensitive = true, regex = false))
+        index.clear()
+        assertArrayEquals(intArrayOf(), index.find("world", caseSensitive = true, regex = false))
+    }
+
+    @Test fun getRequiredLiterals() {
+        assertEquals(listOf("a", "cd", "e", "fgh", "ij.k", "xyz"),
+                getRequiredLiterals("ab?cd+e.*fgh[a-z]ij\\.kl{2}\\dxyz"))
+        assertEquals(listOf("abc", "def"), getRequiredLiterals("^abc[]x]def$"))
+        assertEquals(listOf<String>(), getRequiredLiterals("(abc)"))
+    }
+}
@@ -0,0 +1,137 @@
+package com.ubergeek42.weechat
+
+import org.junit.jupiter.api.Assertions.*
+
+import org.junit.jupiter.api.Test
+
+
+// the strings of LinkifyTest, both the ones that contain urls and the ones that don't
+private val strings = listOf(
+    "foo",
+    "http://",
+    "http://#",
+    "http:// fail.com",
+    "http://.www..foo.bar/",
+    "http://url.co1/,",
+    "http://2.2.2.256/foo ",
+    "http://[3210:123z::]:80/bye#",
+    "www.mail-.lv",
+    "www.ma.-il.lv",
+    "www.127.0.0.1",
+    "www.[2607:f8b0:4009:810::200e]",
+    "www.123",
+    "http://ser\$ver.com",
+    "http://ser_ver.com",
+    "http://www.abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijkl/",
+    "h[://a.com/",
+    "http://…",
+
+    "http://url.com",
+    "http://funny.url.com",
+    "http://url.com./",
+    "http://url.com.:123",
+    "https://hp--community.force.com/",
+    "http://xn--d1abbgf6aiiy.xn--p1ai/",
+    "https://xn----8sbfxoeboc6b7i.xn--p1ai/",
+    "www.ma-il.lv/\$_",
+    "WWW.URL.COM",
+    "HTTP://URL.COM",
+    "http://url",
+    "http://url.r",
+    "protocol://foo?parameter=value",
+    "protocol+secure://foo.bar",
+    " http://url.com ",
+    "http://url.com.",
+    "http://url.com”",
+    "http://url.com…",
+    "http://url.com/foo”",
+    "http://url.com/foo…",
+    "  https://url\u0001",
+    "\u0003www.url.com",
+    "http://url.co\u00a0m/,",
+    "\"https://en.wikipedia.org/wiki/Bap_(food)\"",
+    "(http://url.com)",
+    "http://foo.com/blah_blah_(wikipedia))",
+    "(http://foo.com/blah_blah_(wikipedia)_(again))",
+    "http://127.0.0.1/foo",
+    "http://[3ffe:2a00:100:7031::1]",
+    "http://[1080::8:800:200C:417A]/foo",
+    "http://[FEDC:BA98:7654:3210:FEDC:BA98:7654:3210]:80/index.html",
+    "http://[::3210]:80/hi",
+    "http://[3210:123::]:80/bye#",
+    "http://server.com/www.server.com",
+    "http://badutf8pcokay.com/%FF?%FE#%FF",
+    "http://www.abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijk.com/",
+    "http://abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcde.abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijk.abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijk.abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijk.com",
+    "http://➡.ws/䨹",
+    "http://i❤️.ws/",
+    "HTTP://ПРЕЗИДЕНТ.РФ",
+    "https://моя-молитва.рф/",
+    "(https://ru.wikipedia.org/wiki/Мыло_(значения))",
+    "http://➡.ws/♥/pa%2Fth;par%2Fams?que%2Fry=a&b=c",
+    "http://website.com/path/is%2fslash/!$&'()*+,;=:@/path?query=!$&'()*+,;=:@?query#fragment!$&'()*+,;=:@#fragment",
+    "http://10.0.0.1?a=1",
+)
+
+// and all of them together, with several urls in one text
+private val texts = strings + listOf(" ", "\u0001", "").map { strings.joinToString(it) }
+
+
+private fun findAllUrls(input: CharSequence) =
+        URL.findAll(input).map { it.range.first to it.range.last + 1 }.toList()
+
+private fun UrlCandidates.toList() = (0 until count).map { getStart(it) to getEnd(it) }
+
+private fun findCandidateUrls(input: CharSequence, candidates: UrlCandidates) =
+        mutableListOf<Pair<Int, Int>>().apply {
+            findUrls(input, candidates) { start, end -> add(start to end) }
+        }
+
+// the message filter replaces the matches with spaces
+private fun filter(input: String, regex: Regex) = regex.replace(input) { " ".repeat(it.value.length) }
+
+// the text with some typical filters, and for the short texts, with every character in turn
+// replaced with a space
+private fun filteredVariants(input: String) =
+        (if (input.length > 200) listOf() else input.indices.map { input.replaceRange(it, it + 1, " ") }) +
+        listOf("""\([^)]*\)""", """[:/.]""", """^\S+""", """\bwww\b""", """\d+""")
+                .map { filter(input, it.toRegex()) }
+
+
+internal class UrlsTest {
+    @Test fun candidatesFindAllUrls() {
+        for (text in texts) {
+            val candidates = UrlCandidates().scan(text)
+            assertEquals(findAllUrls(text), findCandidateUrls(text, candidates), text)
+        }
+    }
+
+    // linkify runs on the filtered message, using the candidates of the unfiltered one
+    @Test fun candidatesFindAllUrlsInFilteredText() {
+        for (text in texts) {
+            val candidates = UrlCandidates().scan(text)
+            for (filtered in filteredVariants(text)) {
+                assertEquals(findAllUrls(filtered), findCandidateUrls(filtered, candidates), filtered)
+            }
+        }
+    }
+
+    // the candidates found while parsing colors are the same as the ones found in the result
+    @Test fun candidatesFromColorParsing() {
+        val color = Color()
+        for (text in texts) {
+            for (i in listOf(0, text.length / 2, text.length)) {
+                val message = text.substring(0, i) + "\u0019F05" + text.substring(i) + "\u001C"
+                color.parseLine("12:34", "\u0019F05nickname", message, true, false, 6, Color.ALIGN_RIGHT)
+                val messageString = color.messageString
+                val candidates = color.urlCandidates
+                assertEquals(UrlCandidates().scan(messageString).toList(), candidates.toList(), message)
+
+                assertEquals(findAllUrls(messageString), findCandidateUrls(messageString, candidates), message)
+                for (filtered in filteredVariants(messageString)) {
+                    assertEquals(findAllUrls(filtered), findCandidateUrls(filtered, candidates), filtered)
+                }
+            }
+        }
+    }
+}
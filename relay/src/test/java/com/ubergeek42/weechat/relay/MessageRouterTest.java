@@ -0,0 +1,131 @@
+package com.ubergeek42.weechat.relay;
+
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+public class MessageRouterTest {
+
+	private static RelayMessage message(String id, boolean compress) {
+		return new RelayMessage(RelayMessageTest.frame(RelayMessageTest.body(id), compress));
+	}
+
+	@Test
+	public void testIdCodes() {
+		for (boolean compress : new boolean[] {false, true}) {
+			RelayMessage message = message("_buffer_line_added", compress);
+			assertEquals(MessageIds.BUFFER_LINE_ADDED, message.getIdCode());
+			assertEquals("_buffer_line_added", message.getID());
+
+			message = message("listbuffers", compress);
+			assertEquals(MessageIds.LIST_BUFFERS, message.getIdCode());
+			assertEquals("listbuffers", message.getID());
+
+			message = message("42", compress);
+			assertEquals(MessageIds.ONE_OFF + 42, message.getIdCode());
+			assertEquals("42", message.getID());
+
+			message = message("_buffer_line_added_", compress);
+			assertEquals(MessageIds.UNKNOWN, message.getIdCode());
+			assertEquals("_buffer_line_added_", message.getID());
+		}
+	}
+
+	@Test
+	public void testCodeOf() {
+		for (int code = 0; code < MessageIds.COUNT; code++) {
+			String name = MessageIds.nameOf(code);
+			byte[] bytes = ("xx" + name).getBytes(StandardCharsets.UTF_8);
+			assertEquals(code, MessageIds.codeOf(name));
+			assertEquals(code, MessageIds.codeOf(bytes, 2, bytes.length - 2));
+		}
+
+		assertEquals(MessageIds.ONE_OFF, MessageIds.codeOf("0"));
+		assertEquals(MessageIds.ONE_OFF + 999_999_999, MessageIds.codeOf("999999999"));
+		assertEquals(MessageIds.UNKNOWN, MessageIds.codeOf("1000000000"));
+		assertEquals(MessageIds.UNKNOWN, MessageIds.codeOf("01"));
+		assertEquals(MessageIds.UNKNOWN, MessageIds.codeOf("1a"));
+		assertEquals(MessageIds.UNKNOWN, MessageIds.codeOf(""));
+		assertEquals(MessageIds.UNKNOWN, MessageIds.codeOf((String) null));
+	}
+
+	@Test
+	public void testRouting() {
+		MessageRouter<String> router = new MessageRouter<>();
+		router.add("_buffer_line_added", "line");
+		router.add("foo", "foo");
+
+		String first = router.addOneOff("first");
+		String second = router.addOneOff("second");
+
+		assertEquals("line", router.find(message("_buffer_line_added", false)));
+		assertEquals("line", router.find(message("_buffer_line_added", true)));
+		assertEquals("foo", router.find(message("foo", false)));
+		assertNull(router.find(message("bar", false)));
+		assertNull(router.find(message("_buffer_opened", false)));
+
+		// one-off handlers are found once
+		assertEquals("second", router.find(message(second, false)));
+		assertNull(router.find(message(second, false)));
+		assertEquals("first", router.find(message(first, false)));
+		assertNull(router.find(message(first, false)));
+
+		Map<String, Long> counts = router.getCounts();
+		assertEquals(2, (long) counts.get("_buffer_line_added"));
+		assertEquals(1, (long) counts.get("_buffer_opened"));
+		assertEquals(4, (long) counts.get("(one-off)"));
+		assertEquals(2, (long) counts.get("(other)"));
+
+		router.clear();
+		assertNull(router.find(message("_buffer_line_added", false)));
+		assertNull(router.find(message("foo", false)));
+	}
+
+	@Test
+	public void testOneOffIdsAreNotReused() {
+		MessageRouter<Integer> router = new MessageRouter<>();
+		String waiting = router.addOneOff(-1);
+
+		// more handlers than there are slots, found in random order
+		String[] ids = new String[100];
+		for (int i = 0; i < ids.length; i++) ids[i] = router.addOneOff(i);
+		for (int i = 0; i < ids.length; i += 2) assertEquals(i, (int) router.find(message(ids[i], false)));
+		for (int i = 1; i < ids.length; i += 2) assertEquals(i, (int) router.find(message(ids[i], false)));
+
+		for (int i = 0; i < ids.length; i++) {
+			String id = router.addOneOff(1000 + i);
+			for (String old : ids) assertFalse(id.equals(old));
+			assertNull(router.find(message(ids[i], false)));
+			assertEquals(1000 + i, (int) router.find(message(id, false)));
+		}
+
+		assertEquals(-1, (int) router.find(message(waiting, false)));
+		assertEquals(0, router.getUnansweredOneOffCount());
+	}
+
+	@Test
+	public void testUnansweredOneOffIsDropped() {
+		MessageRouter<Integer> router = new MessageRouter<>();
+		String stuck = router.addOneOff(-1);
+
+		// the table doesn't grow; the slot of the stuck handler is taken by a later one
+		String id = null;
+		for (int i = 0; i < 1024; i++) {
+			id = router.addOneOff(i);
+			assertEquals(i, (int) router.find(message(id, false)));
+		}
+		assertEquals(1, router.getUnansweredOneOffCount());
+		assertNull(router.find(message(stuck, false)));
+
+		id = router.addOneOff(2000);
+		assertEquals(2000, (int) router.find(message(id, false)));
+		assertEquals(1, router.getUnansweredOneOffCount());
+	}
+}
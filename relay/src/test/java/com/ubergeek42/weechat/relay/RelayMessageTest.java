@@ -0,0 +1,67 @@
+package com.ubergeek42.weechat.relay;
+
+
+import com.ubergeek42.weechat.relay.protocol.ByteBufferDataTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class RelayMessageTest {
+
+	public static byte[] body(String id) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		out.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		out.writeBytes(bytes);
+		out.writeBytes(ByteBufferDataTest.constructHdata());
+		return out.toByteArray();
+	}
+
+	public static byte[] frame(byte[] body, boolean compress) {
+		if (compress) {
+			Deflater deflater = new Deflater();
+			deflater.setInput(body);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[64];
+			while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+			deflater.end();
+			body = out.toByteArray();
+		}
+		return ByteBuffer.allocate(5 + body.length).putInt(5 + body.length)
+				.put((byte) (compress ? 1 : 0)).put(body).array();
+	}
+
+	@Test
+	public void testCompressedSameAsUncompressed() {
+		RelayMessage expected = new RelayMessage(frame(body("listlines"), false));
+		Inflater inflater = new Inflater();
+		for (int i = 0; i < 3; i++) {
+			byte[] frame = frame(body("listlines"), true);
+			RelayMessage actual = new RelayMessage(frame, frame.length, inflater);
+			assertEquals("listlines", actual.getID());
+			assertEquals(expected.getObjects()[0].toString(), actual.getObjects()[0].toString());
+		}
+		inflater.end();
+
+		assertEquals(expected.getObjects()[0].toString(),
+				new RelayMessage(frame(body("listlines"), true)).getObjects()[0].toString());
+	}
+
+	@Test
+	public void testTruncatedCompressedData() {
+		byte[] frame = frame(body("listlines"), true);
+		byte[] truncated = ByteBuffer.allocate(frame.length - 10).putInt(frame.length - 10)
+				.put(frame, 4, frame.length - 14).array();
+		assertThrows(RuntimeException.class, () -> new RelayMessage(truncated));
+	}
+}
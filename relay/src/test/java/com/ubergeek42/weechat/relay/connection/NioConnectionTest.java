@@ -0,0 +1,94 @@
+package com.ubergeek42.weechat.relay.connection;
+
+
+import com.ubergeek42.weechat.relay.RelayMessage;
+import com.ubergeek42.weechat.relay.RelayMessageTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class NioConnectionTest {
+
+	// the server answers 5 lines with 3 messages each, and then closes the connection. the messages
+	// are written in small uneven chunks, so that they arrive split and glued together
+	private static void serve(ServerSocket server) throws Exception {
+		try (Socket socket = server.accept()) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			OutputStream out = socket.getOutputStream();
+			String line;
+			int i = 0;
+			while (i < 5 && (line = in.readLine()) != null) {
+				ByteArrayOutputStream frames = new ByteArrayOutputStream();
+				for (int j = 0; j < 3; j++) {
+					frames.writeBytes(RelayMessageTest.frame(RelayMessageTest.body(line + j), (i + j) % 2 == 0));
+				}
+				byte[] bytes = frames.toByteArray();
+				for (int position = 0; position < bytes.length; position += 77) {
+					out.write(bytes, position, Math.min(77, bytes.length - position));
+					out.flush();
+				}
+				i++;
+			}
+		}
+	}
+
+	@Test
+	public void testSendAndReceive() throws Exception {
+		ServerSocket server = new ServerSocket(0);
+		Thread thread = new Thread(() -> {
+			try {
+				serve(server);
+			} catch (Exception ignored) {}
+		});
+		thread.start();
+
+		LinkedBlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		NioConnection connection = new NioConnection("localhost", server.getLocalPort(), null);
+		connection.connect();
+		connection.start(new IMessageConnection.Listener() {
+			@Override public void onMessage(RelayMessage message) {
+				received.add(message);
+			}
+
+			@Override public void onException(Exception e) {
+				received.add(e);
+			}
+		});
+
+		String expected = new RelayMessage(RelayMessageTest.frame(RelayMessageTest.body("x"), false))
+				.getObjects()[0].toString();
+		LinkedBlockingQueue<Integer> written = new LinkedBlockingQueue<>();
+		for (int i = 0; i < 5; i++) {
+			int index = i;
+			connection.send("test" + i + "\n", () -> written.add(index));
+			assertEquals(i, (int) written.poll(5, TimeUnit.SECONDS));
+			for (int j = 0; j < 3; j++) {
+				Object object = received.poll(5, TimeUnit.SECONDS);
+				assertNotNull(object);
+				RelayMessage message = (RelayMessage) object;
+				assertEquals("test" + i + j, message.getID());
+				assertEquals(expected, message.getObjects()[0].toString());
+			}
+		}
+
+		// the server closing the connection is reported as an exception
+		thread.join();
+		assertTrue(received.poll(5, TimeUnit.SECONDS) instanceof Utils.StreamClosed);
+		connection.disconnect();
+		server.close();
+	}
+}
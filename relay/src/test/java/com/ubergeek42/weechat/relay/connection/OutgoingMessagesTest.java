@@ -0,0 +1,89 @@
+package com.ubergeek42.weechat.relay.connection;
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class OutgoingMessagesTest {
+
+	@Test
+	public void testAdd() {
+		OutgoingMessages outgoing = new OutgoingMessages();
+		assertTrue(outgoing.isEmpty());
+		assertNull(outgoing.drain());
+		assertFalse(outgoing.add("\n"));
+		assertTrue(outgoing.add("ping\n"));
+		assertFalse(outgoing.add("ping"));
+		assertEquals("ping\nping\n", outgoing.drain());
+		assertTrue(outgoing.isEmpty());
+		assertTrue(outgoing.add("(a) info version\n(b) info version_number"));
+		assertEquals("(a) info version\n(b) info version_number\n", outgoing.drain());
+	}
+
+	@Test
+	public void testSyncDesync() {
+		OutgoingMessages outgoing = new OutgoingMessages();
+		outgoing.add("sync 0x1\n");
+		outgoing.add("input 0x1 hello\n");
+		outgoing.add("sync 0x2\n");
+		outgoing.add("desync 0x1\n");
+		outgoing.add("desync 0x2 nicklist\n");
+		assertEquals("input 0x1 hello\nsync 0x2\ndesync 0x1\ndesync 0x2 nicklist\n", outgoing.drain());
+
+		outgoing.add("desync 0x1");
+		outgoing.add("sync 0x1");
+		outgoing.add("desync 0x1");
+		outgoing.add("sync 0x1");
+		assertEquals("sync 0x1\n", outgoing.drain());
+	}
+
+	@Test
+	public void testDuplicateRequests() {
+		String hotlist = "(hotlist) hdata hotlist:gui_hotlist(*) buffer,count";
+		OutgoingMessages outgoing = new OutgoingMessages();
+		outgoing.add(hotlist + "\n(nicklist) nicklist 0x1\n");
+		outgoing.add("input 0x1 /buffer set hotlist -1\n");
+		outgoing.add("input 0x1 /buffer set hotlist -1\n");
+		outgoing.add(hotlist);
+		outgoing.add("(nicklist) nicklist 0x2\n");
+		assertEquals("(nicklist) nicklist 0x1\ninput 0x1 /buffer set hotlist -1\n" +
+				"input 0x1 /buffer set hotlist -1\n" + hotlist + "\n(nicklist) nicklist 0x2\n",
+				outgoing.drain());
+	}
+
+	@Test
+	public void testCallbacks() {
+		List<String> written = new ArrayList<>();
+		OutgoingMessages outgoing = new OutgoingMessages();
+		outgoing.add("sync 0x1\ninput 0x1 hello\n", () -> written.add("first"));
+		outgoing.add("desync 0x1", () -> written.add("second"));
+		outgoing.add("\n", () -> written.add("empty"));
+
+		// dropped commands are still reported, and the callbacks follow the order of the commands
+		OutgoingMessages.Batch batch = outgoing.drainBatch();
+		assertEquals("input 0x1 hello\ndesync 0x1\n", batch.text);
+		assertEquals(3, batch.lines.size());
+		for (OutgoingMessages.Line line : batch.lines) if (line.onWritten != null) line.onWritten.run();
+		assertEquals(List.of("first", "second"), written);
+		assertNull(outgoing.drainBatch());
+	}
+
+	@Test
+	public void testCoalescingKey() {
+		assertEquals("sync 0x1", OutgoingMessages.getCoalescingKey("desync 0x1"));
+		assertEquals("sync ", OutgoingMessages.getCoalescingKey("sync"));
+		assertNull(OutgoingMessages.getCoalescingKey("(id) input 0x1 hello"));
+		assertNull(OutgoingMessages.getCoalescingKey("(id"));
+		assertNull(OutgoingMessages.getCoalescingKey("ping"));
+		assertEquals("(id) hdata buffer:gui_buffers(*)",
+				OutgoingMessages.getCoalescingKey("(id) hdata buffer:gui_buffers(*)"));
+	}
+}
@@ -0,0 +1,95 @@
+package com.ubergeek42.weechat.relay.connection;
+
+
+import com.ubergeek42.weechat.relay.RelayMessage;
+import com.ubergeek42.weechat.relay.RelayMessageTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class ParsePipelineTest {
+
+	static class Collector implements ParsePipeline.Consumer {
+		final List<String> ids = new ArrayList<>();
+		final List<Exception> exceptions = new ArrayList<>();
+		final CountDownLatch latch;
+
+		Collector(int count) {
+			latch = new CountDownLatch(count);
+		}
+
+		@Override public synchronized void onMessage(RelayMessage message) {
+			ids.add(message.getID());
+			latch.countDown();
+		}
+
+		@Override public synchronized void onException(Exception e) {
+			exceptions.add(e);
+			latch.countDown();
+		}
+	}
+
+	// a message with a long id is too large to be parsed by the reading thread
+	private static String id(int i) {
+		if (i % 5 != 0) return "message" + i;
+		char[] padding = new char[20 * 1024];
+		Arrays.fill(padding, 'x');
+		return "message" + i + new String(padding);
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		int count = 200;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < count; i++) {
+			out.writeBytes(RelayMessageTest.frame(RelayMessageTest.body(id(i)), i % 3 != 0));
+		}
+
+		Collector collector = new Collector(count);
+		ParsePipeline pipeline = new ParsePipeline(collector);
+		Utils.RelayMessageReader reader = new Utils.RelayMessageReader(
+				new ByteArrayInputStream(out.toByteArray()));
+		assertThrows(Utils.StreamClosed.class, () -> reader.read(pipeline));
+		assertTrue(collector.latch.await(10, TimeUnit.SECONDS));
+		pipeline.close();
+		reader.close();
+
+		for (int i = 0; i < count; i++) assertEquals(id(i), collector.ids.get(i));
+		assertEquals(0, collector.exceptions.size());
+	}
+
+	@Test
+	public void testNothingDeliveredAfterError() throws Exception {
+		byte[] good = RelayMessageTest.frame(RelayMessageTest.body("good"), true);
+		byte[] bad = Arrays.copyOf(good, good.length);
+		bad[4] = 2;     // unknown compression
+
+		Collector collector = new Collector(2);
+		ParsePipeline pipeline = new ParsePipeline(collector);
+		assertTrue(pipeline.submit(good, good.length));
+		assertTrue(pipeline.submit(bad, bad.length));
+		assertTrue(collector.latch.await(10, TimeUnit.SECONDS));
+
+		// once stopped, the pipeline doesn't block the submitting thread
+		for (int i = 0; i < ParsePipeline.MAX_PENDING * 2; i++) {
+			assertFalse(pipeline.submit(good, good.length));
+		}
+		pipeline.close();
+
+		assertEquals(List.of("good"), collector.ids);
+		assertEquals(1, collector.exceptions.size());
+	}
+}
@@ -0,0 +1,66 @@
+package com.ubergeek42.weechat.relay.connection;
+
+
+import com.ubergeek42.weechat.relay.RelayMessage;
+import com.ubergeek42.weechat.relay.RelayMessageTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class RelayMessageReaderTest {
+
+	@Test
+	public void testReuseBuffer() throws IOException {
+		String expected = new RelayMessage(RelayMessageTest.frame(RelayMessageTest.body("x"), false))
+				.getObjects()[0].toString();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < 6; i++) {
+			out.writeBytes(RelayMessageTest.frame(RelayMessageTest.body("message" + i), i % 3 != 0));
+		}
+
+		// messages that are decoded lazily must not be overwritten by the following ones
+		Utils.RelayMessageReader reader = new Utils.RelayMessageReader(
+				new ByteArrayInputStream(out.toByteArray()));
+		List<RelayMessage> messages = new ArrayList<>();
+		for (int i = 0; i < 6; i++) messages.add(reader.read());
+		assertThrows(Utils.StreamClosed.class, reader::read);
+		reader.close();
+
+		for (int i = 0; i < 6; i++) {
+			assertEquals("message" + i, messages.get(i).getID());
+			assertEquals(expected, messages.get(i).getObjects()[0].toString());
+		}
+	}
+
+	@Test
+	public void testReadFrame() throws IOException {
+		Utils.RelayMessageReader reader = new Utils.RelayMessageReader();
+		for (int i = 0; i < 4; i++) {
+			RelayMessage message = reader.read(RelayMessageTest.frame(RelayMessageTest.body("frame" + i), i % 2 == 0));
+			assertEquals("frame" + i, message.getID());
+		}
+
+		byte[] frame = RelayMessageTest.frame(RelayMessageTest.body("frame"), true);
+		assertThrows(IOException.class, () -> reader.read(Arrays.copyOf(frame, frame.length + 1)));
+		assertThrows(IOException.class, () -> reader.read(new byte[]{0, 0}));
+		reader.close();
+	}
+
+	@Test
+	public void testBadSize() {
+		byte[] frame = new byte[]{0, 0, 0, 0, 0, 0, 0, 0};
+		Utils.RelayMessageReader reader = new Utils.RelayMessageReader(new ByteArrayInputStream(frame));
+		assertThrows(IOException.class, reader::read);
+	}
+}
@@ -0,0 +1,229 @@
+package com.ubergeek42.weechat.relay.protocol;
+
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class ByteBufferDataTest {
+
+	private static void putString(ByteArrayOutputStream out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		out.writeBytes(bytes);
+	}
+
+	private static void putAscii(ByteArrayOutputStream out, String s) {
+		out.write(s.length());
+		out.writeBytes(s.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	// hdata with two lines, as received on _buffer_line_added
+	public static byte[] constructHdata() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes("hda".getBytes(StandardCharsets.US_ASCII));
+		putString(out, "line_data");
+		putString(out, "buffer:ptr,date:tim,displayed:chr,prefix:str,message:str,tags_array:arr");
+		out.writeBytes(ByteBuffer.allocate(4).putInt(2).array());
+		for (int i = 0; i < 2; i++) {
+			putAscii(out, "55d8a5a0" + i);
+			putAscii(out, "55d8a4c0e7f0");
+			putAscii(out, "160000000" + i);
+			out.write(1);
+			putString(out, "\u0019F@00123nick" + i);
+			putString(out, "Norwegian characters æ, ø and å. " + i);
+			out.writeBytes("str".getBytes(StandardCharsets.US_ASCII));
+			out.writeBytes(ByteBuffer.allocate(4).putInt(2).array());
+			putString(out, "irc_privmsg");
+			putString(out, "nick_nick" + i);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testGetLongInteger() {
+		long testCases[] = new long[] {260L, 0L, -99999999L, 99999999L, 1234567890L, -0L, Long.MAX_VALUE, Long.MIN_VALUE};
+		for (long o : testCases) {
+			ByteBufferData d = new ByteBufferData(DataTest.constructWeechatLong(o));
+			assertEquals(o, d.getLongInteger());
+			assertTrue(d.empty());
+		}
+	}
+
+	@Test
+	public void testGetLongIntegerMalformed() {
+		String testCases[] = new String[] {"-", "+", "12a", "9223372036854775808", "-9223372036854775809"};
+		for (String o : testCases) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			putAscii(out, o);
+			assertThrows(NumberFormatException.class, () -> new Data(out.toByteArray()).getLongInteger());
+			assertThrows(NumberFormatException.class, () -> new ByteBufferData(out.toByteArray()).getLongInteger());
+		}
+	}
+
+	@Test
+	public void testGetString() {
+		String testCases[] = new String[] {
+				"Hello World",
+				"Test UTF-8 support from issue #1. Norwegian characters æ, ø and å.",
+				"¥ · £ · € · $ · ¢ · ₡ · ₢ · ₣ · ₤ · ₥ · ₦ · ₧ · ₨ · ₩ · ₪ · ₫ · ₭ · ₮ · ₯ · ₹",
+				""
+				};
+		for (String o : testCases) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			putString(out, o);
+			putString(out, o);
+
+			// also check a buffer that doesn't start at the beginning of its backing array
+			ByteBuffer bb = ByteBuffer.wrap(out.toByteArray());
+			ByteBufferData d = new ByteBufferData(bb);
+			assertEquals(o, d.getString());
+			assertEquals(o, new ByteBufferData(bb.slice()).getString());
+		}
+	}
+
+	@Test
+	public void testGetStringNull() {
+		ByteBuffer bb = ByteBuffer.allocate(4);
+		bb.putInt(-1);
+		assertEquals(null, new ByteBufferData(bb.array()).getString());
+	}
+
+	@Test
+	public void testGetStringDirectBuffer() {
+		byte[] bytes = "æ, ø and å".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer bb = ByteBuffer.allocateDirect(4 + bytes.length);
+		bb.putInt(bytes.length).put(bytes).flip();
+		assertEquals("æ, ø and å", new ByteBufferData(bb).getString());
+	}
+
+	@Test
+	public void testGetPointer() {
+		long testcases[] = new long[] {0x1a2b3c4d5L, 0x0, 0x11111, 0xdeadbeef};
+		for (long t : testcases) {
+			String test = String.format("%x", t);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			putAscii(out, test);
+			assertEquals("0x" + test, new ByteBufferData(out.toByteArray()).getPointer());
+			assertEquals(t, new ByteBufferData(out.toByteArray()).getPointerLong());
+			assertEquals(t, new Data(out.toByteArray()).getPointerLong());
+
+			RelayObject object = new ByteBufferData(out.toByteArray()).getObject(RelayObject.WType.PTR);
+			assertEquals(t, object.asPointerLong());
+			assertEquals("0x" + test, object.asPointer());
+		}
+	}
+
+	// -1 is also a valid pointer, so pointers that can't be parsed keep their text
+	@Test
+	public void testGetInvalidPointer() {
+		for (String test : new String[] {"", "xyz", "12345678901234567"}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			putAscii(out, test);
+			assertEquals(-1, new ByteBufferData(out.toByteArray()).getPointerLong());
+			assertEquals(-1, new Data(out.toByteArray()).getPointerLong());
+
+			RelayObject object = new ByteBufferData(out.toByteArray()).getObject(RelayObject.WType.PTR);
+			assertEquals(-1, object.asPointerLong());
+			assertEquals("0x" + test, object.asPointer());
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		putAscii(out, "ffffffffffffffff");
+		RelayObject object = new ByteBufferData(out.toByteArray()).getObject(RelayObject.WType.PTR);
+		assertEquals(-1, object.asPointerLong());
+		assertEquals("0xffffffffffffffff", object.asPointer());
+	}
+
+	@Test
+	public void testGetHdataWithEmptyPointer() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes("hda".getBytes(StandardCharsets.US_ASCII));
+		putString(out, "buffer/line");
+		putString(out, "buffer:ptr");
+		out.writeBytes(ByteBuffer.allocate(4).putInt(1).array());
+		putAscii(out, "");
+		putAscii(out, "55d8a4c0e7f0");
+		putAscii(out, "");
+		byte[] bytes = out.toByteArray();
+
+		for (RelayObject object : new RelayObject[] {new ByteBufferData(bytes).getObject(), new Data(bytes).getObject()}) {
+			HdataEntry entry = ((Hdata) object).getItem(0);
+			assertEquals("0x", entry.getPointer(0));
+			assertEquals(-1, entry.getPointerLong(0));
+			assertEquals("0x55d8a4c0e7f0", entry.getPointer());
+			assertEquals("0x", entry.getItem("buffer").asPointer());
+		}
+	}
+
+	@Test
+	public void testGetType() {
+		for (RelayObject.WType type : RelayObject.WType.values()) {
+			if (type == RelayObject.WType.UNKNOWN) continue;
+			assertEquals(type, ByteBufferData.getType(type.name()));
+			assertEquals(type, ByteBufferData.getType(type.name().toLowerCase()));
+		}
+		assertThrows(IllegalArgumentException.class, () -> ByteBufferData.getType("foo"));
+		assertThrows(IllegalArgumentException.class, () -> ByteBufferData.getType("unknown"));
+	}
+
+	@Test
+	public void testGetHdataSameAsData() {
+		byte[] bytes = constructHdata();
+		RelayObject expected = new Data(bytes).getObject();
+		ByteBufferData d = new ByteBufferData(bytes);
+		RelayObject actual = d.getObject();
+		assertTrue(d.empty());
+		assertEquals(RelayObject.WType.HDA, actual.getType());
+		assertEquals(expected.toString(), actual.toString());
+
+		HdataEntry entry = ((Hdata) actual).getItem(1);
+		assertEquals("0x55d8a5a01", entry.getPointer());
+		assertEquals("0x55d8a4c0e7f0", entry.getItem("buffer").asPointer());
+		assertEquals("nick_nick1", entry.getItem("tags_array").asArray().get(1).asString());
+	}
+
+	@Test
+	public void testGetByteArray() {
+		ByteBufferData d = new ByteBufferData(new byte[]{5, 1, 2, 3, 4});
+		d.getUnsignedInt();
+		assertEquals(4, d.getByteArray()[0]);
+		assertTrue(d.empty());
+	}
+
+	@Test
+	public void testGetEmpty() {
+		assertTrue(new ByteBufferData(new byte[0]).empty());
+
+		ByteBufferData d = new ByteBufferData(new byte[]{1, 2, 3, 4, 5});
+		d.getUnsignedInt();
+		assertFalse(d.empty());
+		d.getChar();
+		assertTrue(d.empty());
+	}
+
+	// Tests that involve exceptions
+	@Test
+	public void testExceptions() {
+		assertThrows(IndexOutOfBoundsException.class, () -> new ByteBufferData(new byte[]{3}).getUnsignedInt());
+		assertThrows(IndexOutOfBoundsException.class, () -> new ByteBufferData(new byte[]{5}).getLongInteger());
+		assertThrows(RuntimeException.class, () -> new ByteBufferData(new byte[]{0}).getLongInteger());
+		assertThrows(IndexOutOfBoundsException.class, () -> new ByteBufferData(new byte[]{5}).getPointer());
+		assertThrows(IndexOutOfBoundsException.class, () -> new ByteBufferData(new byte[0]).getByte());
+
+		ByteBuffer bb = ByteBuffer.allocate(4);
+		bb.order(ByteOrder.BIG_ENDIAN);
+		bb.putInt(bb.capacity());
+		assertThrows(IndexOutOfBoundsException.class, () -> new ByteBufferData(bb.array()).getString());
+		assertThrows(IndexOutOfBoundsException.class, () -> new ByteBufferData(bb.array()).getBuffer());
+	}
+}
@@ -0,0 +1,74 @@
+package com.ubergeek42.weechat.relay.protocol;
+
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class HdataCursorTest {
+
+	private static Hdata hdata() {
+		return (Hdata) new ByteBufferData(ByteBufferDataTest.constructHdata()).getObject();
+	}
+
+	@Test
+	public void testWalkRows() {
+		Hdata hdata = hdata();
+		HdataCursor cursor = hdata.cursor();
+		assertEquals(2, cursor.getCount());
+
+		int buffer = cursor.columnIndex("buffer");
+		int date = cursor.columnIndex("date");
+		int displayed = cursor.columnIndex("displayed");
+		int prefix = cursor.columnIndex("prefix");
+		int message = cursor.columnIndex("message");
+		int tags = cursor.columnIndex("tags_array");
+		assertEquals(-1, cursor.columnIndex("highlight"));
+
+		for (int i = 0; i < 2; i++) {
+			assertTrue(cursor.next());
+			assertEquals(i, cursor.getRow());
+
+			// must match the entries decoded the old way
+			HdataEntry entry = hdata.getItem(i);
+			assertEquals(entry.getPointerLong(), cursor.pointer());
+			assertEquals(entry.getPointerLong(0), cursor.pointer(0));
+			assertEquals(entry.getItem("buffer").asPointerLong(), cursor.getPointer(buffer));
+			assertEquals(entry.getItem("date").asTime().getTime(), cursor.getTime(date) * 1000);
+			assertEquals(entry.getItem("displayed").asChar(), cursor.getChar(displayed));
+			assertEquals(entry.getItem("prefix").asString(), cursor.getString(prefix));
+			assertEquals(entry.getItem("message").asString(), cursor.getString(message));
+			assertArrayEquals(entry.getItem("tags_array").asArray().asStringArray(), cursor.getStringArray(tags));
+			assertEquals(entry.getItem("tags_array").toString(), cursor.getObject(tags).toString());
+		}
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void testWrongType() {
+		HdataCursor cursor = hdata().cursor();
+		cursor.next();
+		assertThrows(RuntimeException.class, () -> cursor.getInt(cursor.columnIndex("message")));
+	}
+
+	@Test
+	public void testEmptyHdata() {
+		ByteBuffer bb = ByteBuffer.allocate(15);
+		bb.put("hda".getBytes());
+		bb.putInt(-1);
+		bb.putInt(-1);
+		bb.putInt(0);
+		Hdata hdata = (Hdata) new ByteBufferData(bb.array()).getObject();
+		assertEquals(0, hdata.getCount());
+		HdataCursor cursor = hdata.cursor();
+		assertEquals(-1, cursor.columnIndex("message"));
+		assertFalse(cursor.next());
+	}
+}
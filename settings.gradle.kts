@@ -1,3 +1,4 @@
 include(":cats")
 include(":relay")
+include(":relay-bench")
 include(":app")